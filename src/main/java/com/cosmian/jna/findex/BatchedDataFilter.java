@@ -0,0 +1,121 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link DataFilter} checking the locations with bulk lookups, run concurrently.
+ * <p>
+ * The locations received from a compaction are split in sub-batches of at most {@code subBatchSize} locations. The
+ * first sub-batch is checked in the calling thread and the others on the executor; the survivors are returned in the
+ * order of the locations. A failed lookup fails the filter, once all the lookups completed, and is recorded for the
+ * compaction as any callback error.
+ * <p>
+ * The native compaction decides how many locations each call receives: this filter cannot ask for larger batches, it
+ * only spreads each batch over concurrent lookups.
+ */
+public class BatchedDataFilter implements DataFilter {
+
+    /**
+     * Checks the existence of several locations in the user database at once, e.g. with a single
+     * {@code SELECT ... WHERE id IN (...)} query.
+     */
+    @FunctionalInterface
+    public interface LocationExistence {
+
+        /**
+         * @param locations the locations to check
+         * @return the locations which still exist
+         * @throws CloudproofException if the lookup fails
+         */
+        Set<Location> existing(List<Location> locations) throws CloudproofException;
+    }
+
+    private final LocationExistence existence;
+
+    private final Executor executor;
+
+    private int subBatchSize = 1000;
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder locations = new LongAdder();
+
+    private final LongAdder survivors = new LongAdder();
+
+    /**
+     * @param existence the bulk lookup of the locations
+     * @param executor the {@link Executor} running the lookups, which may block
+     */
+    public BatchedDataFilter(LocationExistence existence, Executor executor) {
+        this.existence = existence;
+        this.executor = executor;
+    }
+
+    /**
+     * @param subBatchSize the maximum number of locations per lookup, 1000 by default
+     * @return this filter
+     */
+    public BatchedDataFilter subBatchSize(int subBatchSize) {
+        if (subBatchSize < 1) {
+            throw new IllegalArgumentException("The sub-batch size must be positive");
+        }
+        this.subBatchSize = subBatchSize;
+        return this;
+    }
+
+    @Override
+    public List<Location> filter(List<Location> locations) throws CloudproofException {
+        List<List<Location>> batches = new ArrayList<>(locations.size() / subBatchSize + 1);
+        for (int from = 0; from < locations.size(); from += subBatchSize) {
+            batches.add(locations.subList(from, Math.min(locations.size(), from + subBatchSize)));
+        }
+        List<Location> remaining = new ArrayList<>(locations.size());
+        if (batches.isEmpty()) {
+            return remaining;
+        }
+        List<ShardedCalls.ShardCall<Set<Location>>> calls = new ArrayList<>(batches.size());
+        for (List<Location> batch : batches) {
+            calls.add(() -> existence.existing(batch));
+        }
+        List<Set<Location>> existing = ShardedCalls.invokeAll(executor, calls);
+        for (int i = 0; i < batches.size(); i++) {
+            for (Location location : batches.get(i)) {
+                if (existing.get(i).contains(location)) {
+                    remaining.add(location);
+                }
+            }
+        }
+        this.lookups.add(batches.size());
+        this.locations.add(locations.size());
+        this.survivors.add(remaining.size());
+        return remaining;
+    }
+
+    /**
+     * @return the number of bulk lookups
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return the number of locations checked
+     */
+    public long getLocations() {
+        return locations.sum();
+    }
+
+    /**
+     * @return the number of locations kept
+     */
+    public long getSurvivors() {
+        return survivors.sum();
+    }
+}
@@ -0,0 +1,232 @@
+package com.cosmian.jna.findex;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32BloomFilter;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An {@link EntryTableDatabase} filtering the fetches of another one through a {@link Uid32BloomFilter} of its UIDs.
+ * <p>
+ * Searching a keyword which was never indexed fetches Entry Table lines which do not exist: the UIDs which are
+ * definitely absent from the filter are not fetched, and a fetch in which all UIDs are absent does not reach the
+ * database.
+ * <p>
+ * The UIDs are added to the filter before they are inserted or upserted, so the filter is never behind the database.
+ * Deleted UIDs cannot be removed from the filter: they only increase its false positive rate until it is
+ * {@link #rebuild(long, double) rebuilt}, e.g. after a compact operation. The filter must be built from all the UIDs
+ * of the database, and only the writes going through this instance are added to it.
+ * <p>
+ * The writes may run during a rebuild: they are added to both the current and the new filter.
+ */
+public class BloomFilteredEntryTableDatabase implements EntryTableDatabase {
+
+    private final EntryTableDatabase delegate;
+
+    private volatile Uid32BloomFilter filter;
+
+    /**
+     * The filter being rebuilt, or null. The writes hold the read lock for their whole duration, so that the rebuild
+     * takes the write lock to start once the writes adding UIDs to the current filter only have completed.
+     */
+    private Uid32BloomFilter rebuilding = null;
+
+    private final ReentrantReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Filter an Entry Table database with an existing filter, e.g. one {@link Uid32BloomFilter#load(Path) loaded} from
+     * disk.
+     *
+     * @param delegate the Entry Table database
+     * @param filter a filter holding all the UIDs of the database
+     */
+    public BloomFilteredEntryTableDatabase(EntryTableDatabase delegate, Uid32BloomFilter filter) {
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    /**
+     * Filter an Entry Table database, building the filter from all its UIDs.
+     *
+     * @param delegate the Entry Table database
+     * @param expectedUids the number of UIDs the filter is sized for, including those to be added later
+     * @param falsePositiveRate the false positive rate once the expected number of UIDs were added
+     * @throws CloudproofException if the UIDs cannot be fetched
+     */
+    public BloomFilteredEntryTableDatabase(EntryTableDatabase delegate,
+                                           long expectedUids,
+                                           double falsePositiveRate)
+        throws CloudproofException {
+        this.delegate = delegate;
+        this.filter = build(expectedUids, falsePositiveRate);
+    }
+
+    private Uid32BloomFilter build(long expectedUids,
+                                   double falsePositiveRate)
+        throws CloudproofException {
+        Uid32BloomFilter newFilter = Uid32BloomFilter.create(expectedUids, falsePositiveRate);
+        for (Uid32 uid : delegate.fetchAllUids()) {
+            newFilter.put(uid);
+        }
+        return newFilter;
+    }
+
+    /**
+     * Replace the filter with a new one built from all the UIDs of the database, dropping the deleted UIDs.
+     * <p>
+     * The UIDs written during the rebuild are added to the new filter as well.
+     *
+     * @param expectedUids the number of UIDs the filter is sized for, including those to be added later
+     * @param falsePositiveRate the false positive rate once the expected number of UIDs were added
+     * @throws CloudproofException if the UIDs cannot be fetched
+     */
+    public synchronized void rebuild(long expectedUids,
+                                     double falsePositiveRate)
+        throws CloudproofException {
+        Uid32BloomFilter newFilter = Uid32BloomFilter.create(expectedUids, falsePositiveRate);
+        rebuildLock.writeLock().lock();
+        try {
+            rebuilding = newFilter;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+        boolean built = false;
+        try {
+            for (Uid32 uid : delegate.fetchAllUids()) {
+                newFilter.put(uid);
+            }
+            built = true;
+        } finally {
+            rebuildLock.writeLock().lock();
+            try {
+                if (built) {
+                    filter = newFilter;
+                }
+                rebuilding = null;
+            } finally {
+                rebuildLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Add UIDs to the filters. Must be called with the read lock held.
+     */
+    private void put(Set<Uid32> uids) {
+        Uid32BloomFilter f = filter;
+        Uid32BloomFilter r = rebuilding;
+        for (Uid32 uid : uids) {
+            f.put(uid);
+            if (r != null) {
+                r.put(uid);
+            }
+        }
+    }
+
+    /**
+     * Save the filter, to filter the database with it on the next start without fetching all its UIDs.
+     *
+     * @param path the file path
+     * @throws CloudproofException if the file cannot be written
+     */
+    public void save(Path path) throws CloudproofException {
+        filter.save(path);
+    }
+
+    /**
+     * @return the current filter
+     */
+    public Uid32BloomFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        return delegate.fetchAllUids();
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        Uid32BloomFilter f = filter;
+        List<Uid32> candidates = new ArrayList<>(uids.size());
+        for (Uid32 uid : uids) {
+            if (f.mightContain(uid)) {
+                candidates.add(uid);
+            }
+        }
+        skipped.add(uids.size() - candidates.size());
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Tuple<Uid32, EntryTableValue>> results = delegate.fetch(candidates);
+        falsePositives.add(candidates.size() - results.size());
+        return results;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        rebuildLock.readLock().lock();
+        try {
+            put(uidsAndValues.keySet());
+            return delegate.upsert(uidsAndValues);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        rebuildLock.readLock().lock();
+        try {
+            put(uidsAndValues.keySet());
+            delegate.insert(uidsAndValues);
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        delegate.delete(uids);
+    }
+
+    /**
+     * @return the number of UIDs not fetched because they are absent from the filter
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return the number of UIDs fetched because the filter may contain them, but absent from the database
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return the observed false positive rate: the proportion of the absent UIDs which were fetched, 0 if no absent
+     *         UID was fetched yet
+     */
+    public double getFalsePositiveRate() {
+        long fp = falsePositives.sum();
+        long absent = fp + skipped.sum();
+        return absent == 0 ? 0 : (double) fp / absent;
+    }
+}
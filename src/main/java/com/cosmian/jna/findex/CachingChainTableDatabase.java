@@ -0,0 +1,261 @@
+package com.cosmian.jna.findex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32HashMap;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link ChainTableDatabase} keeping the Chain Table lines fetched from another one in native memory.
+ * <p>
+ * Chain Table lines are written once and only removed by the compact operation: a cached line never needs to be
+ * refreshed, it is only invalidated on {@code delete}. The values are stored off-heap in a ring buffer of fixed
+ * capacity, so that a large cache does not weigh on the garbage collector; when the buffer is full, the oldest lines
+ * are evicted first. Only the index from the uids to the positions in the buffer is kept on the heap.
+ */
+public class CachingChainTableDatabase implements ChainTableDatabase {
+
+    /**
+     * A record is the value length (4 bytes), the uid (32 bytes) and the value
+     */
+    private static final int RECORD_HEADER = 4 + 32;
+
+    /**
+     * Value length marking the end of the buffer when a record did not fit before it
+     */
+    private static final int SKIP_TO_START = -1;
+
+    private final ChainTableDatabase delegate;
+
+    private final ByteBuffer ring;
+
+    private final int capacity;
+
+    /**
+     * The uids of the cached lines and the absolute position of their record
+     */
+    private final Uid32HashMap<Long> index = new Uid32HashMap<>();
+
+    /**
+     * Absolute position of the oldest record
+     */
+    private long head = 0;
+
+    /**
+     * Absolute position of the next record
+     */
+    private long tail = 0;
+
+    /**
+     * Incremented on each delete, so that a fetch concurrent to a delete does not cache the lines it read before the
+     * delete.
+     */
+    private long deletes = 0;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Wrap a Chain Table database.
+     *
+     * @param delegate the Chain Table database to cache
+     * @param capacity the size of the native memory holding the cached lines, in bytes
+     */
+    public CachingChainTableDatabase(ChainTableDatabase delegate, int capacity) {
+        if (capacity < RECORD_HEADER) {
+            throw new IllegalArgumentException("The cache capacity must be at least " + RECORD_HEADER + " bytes");
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        List<Uid32> missing = new ArrayList<>();
+        long deletesBeforeFetch;
+        lock.readLock().lock();
+        try {
+            ByteBuffer view = ring.duplicate();
+            for (Uid32 uid : uids) {
+                Long position = index.get(uid);
+                if (position == null) {
+                    missing.add(uid);
+                } else {
+                    int offset = (int) (position % capacity);
+                    byte[] value = new byte[view.getInt(offset)];
+                    view.position(offset + RECORD_HEADER);
+                    view.get(value);
+                    results.add(new Tuple<>(uid, new ChainTableValue(value)));
+                }
+            }
+            deletesBeforeFetch = deletes;
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.add(uids.size() - missing.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return results;
+        }
+
+        List<Tuple<Uid32, ChainTableValue>> fetched = delegate.fetch(missing);
+        lock.writeLock().lock();
+        try {
+            if (deletes == deletesBeforeFetch) {
+                for (Tuple<Uid32, ChainTableValue> line : fetched) {
+                    append(line.getLeft(), line.getRight().getBytes());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        results.addAll(fetched);
+        return results;
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        delegate.insert(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        try {
+            delegate.delete(uids);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                deletes++;
+                for (Uid32 uid : uids) {
+                    // the space of the record is reclaimed when it reaches the head of the buffer
+                    index.remove(uid);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Append a record at the tail of the buffer, evicting the oldest records to make room for it. The eviction never
+     * walks past the tail. Lines larger than the buffer are not cached.
+     */
+    private void append(Uid32 uid,
+                        byte[] value) {
+        long recordSize = RECORD_HEADER + (long) value.length;
+        if (recordSize > capacity || index.containsKey(uid)) {
+            return;
+        }
+        int offset = (int) (tail % capacity);
+        // a record is never split: skip the end of the buffer if it does not fit
+        long padding = offset + recordSize > capacity ? capacity - offset : 0;
+        while (tail + padding + recordSize - head > capacity) {
+            if (head == tail) {
+                // the buffer is empty but the record does not fit before its end: restart both at the next wrap,
+                // rather than reading a record header past the tail
+                tail += padding;
+                head = tail;
+                offset = 0;
+                padding = 0;
+                break;
+            }
+            evictHead();
+        }
+        if (padding > 0) {
+            if (padding >= 4) {
+                ring.putInt(offset, SKIP_TO_START);
+            }
+            tail += padding;
+            offset = 0;
+        }
+        ByteBuffer view = ring.duplicate();
+        view.position(offset);
+        view.putInt(value.length);
+        view.put(uid.getBytes());
+        view.put(value);
+        index.put(uid, tail);
+        tail += recordSize;
+    }
+
+    private void evictHead() {
+        int offset = (int) (head % capacity);
+        if (capacity - offset < 4 || ring.getInt(offset) == SKIP_TO_START) {
+            head += capacity - offset;
+            return;
+        }
+        int length = ring.getInt(offset);
+        byte[] uidBytes = new byte[32];
+        ByteBuffer view = ring.duplicate();
+        view.position(offset + 4);
+        view.get(uidBytes);
+        Uid32 uid = new Uid32(uidBytes);
+        // the line may have been deleted, and cached again at another position
+        Long position = index.get(uid);
+        if (position != null && position == head) {
+            index.remove(uid);
+            evictions.increment();
+        }
+        head += RECORD_HEADER + length;
+    }
+
+    /**
+     * @return the number of cached lines
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of the native memory in use, including the records of deleted lines not yet
+     *         reclaimed
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return tail - head;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of lines fetched from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lines fetched from the wrapped database
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of lines evicted because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,280 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An {@link EntryTableDatabase} keeping the most recently used Entry Table lines of another one in memory.
+ * <p>
+ * The cache is bounded by the size of the lines it holds, the least recently used lines are evicted first. Only
+ * existing lines are cached. The writes go to the wrapped database first and then update the cache; a failed
+ * conditional upsert refreshes the cached line with the current value returned by the database. When another write
+ * completed while a write was in progress, their order in the database is unknown: the written lines are invalidated
+ * instead, so that an older value never replaces a newer one.
+ * <p>
+ * The cache is only coherent with the writes going through it: if other clients update the same Entry Table, a search
+ * may miss their latest additions until the line is evicted, while their upserts are detected by the conditional
+ * upsert and refresh the cache.
+ */
+public class CachingEntryTableDatabase implements EntryTableDatabase {
+
+    /**
+     * Estimated memory used by a cached line on top of its value: the 32 bytes of the uid, the map entry and the
+     * objects headers.
+     */
+    static final int LINE_OVERHEAD = 128;
+
+    private final EntryTableDatabase delegate;
+
+    private final long maxBytes;
+
+    /**
+     * Lines in access order: the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<Uid32, EntryTableValue> lines = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes = 0;
+
+    /**
+     * Incremented on each write, so that a fetch or a write concurrent to a write does not cache a value which may be
+     * older than the one of the other write.
+     */
+    private long writes = 0;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Wrap an Entry Table database.
+     *
+     * @param delegate the Entry Table database to cache
+     * @param maxBytes the maximum size of the cached lines, in bytes
+     */
+    public CachingEntryTableDatabase(EntryTableDatabase delegate, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The cache size must be positive");
+        }
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+    }
+
+    static long weight(EntryTableValue value) {
+        return LINE_OVERHEAD + value.getBytes().length;
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        return delegate.fetchAllUids();
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        List<Uid32> missing = new ArrayList<>();
+        long writesBeforeFetch;
+        synchronized (this) {
+            for (Uid32 uid : uids) {
+                EntryTableValue value = lines.get(uid);
+                if (value == null) {
+                    missing.add(uid);
+                } else {
+                    results.add(new Tuple<>(uid, value));
+                }
+            }
+            writesBeforeFetch = writes;
+        }
+        hits.add(uids.size() - missing.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return results;
+        }
+
+        List<Tuple<Uid32, EntryTableValue>> fetched = delegate.fetch(missing);
+        synchronized (this) {
+            if (writes == writesBeforeFetch) {
+                for (Tuple<Uid32, EntryTableValue> line : fetched) {
+                    put(line.getLeft(), line.getRight());
+                }
+                evict();
+            }
+        }
+        results.addAll(fetched);
+        return results;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        long writesBeforeUpsert;
+        synchronized (this) {
+            writesBeforeUpsert = writes;
+        }
+        Map<Uid32, EntryTableValue> failed;
+        try {
+            failed = delegate.upsert(uidsAndValues);
+        } catch (CloudproofException | RuntimeException e) {
+            invalidate(uidsAndValues.keySet());
+            throw e;
+        }
+        synchronized (this) {
+            if (writes != writesBeforeUpsert) {
+                invalidate(uidsAndValues.keySet());
+                return failed;
+            }
+            writes++;
+            for (Map.Entry<Uid32, EntryTableValues> entry : uidsAndValues.entrySet()) {
+                Uid32 uid = entry.getKey();
+                if (failed.containsKey(uid)) {
+                    EntryTableValue current = failed.get(uid);
+                    if (current == null) {
+                        remove(uid);
+                    } else {
+                        put(uid, current);
+                    }
+                } else {
+                    put(uid, entry.getValue().getNew());
+                }
+            }
+            evict();
+        }
+        return failed;
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        long writesBeforeInsert;
+        synchronized (this) {
+            writesBeforeInsert = writes;
+        }
+        try {
+            delegate.insert(uidsAndValues);
+        } catch (CloudproofException | RuntimeException e) {
+            invalidate(uidsAndValues.keySet());
+            throw e;
+        }
+        synchronized (this) {
+            if (writes != writesBeforeInsert) {
+                invalidate(uidsAndValues.keySet());
+                return;
+            }
+            writes++;
+            for (Map.Entry<Uid32, EntryTableValue> entry : uidsAndValues.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            evict();
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        try {
+            delegate.delete(uids);
+        } finally {
+            invalidate(uids);
+        }
+    }
+
+    /**
+     * Remove the given lines from the cache.
+     *
+     * @param uids the uids of the lines
+     */
+    public synchronized void invalidate(Iterable<Uid32> uids) {
+        writes++;
+        for (Uid32 uid : uids) {
+            remove(uid);
+        }
+    }
+
+    /**
+     * Empty the cache.
+     */
+    public synchronized void invalidateAll() {
+        writes++;
+        lines.clear();
+        bytes = 0;
+    }
+
+    private void put(Uid32 uid,
+                     EntryTableValue value) {
+        EntryTableValue previous = lines.put(uid, value);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+        bytes += weight(value);
+    }
+
+    private void remove(Uid32 uid) {
+        EntryTableValue previous = lines.remove(uid);
+        if (previous != null) {
+            bytes -= weight(previous);
+        }
+    }
+
+    private void evict() {
+        Iterator<EntryTableValue> iterator = lines.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= weight(iterator.next());
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @return the number of cached lines
+     */
+    public synchronized int size() {
+        return lines.size();
+    }
+
+    /**
+     * @return the estimated memory used by the cached lines, in bytes
+     */
+    public synchronized long getWeightedSize() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of lines fetched from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lines fetched from the wrapped database
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the ratio of the lines fetched from the cache, 0 if nothing was fetched yet
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of lines evicted because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
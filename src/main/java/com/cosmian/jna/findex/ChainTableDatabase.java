@@ -1,5 +1,6 @@
 package com.cosmian.jna.findex;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -7,6 +8,7 @@ import com.cosmian.jna.findex.ffi.FFiUtils;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.DeleteCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.FetchCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.InsertCallback;
+import com.cosmian.jna.findex.ffi.RetainedOutput;
 import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Tuple;
 import com.cosmian.jna.findex.structs.ChainTableValue;
@@ -55,17 +57,28 @@ public interface ChainTableDatabase {
      */
     default FetchCallback fetchCallback() {
         return new FetchCallback() {
+            private final RetainedOutput<List<Tuple<Uid32, ChainTableValue>>> retained = new RetainedOutput<>();
+
             @Override
             public int callback(Pointer output,
                                 IntByReference outputLen,
                                 Pointer uidsPtr,
                                 int uidsLength) {
                 try {
-                    byte[] uids = new byte[uidsLength];
-                    uidsPtr.read(0, uids, 0, uidsLength);
-                    List<Uid32> chainTableUids = Leb128Reader.deserializeCollection(Uid32.class, uids);
-                    List<Tuple<Uid32, ChainTableValue>> uidsAndValues = fetch(chainTableUids);
-                    return FFiUtils.listOfTuplesToOutputPointer(uidsAndValues, output, outputLen);
+                    ByteBuffer input = FFiUtils.inputBuffer(uidsPtr, uidsLength);
+                    //
+                    // On the retry following a too small output, reuse the values already fetched
+                    //
+                    List<Tuple<Uid32, ChainTableValue>> uidsAndValues = retained.take(input);
+                    if (uidsAndValues == null) {
+                        List<Uid32> chainTableUids = Leb128Reader.deserializeCollection(Uid32.class, input.duplicate());
+                        uidsAndValues = fetch(chainTableUids);
+                    }
+                    int ret = FFiUtils.listOfTuplesToOutputPointer(uidsAndValues, output, outputLen);
+                    if (ret == 1) {
+                        retained.retain(input, uidsAndValues);
+                    }
+                    return ret;
                 } catch (CloudproofException e) {
                     return FindexCallbackException.record(e);
                 }
@@ -83,16 +96,11 @@ public interface ChainTableDatabase {
                                 int itemsLength) {
                 try {
                     //
-                    // Read `items` until `itemsLength`
-                    //
-                    byte[] itemsBytes = new byte[itemsLength];
-                    items.read(0, itemsBytes, 0, itemsLength);
-
-                    //
-                    // Deserialize the chain table items
+                    // Deserialize the items in place, without copying the native memory
                     //
                     Map<Uid32, ChainTableValue> uidsAndValues =
-                        Leb128Reader.deserializeMap(Uid32.class, ChainTableValue.class, itemsBytes);
+                        Leb128Reader.deserializeMap(Uid32.class, ChainTableValue.class,
+                            FFiUtils.inputBuffer(items, itemsLength));
 
                     //
                     // Insert in database
@@ -117,15 +125,10 @@ public interface ChainTableDatabase {
                                 int itemsLength) {
                 try {
                     //
-                    // Read `items` until `itemsLength`
-                    //
-                    byte[] itemsBytes = new byte[itemsLength];
-                    items.read(0, itemsBytes, 0, itemsLength);
-
-                    //
-                    // Deserialize the chain table items
+                    // Deserialize the items in place, without copying the native memory
                     //
-                    List<Uid32> uids = Leb128Reader.deserializeCollection(Uid32.class, itemsBytes);
+                    List<Uid32> uids =
+                        Leb128Reader.deserializeCollection(Uid32.class, FFiUtils.inputBuffer(items, itemsLength));
 
                     //
                     // Insert in database
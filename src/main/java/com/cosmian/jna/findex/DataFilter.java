@@ -2,9 +2,9 @@ package com.cosmian.jna.findex;
 
 import java.util.List;
 
+import com.cosmian.jna.findex.ffi.FFiUtils;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.DataFilterCallback;
 import com.cosmian.jna.findex.serde.Leb128Reader;
-import com.cosmian.jna.findex.serde.Leb128Writer;
 import com.cosmian.jna.findex.structs.Location;
 import com.cosmian.utils.CloudproofException;
 import com.sun.jna.Pointer;
@@ -31,23 +31,18 @@ public interface DataFilter extends DataFilterCallback {
                          Pointer items,
                          int itemsLength) {
         try {
-            //
-            // Read `items` until `itemsLength`
-            //
-            byte[] itemsBytes = new byte[itemsLength];
-            items.read(0, itemsBytes, 0, itemsLength);
-
             // Locations values are sent, not the indexed value, hence the use of a BytesVector
-            List<Location> locations = Leb128Reader.deserializeCollection(Location.class, itemsBytes);
+            List<Location> locations =
+                Leb128Reader.deserializeCollection(Location.class, FFiUtils.inputBuffer(items, itemsLength));
 
             List<Location> remainingLocations = filter(locations);
-            byte[] bytes = Leb128Writer.serializeCollection(remainingLocations);
-            output.write(0, bytes, 0, bytes.length);
-            if (remainingLocations.size() > 0) {
-                outputSize.setValue(bytes.length);
-            } else {
+            if (remainingLocations.isEmpty()) {
                 outputSize.setValue(0);
+                return 0;
             }
+            // encoded directly in the native memory, which holds the input: a filter returning other locations than a
+            // subset of the input may not fit
+            FFiUtils.listToOutputPointer(remainingLocations, output, itemsLength, outputSize);
             return 0;
         } catch (CloudproofException e) {
             return FindexCallbackException.record(e);
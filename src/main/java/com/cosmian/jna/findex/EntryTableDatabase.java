@@ -1,6 +1,6 @@
 package com.cosmian.jna.findex;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,11 +11,13 @@ import com.cosmian.jna.findex.ffi.FindexNativeWrapper.DumpTokensCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.FetchCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.InsertCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.UpsertCallback;
+import com.cosmian.jna.findex.ffi.RetainedOutput;
 import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Tuple;
 import com.cosmian.jna.findex.structs.EntryTableValue;
 import com.cosmian.jna.findex.structs.EntryTableValues;
 import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32HashMap;
 import com.cosmian.utils.CloudproofException;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
@@ -88,6 +90,8 @@ public interface EntryTableDatabase {
      */
     default FetchCallback fetchCallback() {
         return new FetchCallback() {
+            private final RetainedOutput<List<Tuple<Uid32, EntryTableValue>>> retained = new RetainedOutput<>();
+
             @Override
             public int callback(Pointer output,
                                 IntByReference outputLen,
@@ -95,14 +99,21 @@ public interface EntryTableDatabase {
                                 int uidsLength) {
 
                 try {
-                    byte[] uids = new byte[uidsLength];
-                    uidsPtr.read(0, uids, 0, uidsLength);
-
-                    List<Uid32> entryTableUids = Leb128Reader.deserializeCollection(Uid32.class, uids);
-
-                    List<Tuple<Uid32, EntryTableValue>> uidsAndValues = fetch(entryTableUids);
+                    ByteBuffer input = FFiUtils.inputBuffer(uidsPtr, uidsLength);
+                    //
+                    // On the retry following a too small output, reuse the values already fetched
+                    //
+                    List<Tuple<Uid32, EntryTableValue>> uidsAndValues = retained.take(input);
+                    if (uidsAndValues == null) {
+                        List<Uid32> entryTableUids = Leb128Reader.deserializeCollection(Uid32.class, input.duplicate());
+                        uidsAndValues = fetch(entryTableUids);
+                    }
 
-                    return FFiUtils.listOfTuplesToOutputPointer(uidsAndValues, output, outputLen);
+                    int ret = FFiUtils.listOfTuplesToOutputPointer(uidsAndValues, output, outputLen);
+                    if (ret == 1) {
+                        retained.retain(input, uidsAndValues);
+                    }
+                    return ret;
                 } catch (CloudproofException e) {
                     return FindexCallbackException.record(e);
                 }
@@ -123,40 +134,23 @@ public interface EntryTableDatabase {
                                 Pointer newValues,
                                 int newValuesLength) {
                 try {
-                    //
-                    // Read `oldValues` until `oldValuesLength`
-                    //
-                    byte[] oldValuesBytes = new byte[oldValuesLength];
-                    oldValues.read(0, oldValuesBytes, 0, oldValuesLength);
                     Map<Uid32, EntryTableValue> oldValuesMap =
-                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class, oldValuesBytes);
+                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class,
+                            FFiUtils.inputBuffer(oldValues, oldValuesLength));
 
-                    //
-                    // Read `newValues` until `newValuesLength`
-                    //
-                    byte[] newValuesBytes = new byte[newValuesLength];
-                    newValues.read(0, newValuesBytes, 0, newValuesLength);
                     Map<Uid32, EntryTableValue> newValuesMap =
-                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class, newValuesBytes);
+                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class,
+                            FFiUtils.inputBuffer(newValues, newValuesLength));
 
                     //
                     // merge both table values
                     //
-                    Map<Uid32, EntryTableValues> map = new HashMap<Uid32, EntryTableValues>();
+                    Map<Uid32, EntryTableValues> map = new Uid32HashMap<>(newValuesMap.size());
                     for (Map.Entry<Uid32, EntryTableValue> newValuesIter : newValuesMap.entrySet()) {
-                        boolean optionalValueFound = false;
-                        for (Map.Entry<Uid32, EntryTableValue> oldValuesIter : oldValuesMap.entrySet()) {
-                            if (newValuesIter.getKey().equals(oldValuesIter.getKey())) {
-                                EntryTableValues e =
-                                    new EntryTableValues(oldValuesIter.getValue(), newValuesIter.getValue());
-                                map.put(newValuesIter.getKey(), e);
-                                optionalValueFound = true;
-                            }
-                        }
-                        if (!optionalValueFound) {
-                            EntryTableValues e = new EntryTableValues(new EntryTableValue(), newValuesIter.getValue());
-                            map.put(newValuesIter.getKey(), e);
-                        }
+                        EntryTableValue oldValue = oldValuesMap.get(newValuesIter.getKey());
+                        map.put(newValuesIter.getKey(), new EntryTableValues(
+                            oldValue == null ? new EntryTableValue() : oldValue,
+                            newValuesIter.getValue()));
                     }
 
                     Map<Uid32, EntryTableValue> failedEntries = upsert(map);
@@ -178,16 +172,11 @@ public interface EntryTableDatabase {
                                 int itemsLength) {
                 try {
                     //
-                    // Read `items` until `itemsLength`
-                    //
-                    byte[] itemsBytes = new byte[itemsLength];
-                    items.read(0, itemsBytes, 0, itemsLength);
-
-                    //
-                    // Deserialize the chain table items
+                    // Deserialize the items in place, without copying the native memory
                     //
                     Map<Uid32, EntryTableValue> uidsAndValues =
-                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class, itemsBytes);
+                        Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class,
+                            FFiUtils.inputBuffer(items, itemsLength));
 
                     //
                     // Insert in database
@@ -212,16 +201,10 @@ public interface EntryTableDatabase {
                                 int itemsLength) {
                 try {
                     //
-                    // Read `items` until `itemsLength`
-                    //
-                    byte[] itemsBytes = new byte[itemsLength];
-                    items.read(0, itemsBytes, 0, itemsLength);
-
-                    //
-                    // Deserialize the chain table items
+                    // Deserialize the items in place, without copying the native memory
                     //
                     List<Uid32> uids =
-                        Leb128Reader.deserializeCollection(Uid32.class, itemsBytes);
+                        Leb128Reader.deserializeCollection(Uid32.class, FFiUtils.inputBuffer(items, itemsLength));
 
                     //
                     // Insert in database
@@ -238,19 +221,29 @@ public interface EntryTableDatabase {
 
     default DumpTokensCallback dumpTokenCallback() {
         return new DumpTokensCallback() {
+            private final RetainedOutput<Set<Uid32>> retained = new RetainedOutput<>();
+
             @Override
             public int callback(Pointer uidsPointer,
                                 IntByReference uidsLen) {
                 try {
                     //
-                    // Select uids and values in EntryTable
+                    // Select uids and values in EntryTable, unless they were retained by the previous call
                     //
-                    Set<Uid32> uidsAndValues = fetchAllUids();
+                    ByteBuffer noInput = ByteBuffer.allocate(0);
+                    Set<Uid32> uidsAndValues = retained.take(noInput);
+                    if (uidsAndValues == null) {
+                        uidsAndValues = fetchAllUids();
+                    }
 
                     //
                     // Serialize results
                     //
-                    return FFiUtils.setToOutputPointer(uidsAndValues, uidsPointer, uidsLen);
+                    int ret = FFiUtils.setToOutputPointer(uidsAndValues, uidsPointer, uidsLen);
+                    if (ret == 1) {
+                        retained.retain(noInput, uidsAndValues);
+                    }
+                    return ret;
                 } catch (CloudproofException e) {
                     return FindexCallbackException.record(e);
                 }
@@ -1,11 +1,23 @@
 package com.cosmian.jna.findex;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.DeleteCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.DumpTokensCallback;
@@ -13,18 +25,67 @@ import com.cosmian.jna.findex.ffi.FindexNativeWrapper.FetchCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.InsertCallback;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.UpsertCallback;
 import com.cosmian.jna.findex.ffi.KeywordSet;
+import com.cosmian.jna.findex.ffi.RetainedOutput;
 import com.cosmian.jna.findex.ffi.SearchResults;
+import com.cosmian.jna.findex.ffi.SearchResultsIterator;
 import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Leb128Writer;
 import com.cosmian.jna.findex.structs.IndexedValue;
 import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
 import com.cosmian.utils.CloudproofException;
 import com.sun.jna.Memory;
 import com.sun.jna.ptr.IntByReference;
 
-public final class Findex extends FindexBase {
+/**
+ * A Findex index.
+ * <p>
+ * Each instance owns its native handle: several instances (using different keys, labels or backends) can be used
+ * concurrently in the same JVM, and a single instance can be shared between threads. The instance should be
+ * {@link #close() closed} once it is no longer used.
+ */
+public final class Findex extends FindexBase implements AutoCloseable {
 
-    static int HANDLE;
+    /**
+     * The initial size of the buffer holding the search results
+     */
+    public static final int DEFAULT_SEARCH_RESULTS_BUFFER_SIZE = 131072;
+
+    /**
+     * The size above which the search buffer is only allocated on demand
+     */
+    public static final int MAX_SEARCH_RESULTS_BUFFER_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The handle of the native Findex instance
+     */
+    private final int handle;
+
+    /**
+     * Calls to the native library hold the read lock; closing the instance takes the write lock so that it waits for
+     * all the in-flight calls to complete.
+     */
+    private final ReentrantReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Asynchronous calls waiting for an in-flight slot
+     */
+    private final ConcurrentLinkedQueue<AsyncCall<?>> pendingAsyncCalls = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger inFlightAsyncCalls = new AtomicInteger();
+
+    /**
+     * Whether the current thread is dispatching the pending asynchronous calls
+     */
+    private final ThreadLocal<Boolean> dispatching = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private volatile int maxInFlightAsyncCalls = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger nextSearchResultsBufferSize = new AtomicInteger(DEFAULT_SEARCH_RESULTS_BUFFER_SIZE);
+
+    private final LongAdder searchReExecutions = new LongAdder();
 
     // In case a custom backend is created, objects holding the callbacks need
     // to be stored to prevent them from being garbage collected.
@@ -69,7 +130,7 @@ public final class Findex extends FindexBase {
         throws CloudproofException {
         final Memory keyPointer = new Memory(key.length);
         keyPointer.write(0, key, 0, key.length);
-        IntByReference handle = new IntByReference();
+        IntByReference nativeHandle = new IntByReference();
 
         entryFetcher = entryTable.fetchCallback();
         chainFetcher = chainTable.fetchCallback();
@@ -80,7 +141,7 @@ public final class Findex extends FindexBase {
         chainDeleter = chainTable.deleteCallback();
         entryDumper = entryTable.dumpTokenCallback();
 
-        unwrap(System.currentTimeMillis(), INSTANCE.h_instantiate_with_custom_interface(handle,
+        unwrap(INSTANCE.h_instantiate_with_custom_interface(nativeHandle,
             keyPointer, key.length,
             label,
             entryTableNumber,
@@ -93,7 +154,7 @@ public final class Findex extends FindexBase {
             chainDeleter,
             entryDumper));
 
-        HANDLE = handle.getValue();
+        this.handle = nativeHandle.getValue();
     }
 
     /**
@@ -132,11 +193,10 @@ public final class Findex extends FindexBase {
                   String entryUrl,
                   String chainUrl)
         throws CloudproofException {
-        IntByReference handle = new IntByReference();
+        IntByReference nativeHandle = new IntByReference();
 
-        unwrap(System.currentTimeMillis(),
-            INSTANCE.h_instantiate_with_rest_interface(handle, label, token, entryUrl, chainUrl));
-        HANDLE = handle.getValue();
+        unwrap(INSTANCE.h_instantiate_with_rest_interface(nativeHandle, label, token, entryUrl, chainUrl));
+        this.handle = nativeHandle.getValue();
     }
 
     /**
@@ -153,11 +213,10 @@ public final class Findex extends FindexBase {
                   String token,
                   String url)
         throws CloudproofException {
-        IntByReference handle = new IntByReference();
+        IntByReference nativeHandle = new IntByReference();
 
-        unwrap(System.currentTimeMillis(),
-            INSTANCE.h_instantiate_with_rest_interface(handle, label, token, url, url));
-        HANDLE = handle.getValue();
+        unwrap(INSTANCE.h_instantiate_with_rest_interface(nativeHandle, label, token, url, url));
+        this.handle = nativeHandle.getValue();
     }
 
     // ----------------------------------------------------------------//
@@ -184,17 +243,24 @@ public final class Findex extends FindexBase {
         byte[] newKeywordsBuffer = new byte[0];
         IntByReference newKeywordsBufferSize = new IntByReference();
 
-        long start = System.currentTimeMillis();
-        int ffiCode = INSTANCE.h_add(newKeywordsBuffer, newKeywordsBufferSize,
-            HANDLE,
-            additionsPointer, additionsBytes.length);
-
-        if (ffiCode == 1) {
-            newKeywordsBuffer = new byte[newKeywordsBufferSize.getValue()];
-            unwrap(System.currentTimeMillis(), INSTANCE.h_add(newKeywordsBuffer, newKeywordsBufferSize,
-                HANDLE, additionsPointer, additionsBytes.length));
-        } else {
-            unwrap(start, ffiCode);
+        acquire();
+        try {
+            FindexCallbackException.clear();
+            int ffiCode = INSTANCE.h_add(newKeywordsBuffer, newKeywordsBufferSize,
+                handle,
+                additionsPointer, additionsBytes.length);
+
+            if (ffiCode == 1) {
+                RetainedOutput.clear();
+                newKeywordsBuffer = new byte[newKeywordsBufferSize.getValue()];
+                unwrap(INSTANCE.h_add(newKeywordsBuffer, newKeywordsBufferSize,
+                    handle, additionsPointer, additionsBytes.length));
+            } else {
+                unwrap(ffiCode);
+            }
+        } finally {
+            RetainedOutput.clear();
+            release();
         }
 
         byte[] newKeywordsBytes = Arrays.copyOfRange(newKeywordsBuffer, 0, newKeywordsBufferSize.getValue());
@@ -224,19 +290,25 @@ public final class Findex extends FindexBase {
         byte[] newKeywordsBuffer = new byte[0];
         IntByReference newKeywordsBufferSize = new IntByReference();
 
-        long start = System.currentTimeMillis();
-        int ffiCode = INSTANCE.h_delete(newKeywordsBuffer, newKeywordsBufferSize,
-            HANDLE,
-            deletionsPointer, deletionsBytes.length);
-
-        if (ffiCode == 1) {
-            newKeywordsBuffer = new byte[newKeywordsBufferSize.getValue()];
-            unwrap(System.currentTimeMillis(),
-                INSTANCE.h_delete(newKeywordsBuffer, newKeywordsBufferSize,
-                    HANDLE,
+        acquire();
+        try {
+            FindexCallbackException.clear();
+            int ffiCode = INSTANCE.h_delete(newKeywordsBuffer, newKeywordsBufferSize,
+                handle,
+                deletionsPointer, deletionsBytes.length);
+
+            if (ffiCode == 1) {
+                RetainedOutput.clear();
+                newKeywordsBuffer = new byte[newKeywordsBufferSize.getValue()];
+                unwrap(INSTANCE.h_delete(newKeywordsBuffer, newKeywordsBufferSize,
+                    handle,
                     deletionsPointer, deletionsBytes.length));
-        } else {
-            unwrap(start, ffiCode);
+            } else {
+                unwrap(ffiCode);
+            }
+        } finally {
+            RetainedOutput.clear();
+            release();
         }
 
         byte[] newKeywordsBytes = Arrays.copyOfRange(newKeywordsBuffer, 0, newKeywordsBufferSize.getValue());
@@ -258,34 +330,161 @@ public final class Findex extends FindexBase {
     public SearchResults search(Set<Keyword> keywords,
                                 Interrupt interrupt)
         throws CloudproofException {
+        return search(keywords, interrupt, 0);
+    }
+
+    /**
+     * Search the index for the given keywords.
+     * <p>
+     * The results are written by the native library in a buffer allocated beforehand. If this buffer is too small, the
+     * whole search is executed a second time with a buffer of the required size, fetching the Entry Table and Chain
+     * Table lines from the backend again. The buffer size is learned from the recent searches of this instance; the
+     * size hint allows the caller to request a larger buffer for a search known to return many results.
+     *
+     * @param keywords a {@link Set} of {@link Keyword} to search
+     * @param interrupt an implementation of the {@link Interrupt} interface
+     * @param resultsSizeHint the expected size in bytes of the serialized results, 0 if unknown
+     * @return the {@link SearchResults}
+     * @throws CloudproofException if anything goes wrong
+     */
+    public SearchResults search(Set<Keyword> keywords,
+                                Interrupt interrupt,
+                                int resultsSizeHint)
+        throws CloudproofException {
+        byte[] searchResultsBytes = searchBytes(keywords, interrupt, resultsSizeHint);
+        return new Leb128Reader(searchResultsBytes).readObject(SearchResults.class);
+    }
+
+    /**
+     * Search the index for several independent queries at once.
+     * <p>
+     * The keywords of all the queries are searched in a single native call, so the Entry Table and Chain Table lines
+     * are fetched in as few backend round trips as a single query would need. The results are then split back per
+     * query. The location sets of a keyword searched by several queries are shared between their results.
+     *
+     * @param queries a {@link List} of queries, each one a {@link Set} of {@link Keyword}
+     * @param interrupt an implementation of the {@link Interrupt} interface, fed with the results of all the queries
+     * @return the {@link SearchResults} of each query, in the order of the queries
+     * @throws CloudproofException if anything goes wrong
+     */
+    public List<SearchResults> searchBatch(List<Set<Keyword>> queries,
+                                           Interrupt interrupt)
+        throws CloudproofException {
+        Set<Keyword> allKeywords = new HashSet<>();
+        for (Set<Keyword> query : queries) {
+            allKeywords.addAll(query);
+        }
+        List<SearchResults> results = new ArrayList<>(queries.size());
+        if (allKeywords.isEmpty()) {
+            for (int i = 0; i < queries.size(); i++) {
+                results.add(new SearchResults());
+            }
+            return results;
+        }
+
+        SearchResults allResults = search(allKeywords, interrupt);
+        for (Set<Keyword> query : queries) {
+            Map<Keyword, Set<Location>> queryResults = new HashMap<>(query.size() * 2);
+            for (Keyword keyword : query) {
+                Set<Location> locations = allResults.getResults().get(keyword);
+                if (locations != null) {
+                    queryResults.put(keyword, locations);
+                }
+            }
+            results.add(new SearchResults(queryResults));
+        }
+        return results;
+    }
+
+    /**
+     * Search the index for several independent queries at once, without interruption.
+     *
+     * @param queries a {@link List} of queries, each one a {@link Set} of {@link Keyword}
+     * @return the {@link SearchResults} of each query, in the order of the queries
+     * @throws CloudproofException if anything goes wrong
+     * @see #searchBatch(List, Interrupt)
+     */
+    public List<SearchResults> searchBatch(List<Set<Keyword>> queries) throws CloudproofException {
+        return searchBatch(queries, new Interrupt() {});
+    }
+
+    /**
+     * Run the native search.
+     *
+     * @return the buffer holding the serialized results; it may be larger than the results.
+     */
+    private byte[] searchBytes(Set<Keyword> keywords,
+                               Interrupt interrupt,
+                               int resultsSizeHint)
+        throws CloudproofException {
         byte[] serializedKeywords = Leb128Writer.serializeCollection(keywords);
         final Memory keywordsPointer = new Memory(serializedKeywords.length);
         keywordsPointer.write(0, serializedKeywords, 0, serializedKeywords.length);
 
-        byte[] searchResultsBuffer = new byte[131072];
+        byte[] searchResultsBuffer = new byte[Math.max(resultsSizeHint, nextSearchResultsBufferSize.get())];
         IntByReference searchResultsBufferSize = new IntByReference(searchResultsBuffer.length);
 
-        long start = System.currentTimeMillis();
-        int ffiCode = INSTANCE.h_search(
-            searchResultsBuffer, searchResultsBufferSize,
-            HANDLE,
-            keywordsPointer, serializedKeywords.length,
-            interrupt);
-
-        if (ffiCode == 1) {
-            searchResultsBuffer = new byte[searchResultsBufferSize.getValue()];
-            unwrap(System.currentTimeMillis(), INSTANCE.h_search(searchResultsBuffer,
-                searchResultsBufferSize,
-                HANDLE,
-                keywordsPointer,
-                serializedKeywords.length,
-                interrupt));
-        } else {
-            unwrap(start, ffiCode);
+        acquire();
+        try {
+            FindexCallbackException.clear();
+            int ffiCode = INSTANCE.h_search(
+                searchResultsBuffer, searchResultsBufferSize,
+                handle,
+                keywordsPointer, serializedKeywords.length,
+                interrupt);
+
+            if (ffiCode == 1) {
+                RetainedOutput.clear();
+                searchReExecutions.increment();
+                searchResultsBuffer = new byte[searchResultsBufferSize.getValue()];
+                unwrap(INSTANCE.h_search(searchResultsBuffer,
+                    searchResultsBufferSize,
+                    handle,
+                    keywordsPointer,
+                    serializedKeywords.length,
+                    interrupt));
+            } else {
+                unwrap(ffiCode);
+            }
+        } finally {
+            RetainedOutput.clear();
+            release();
         }
 
-        byte[] indexedValuesBytes = Arrays.copyOfRange(searchResultsBuffer, 0, searchResultsBufferSize.getValue());
-        return new Leb128Reader(indexedValuesBytes).readObject(SearchResults.class);
+        learnSearchResultsSize(searchResultsBufferSize.getValue());
+        return searchResultsBuffer;
+    }
+
+    /**
+     * Adapt the size of the next search buffers to the size of the last results: the size grows at once to hold the
+     * results with a 25% margin, and slowly decreases (by an eighth of the difference on each search) when the results
+     * get smaller. It never goes below the default size nor above the maximum size.
+     *
+     * @param resultsSize the size of the last search results
+     */
+    private void learnSearchResultsSize(int resultsSize) {
+        long target = Math.min(MAX_SEARCH_RESULTS_BUFFER_SIZE,
+            Math.max(DEFAULT_SEARCH_RESULTS_BUFFER_SIZE, resultsSize + (long) resultsSize / 4));
+        nextSearchResultsBufferSize.updateAndGet(current -> {
+            if (target >= current) {
+                return (int) target;
+            }
+            return (int) (current - (current - target) / 8);
+        });
+    }
+
+    /**
+     * @return the size of the buffer allocated for the next search results
+     */
+    public int getSearchResultsBufferSize() {
+        return nextSearchResultsBufferSize.get();
+    }
+
+    /**
+     * @return the number of searches executed twice because the results did not fit in the allocated buffer
+     */
+    public long getSearchReExecutions() {
+        return searchReExecutions.sum();
     }
 
     /**
@@ -329,6 +528,70 @@ public final class Findex extends FindexBase {
             interrupt);
     }
 
+    /**
+     * Search the index for the given keywords and stream the locations found.
+     * <p>
+     * The locations are decoded lazily from the serialized results: no {@link SearchResults} map is built, so large
+     * results only cost the size of their serialized form. A location indexed under several of the searched keywords
+     * is streamed once per keyword; use {@link Stream#distinct()} if needed.
+     * <p>
+     * When a limit is given, the search is interrupted as soon as the recursion levels walked so far found enough
+     * locations, and the stream is truncated to the limit. The stream may also be closed early by the caller at no
+     * additional cost.
+     *
+     * @param keywords a {@link Set} of {@link Keyword} to search
+     * @param interrupt an implementation of the {@link Interrupt} interface
+     * @param limit the maximum number of locations to return; 0 or less for no limit
+     * @return a sequential {@link Stream} of {@link Location}
+     * @throws CloudproofException if anything goes wrong
+     */
+    public Stream<Location> searchStream(Set<Keyword> keywords,
+                                         Interrupt interrupt,
+                                         long limit)
+        throws CloudproofException {
+        Interrupt limitedInterrupt = interrupt;
+        if (limit > 0) {
+            limitedInterrupt = new Interrupt() {
+                private long locations = 0;
+
+                @Override
+                public boolean interrupt(Map<Keyword, Set<IndexedValue>> intermediateResults)
+                    throws CloudproofException {
+                    for (Set<IndexedValue> indexedValues : intermediateResults.values()) {
+                        for (IndexedValue indexedValue : indexedValues) {
+                            if (indexedValue.isLocation()) {
+                                locations++;
+                            }
+                        }
+                    }
+                    return interrupt.interrupt(intermediateResults) || locations >= limit;
+                }
+            };
+        }
+
+        Stream<Location> locations = StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(
+                new SearchResultsIterator(searchBytes(keywords, limitedInterrupt, 0)),
+                Spliterator.ORDERED | Spliterator.NONNULL),
+            false);
+        return limit > 0 ? locations.limit(limit) : locations;
+    }
+
+    /**
+     * Search the index for the given keywords and stream the locations found, without interruption.
+     *
+     * @param keywords a {@link Set} of {@link Keyword} to search
+     * @param limit the maximum number of locations to return; 0 or less for no limit
+     * @return a sequential {@link Stream} of {@link Location}
+     * @throws CloudproofException if anything goes wrong
+     * @see #searchStream(Set, Interrupt, long)
+     */
+    public Stream<Location> searchStream(Set<Keyword> keywords,
+                                         long limit)
+        throws CloudproofException {
+        return searchStream(keywords, new Interrupt() {}, limit);
+    }
+
     // ----------------------------------------------------------------//
     // Compact //
     // ----------------------------------------------------------------//
@@ -352,12 +615,18 @@ public final class Findex extends FindexBase {
         final Memory newKeyPtr = new Memory(newKey.length);
         newKeyPtr.write(0, newKey, 0, newKey.length);
 
-        long start = System.currentTimeMillis();
-        unwrap(start, INSTANCE.h_compact(HANDLE,
-            newKeyPtr, newKey.length,
-            newLabel,
-            compactingRate,
-            dataFilter));
+        acquire();
+        try {
+            FindexCallbackException.clear();
+            unwrap(INSTANCE.h_compact(handle,
+                newKeyPtr, newKey.length,
+                newLabel,
+                compactingRate,
+                dataFilter));
+        } finally {
+            RetainedOutput.clear();
+            release();
+        }
     }
 
     /**
@@ -411,4 +680,276 @@ public final class Findex extends FindexBase {
         throws CloudproofException {
         compact(newKey, newLabel, 1, new DataFilter() {});
     }
+
+    // ----------------------------------------------------------------//
+    // Asynchronous API //
+    // ----------------------------------------------------------------//
+
+    /**
+     * Set the maximum number of asynchronous calls of this instance which can run at the same time. The calls above
+     * this limit are queued, without blocking the calling thread nor a thread of the executor. The default is the
+     * number of available processors.
+     * <p>
+     * Synchronous calls are not counted.
+     *
+     * @param maxInFlightAsyncCalls the maximum number of in-flight asynchronous calls, at least one
+     */
+    public void setMaxInFlightAsyncCalls(int maxInFlightAsyncCalls) {
+        if (maxInFlightAsyncCalls < 1) {
+            throw new IllegalArgumentException("At least one asynchronous call must be allowed");
+        }
+        this.maxInFlightAsyncCalls = maxInFlightAsyncCalls;
+        dispatchAsyncCalls();
+    }
+
+    /**
+     * @return the maximum number of asynchronous calls of this instance which can run at the same time
+     */
+    public int getMaxInFlightAsyncCalls() {
+        return maxInFlightAsyncCalls;
+    }
+
+    /**
+     * Asynchronously add the given associations to the index.
+     *
+     * @param associations {@link Map} of {@link IndexedValue} to {@link Set} of {@link Keyword}
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} of the {@link KeywordSet} of new keywords added to the index
+     * @see #add(Map)
+     */
+    public CompletableFuture<KeywordSet> addAsync(Map<IndexedValue, Set<Keyword>> associations,
+                                                  Executor executor) {
+        return submit(() -> add(associations), executor);
+    }
+
+    /**
+     * Asynchronously remove the given associations from the index.
+     *
+     * @param associations {@link Map} of {@link IndexedValue} to {@link Set} of {@link Keyword}
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} of the {@link KeywordSet} of new keywords added to the index
+     * @see #deletion(Map)
+     */
+    public CompletableFuture<KeywordSet> deleteAsync(Map<IndexedValue, Set<Keyword>> associations,
+                                                     Executor executor) {
+        return submit(() -> deletion(associations), executor);
+    }
+
+    /**
+     * Asynchronously search the index for the given keywords.
+     *
+     * @param keywords a {@link Set} of {@link Keyword} to search
+     * @param interrupt an implementation of the {@link Interrupt} interface
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} of the {@link SearchResults}
+     * @see #search(Set, Interrupt)
+     */
+    public CompletableFuture<SearchResults> searchAsync(Set<Keyword> keywords,
+                                                        Interrupt interrupt,
+                                                        Executor executor) {
+        return submit(() -> search(keywords, interrupt), executor);
+    }
+
+    /**
+     * Asynchronously search the index for the given keywords, without interruption.
+     *
+     * @param keywords a {@link Set} of {@link Keyword} to search
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} of the {@link SearchResults}
+     * @see #search(Set)
+     */
+    public CompletableFuture<SearchResults> searchAsync(Set<Keyword> keywords,
+                                                        Executor executor) {
+        return submit(() -> search(keywords), executor);
+    }
+
+    /**
+     * Asynchronously compact the index.
+     *
+     * @param newKey key to use as replacement to the current Findex key.
+     * @param newLabel label to use as replacement to the current Findex label.
+     * @param compactingRate minimal portion of the index to compact
+     * @param dataFilter implementation of the {@link DataFilter} interface
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} completed when the compact operation is done
+     * @see #compact(byte[], String, double, DataFilter)
+     */
+    public CompletableFuture<Void> compactAsync(byte[] newKey,
+                                                String newLabel,
+                                                double compactingRate,
+                                                DataFilter dataFilter,
+                                                Executor executor) {
+        return submit(() -> {
+            compact(newKey, newLabel, compactingRate, dataFilter);
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Asynchronously compact the index, without filtering the locations.
+     *
+     * @param newKey key to use as replacement to the current Findex key.
+     * @param newLabel label to use as replacement to the current Findex label.
+     * @param executor the {@link Executor} running the call
+     * @return a {@link CompletableFuture} completed when the compact operation is done
+     * @see #compact(byte[], String)
+     */
+    public CompletableFuture<Void> compactAsync(byte[] newKey,
+                                                String newLabel,
+                                                Executor executor) {
+        return compactAsync(newKey, newLabel, 1, new DataFilter() {}, executor);
+    }
+
+    private interface FindexCall<T> {
+        T call() throws CloudproofException;
+    }
+
+    /**
+     * A call queued until an in-flight slot is available
+     */
+    private final class AsyncCall<T> implements Runnable {
+        final FindexCall<T> call;
+
+        final Executor executor;
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        AsyncCall(FindexCall<T> call, Executor executor) {
+            this.call = call;
+            this.executor = executor;
+        }
+
+        /**
+         * Start the call on its executor; the in-flight slot must have been acquired.
+         */
+        void start() {
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                // rejected by the executor
+                future.completeExceptionally(e);
+                completeAsyncCall();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(call.call());
+            } catch (Throwable e) {
+                // an Error must complete the future and release the slot as well
+                future.completeExceptionally(e);
+            } finally {
+                completeAsyncCall();
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(FindexCall<T> call,
+                                            Executor executor) {
+        AsyncCall<T> asyncCall = new AsyncCall<>(call, executor);
+        pendingAsyncCalls.add(asyncCall);
+        dispatchAsyncCalls();
+        return asyncCall.future;
+    }
+
+    /**
+     * Start the pending calls while in-flight slots are available. A completing call releases its slot before calling
+     * this method, so that a call queued concurrently is always started by one of the two threads.
+     * <p>
+     * A call completing on the thread which started it, e.g. with a same-thread executor, does not dispatch
+     * recursively: the loop already running on that thread starts the next pending call, so that the stack does not
+     * grow with the queue.
+     */
+    private void dispatchAsyncCalls() {
+        if (dispatching.get()) {
+            return;
+        }
+        dispatching.set(Boolean.TRUE);
+        try {
+            dispatchPendingAsyncCalls();
+        } finally {
+            dispatching.set(Boolean.FALSE);
+        }
+    }
+
+    private void dispatchPendingAsyncCalls() {
+        while (!pendingAsyncCalls.isEmpty()) {
+            int inFlight = inFlightAsyncCalls.get();
+            if (inFlight >= maxInFlightAsyncCalls) {
+                return;
+            }
+            if (!inFlightAsyncCalls.compareAndSet(inFlight, inFlight + 1)) {
+                continue;
+            }
+            AsyncCall<?> asyncCall = pendingAsyncCalls.poll();
+            if (asyncCall == null) {
+                // taken by another thread
+                inFlightAsyncCalls.decrementAndGet();
+                continue;
+            }
+            asyncCall.start();
+        }
+    }
+
+    private void completeAsyncCall() {
+        inFlightAsyncCalls.decrementAndGet();
+        dispatchAsyncCalls();
+    }
+
+    // ----------------------------------------------------------------//
+    // Lifecycle //
+    // ----------------------------------------------------------------//
+
+    /**
+     * @return true if this instance has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close this instance.
+     * <p>
+     * The calls in progress on other threads are completed first; any subsequent call fails with a
+     * {@link CloudproofException}. The callbacks given to the native library are released. Closing an instance twice
+     * has no effect.
+     */
+    @Override
+    public void close() {
+        lifecycleLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            entryFetcher = null;
+            chainFetcher = null;
+            entryUpserter = null;
+            entryInserter = null;
+            chainInserter = null;
+            entryDeleter = null;
+            chainDeleter = null;
+            entryDumper = null;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Register a call to the native library. Every successful call must be followed by a call to {@link #release()}.
+     *
+     * @throws CloudproofException if this instance is closed
+     */
+    private void acquire() throws CloudproofException {
+        lifecycleLock.readLock().lock();
+        if (closed) {
+            lifecycleLock.readLock().unlock();
+            throw new CloudproofException("This Findex instance is closed");
+        }
+    }
+
+    private void release() {
+        lifecycleLock.readLock().unlock();
+    }
 }
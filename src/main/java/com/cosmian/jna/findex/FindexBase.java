@@ -61,20 +61,14 @@ public class FindexBase {
 
     /**
      * If the result of the last FFI call is in Error, recover the last error from the native code and throw an
-     * exception wrapping it.
+     * exception wrapping it. An exception thrown in the callbacks during the call is rethrown as is.
      *
      * @param errorCode the result of the FFI call
-     * @param start the start timestamp of the FFI call (used for callback exception handling)
      * @throws CloudproofException in case of native library error
      */
-    protected static void unwrap(long start,
-                                 int errorCode)
-        throws CloudproofException {
-        // Parameters are evaluated left to right:
-        // accepting the time parameter first allows getting the current time before evaluating the expression resulting
-        // in the error code when both are passed as arguments.
+    protected static void unwrap(int errorCode) throws CloudproofException {
+        FindexCallbackException.rethrowOnErrorCode(errorCode);
         if (errorCode != 0) {
-            FindexCallbackException.rethrowOnErrorCode(errorCode, start, System.currentTimeMillis());
             throw new CloudproofException(get_last_error(4095));
         }
     }
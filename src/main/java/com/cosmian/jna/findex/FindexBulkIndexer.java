@@ -0,0 +1,314 @@
+package com.cosmian.jna.findex;
+
+import java.io.IOException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.cosmian.jna.findex.ffi.KeywordSet;
+import com.cosmian.jna.findex.structs.IndexedValue;
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * Index a stream of records too large to hold in memory, with several concurrent {@link Findex#add(Map)} calls.
+ * <p>
+ * The records are grouped in batches of a bounded number of associations (an indexed value with one keyword). At most
+ * {@code parallelism} batches are indexed at the same time: reading the records waits for a batch to complete, so that
+ * at most {@code parallelism + 1} batches are in memory. A batch which fails with a transient error, as decided by the
+ * {@link #retryIf(Predicate) retry predicate}, is retried after an exponential backoff; any other failure stops the
+ * indexing at once. A retried batch is resubmitted whole, including the associations it may have already added.
+ * <p>
+ * An instance can be reused for several calls to {@code index}, its counters are cumulative.
+ */
+public final class FindexBulkIndexer {
+
+    /**
+     * The operation indexing a batch, {@link Findex#add(Map)} by default
+     */
+    @FunctionalInterface
+    public interface BatchIndexer {
+        KeywordSet add(Map<IndexedValue, Set<Keyword>> associations) throws CloudproofException;
+    }
+
+    private final BatchIndexer indexer;
+
+    private int batchSize = 10_000;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int maxRetries = 3;
+
+    private long retryBackoffMillis = 100;
+
+    private Predicate<CloudproofException> retryable = FindexBulkIndexer::isTransient;
+
+    private Executor executor = null;
+
+    private final LongAdder associations = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder newKeywords = new LongAdder();
+
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * @param findex the index to add the records to
+     */
+    public FindexBulkIndexer(Findex findex) {
+        this(findex::add);
+    }
+
+    /**
+     * @param indexer the operation indexing a batch
+     */
+    public FindexBulkIndexer(BatchIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    /**
+     * @param batchSize the number of associations per {@code add} call, 10 000 by default
+     * @return this indexer
+     */
+    public FindexBulkIndexer batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param parallelism the maximum number of concurrent {@code add} calls, the number of processors by default
+     * @return this indexer
+     */
+    public FindexBulkIndexer parallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param maxRetries the number of times a failed batch is retried, 3 by default
+     * @return this indexer
+     */
+    public FindexBulkIndexer maxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("The number of retries cannot be negative");
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @param retryBackoffMillis the wait before the first retry of a batch, doubled on each retry; 100ms by default
+     * @return this indexer
+     */
+    public FindexBulkIndexer retryBackoffMillis(long retryBackoffMillis) {
+        if (retryBackoffMillis < 0) {
+            throw new IllegalArgumentException("The retry backoff cannot be negative");
+        }
+        this.retryBackoffMillis = retryBackoffMillis;
+        return this;
+    }
+
+    /**
+     * Set the failures after which a batch is retried. By default, only the failures caused by an {@link IOException},
+     * a {@link SQLTransientException} or a {@link SQLRecoverableException} are retried.
+     *
+     * @param retryable true for the failures which are transient and after which the batch can be resubmitted
+     * @return this indexer
+     */
+    public FindexBulkIndexer retryIf(Predicate<CloudproofException> retryable) {
+        this.retryable = retryable;
+        return this;
+    }
+
+    private static boolean isTransient(CloudproofException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof SQLTransientException
+                || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param executor the {@link Executor} running the {@code add} calls; by default, each call to {@code index} uses
+     *            its own threads
+     * @return this indexer
+     */
+    public FindexBulkIndexer executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Index a stream of records.
+     *
+     * @param records the records: an indexed value and its keywords
+     * @return the number of associations indexed
+     * @throws CloudproofException if a batch failed with a non retryable error or after all its retries; the batches
+     *             in progress complete but no new batch is started
+     * @see #index(Iterator)
+     */
+    public long index(Stream<? extends Map.Entry<IndexedValue, Set<Keyword>>> records) throws CloudproofException {
+        return index(records.iterator());
+    }
+
+    /**
+     * Index records.
+     *
+     * @param records the records: an indexed value and its keywords
+     * @return the number of associations indexed
+     * @throws CloudproofException if a batch failed with a non retryable error or after all its retries; the batches
+     *             in progress complete but no new batch is started
+     */
+    public long index(Iterator<? extends Map.Entry<IndexedValue, Set<Keyword>>> records) throws CloudproofException {
+        long start = System.nanoTime();
+        int permits = this.parallelism;
+        Semaphore inFlight = new Semaphore(permits);
+        AtomicReference<CloudproofException> failure = new AtomicReference<>();
+        LongAdder indexed = new LongAdder();
+        ExecutorService ownExecutor = executor == null ? Executors.newFixedThreadPool(permits) : null;
+        Executor exec = executor == null ? ownExecutor : executor;
+        try {
+            while (records.hasNext() && failure.get() == null) {
+                Map<IndexedValue, Set<Keyword>> batch = new HashMap<>();
+                long batchAssociations = 0;
+                while (batchAssociations < batchSize && records.hasNext()) {
+                    Map.Entry<IndexedValue, Set<Keyword>> record = records.next();
+                    batch.computeIfAbsent(record.getKey(), k -> new HashSet<>()).addAll(record.getValue());
+                    batchAssociations += record.getValue().size();
+                }
+                final long size = batchAssociations;
+
+                acquire(inFlight, 1);
+                try {
+                    exec.execute(() -> {
+                        try {
+                            if (failure.get() == null) {
+                                addWithRetries(batch);
+                                indexed.add(size);
+                            }
+                        } catch (CloudproofException e) {
+                            failure.compareAndSet(null, e);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null,
+                                new CloudproofException("Bulk indexing failed: " + e.getMessage(), e));
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    failure.compareAndSet(null, new CloudproofException("Bulk indexing batch rejected", e));
+                }
+            }
+            // wait for the batches in progress
+            acquire(inFlight, permits);
+            inFlight.release(permits);
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+            associations.add(indexed.sum());
+            nanos.add(System.nanoTime() - start);
+        }
+        CloudproofException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+        return indexed.sum();
+    }
+
+    private static void acquire(Semaphore semaphore,
+                                int permits)
+        throws CloudproofException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudproofException("Bulk indexing interrupted", e);
+        }
+    }
+
+    private void addWithRetries(Map<IndexedValue, Set<Keyword>> batch) throws CloudproofException {
+        long backoff = retryBackoffMillis;
+        for (int attempt = 0;; attempt++) {
+            try {
+                KeywordSet added = indexer.add(batch);
+                newKeywords.add(added == null ? 0 : added.numberOfKeywords());
+                batches.increment();
+                return;
+            } catch (CloudproofException e) {
+                if (attempt >= maxRetries || !retryable.test(e)) {
+                    throw e;
+                }
+            }
+            retries.increment();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudproofException("Bulk indexing interrupted", e);
+            }
+            backoff *= 2;
+        }
+    }
+
+    /**
+     * @return the number of associations indexed
+     */
+    public long getAssociations() {
+        return associations.sum();
+    }
+
+    /**
+     * @return the number of batches indexed
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of times a batch was retried
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return the number of new keywords added to the index
+     */
+    public long getNewKeywords() {
+        return newKeywords.sum();
+    }
+
+    /**
+     * @return the number of associations indexed per second, over the time spent in {@code index}
+     */
+    public double getThroughput() {
+        long n = nanos.sum();
+        return n == 0 ? 0 : associations.sum() * 1e9 / n;
+    }
+}
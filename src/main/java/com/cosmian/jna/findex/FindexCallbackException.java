@@ -1,52 +1,85 @@
 package com.cosmian.jna.findex;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.cosmian.utils.CloudproofException;
 
+/**
+ * Carry the exceptions thrown in the callbacks back to the Findex call which triggered them.
+ * <p>
+ * The native library runs the callbacks on the thread performing the Findex call: each thread has a single slot
+ * holding the first exception recorded since its last native call. There is no shared state between concurrent
+ * calls, and nothing accumulates.
+ */
 public class FindexCallbackException {
 
     private final static int CALLBACK_ERROR_CODE_WHEN_THROWING = 42;
 
-    public static int purgeExceptionsWhenCountIsGreaterThan = 50;
-
-    public static int purgeExceptionsAfterMillis = 1000 * 60 * 5; // 5 minutes
-
-    public static List<FindexCallbackException> exceptions = new ArrayList<>();
-
-    private long timestamp = System.currentTimeMillis();
-
-    private CloudproofException e;
+    private static final ThreadLocal<CloudproofException> recorded = new ThreadLocal<>();
 
-    public FindexCallbackException(CloudproofException e) {
-        this.e = e;
+    private FindexCallbackException() {
     }
 
+    /**
+     * Record an exception thrown in a callback. Only the first exception recorded during a native call is kept: the
+     * following ones are most likely consequences of it.
+     *
+     * @param e the exception
+     * @return the error code the callback must return to the native library
+     */
     public static int record(CloudproofException e) {
-        if (exceptions.size() > purgeExceptionsWhenCountIsGreaterThan) {
-            exceptions
-                .removeIf(exception -> exception.timestamp < System.currentTimeMillis() - purgeExceptionsAfterMillis);
+        if (recorded.get() == null) {
+            recorded.set(e);
         }
+        return CALLBACK_ERROR_CODE_WHEN_THROWING;
+    }
 
-        exceptions.add(new FindexCallbackException(e));
+    /**
+     * Forget the exception recorded on this thread, if any. Call it before each native call.
+     */
+    public static void clear() {
+        recorded.remove();
+    }
 
-        return CALLBACK_ERROR_CODE_WHEN_THROWING;
+    /**
+     * Take the exception recorded on this thread, leaving the slot empty.
+     *
+     * @return the recorded exception or null
+     */
+    static CloudproofException take() {
+        CloudproofException e = recorded.get();
+        recorded.remove();
+        return e;
     }
 
-    public static void rethrowOnErrorCode(int errorCode,
-                                          long start,
-                                          long end)
-        throws CloudproofException {
+    /**
+     * Rethrow the exception recorded by the callbacks on this thread if the native library returned the error code
+     * reserved for them. The slot is cleared whatever the error code.
+     *
+     * @param errorCode the result of the native call
+     * @throws CloudproofException the exception recorded by the callbacks
+     */
+    public static void rethrowOnErrorCode(int errorCode) throws CloudproofException {
+        CloudproofException e = take();
         if (errorCode == CALLBACK_ERROR_CODE_WHEN_THROWING) {
-            for (FindexCallbackException e : exceptions) {
-                if (start <= e.timestamp && e.timestamp <= end) {
-                    throw e.e;
-                }
+            if (e != null) {
+                throw e;
             }
-
             throw new CloudproofException("Findex returned an error code " + errorCode
                 + " reserved for exceptions but no exception was recorded during the callbacks.");
         }
     }
+
+    /**
+     * @param errorCode the result of the native call
+     * @param start ignored
+     * @param end ignored
+     * @throws CloudproofException the exception recorded by the callbacks
+     * @deprecated exceptions are no longer matched by timestamp, use {@link #rethrowOnErrorCode(int)}
+     */
+    @Deprecated
+    public static void rethrowOnErrorCode(int errorCode,
+                                          long start,
+                                          long end)
+        throws CloudproofException {
+        rethrowOnErrorCode(errorCode);
+    }
 }
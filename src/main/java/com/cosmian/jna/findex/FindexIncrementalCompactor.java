@@ -0,0 +1,326 @@
+package com.cosmian.jna.findex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * Compact an index in slices, so that the compaction can run continuously in the background and resume after a
+ * failure.
+ * <p>
+ * Each slice is a {@link Findex#compact(byte[], String, double, DataFilter)} call compacting {@code 1/slicesPerPass}
+ * of the Chain Table: a pass of {@code slicesPerPass} slices compacts the whole Chain Table on average. Since each
+ * compaction must change the key or the label, slice {@code n} sets the label to {@code labels.apply(n)}: the index
+ * uses the label of the last completed slice.
+ * <p>
+ * The number of completed slices is persisted in a cursor file, before and after each slice. If the process stops
+ * during a slice, the index may use the label of either the last completed slice or the interrupted one: the
+ * application opens the index with the right one, then calls {@link #resolveInterruptedSlice(boolean)}.
+ * <p>
+ * Each slice still reads and rewrites the whole Entry Table. To limit the load on the database, build the
+ * {@link Findex} instance of the compaction on a {@link ThrottledEntryTableDatabase} and a
+ * {@link ThrottledChainTableDatabase}.
+ */
+public final class FindexIncrementalCompactor implements AutoCloseable {
+
+    /**
+     * The operation compacting a slice, {@link Findex#compact(byte[], String, double, DataFilter)} by default
+     */
+    @FunctionalInterface
+    public interface SliceCompactor {
+        void compact(String newLabel,
+                     double compactingRate)
+            throws CloudproofException;
+    }
+
+    /**
+     * Notified of the progress of the compaction
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param completedSlices the number of slices completed since the cursor was created
+         * @param slicesPerPass the number of slices of a pass over the index
+         * @param elapsedNanos the duration of the slice
+         */
+        void onSliceCompleted(long completedSlices,
+                              int slicesPerPass,
+                              long elapsedNanos);
+
+        /**
+         * Called when a slice run in the background fails; the slice is retried on the next run.
+         *
+         * @param e the error
+         */
+        default void onSliceFailed(CloudproofException e) {
+        }
+    }
+
+    private static final int MAGIC = 0x46494331; // "FIC1"
+
+    private final SliceCompactor compactor;
+
+    private final LongFunction<String> labels;
+
+    private final Path cursorFile;
+
+    private long completedSlices;
+
+    private boolean sliceInterrupted;
+
+    private int slicesPerPass = 100;
+
+    private long pauseMillis = 0;
+
+    private ProgressListener listener = null;
+
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * @param findex the index, opened with the label of the last completed slice
+     * @param key the Findex key, kept by the compaction
+     * @param labels the label of each slice, from its number starting at 1
+     * @param dataFilter the filter of the locations of the indexed values
+     * @param cursorFile the file storing the number of completed slices, created if needed
+     * @throws CloudproofException if the cursor file cannot be read
+     */
+    public FindexIncrementalCompactor(Findex findex,
+                                      byte[] key,
+                                      LongFunction<String> labels,
+                                      DataFilter dataFilter,
+                                      Path cursorFile)
+        throws CloudproofException {
+        this((newLabel, compactingRate) -> findex.compact(key, newLabel, compactingRate, dataFilter), labels,
+            cursorFile);
+    }
+
+    /**
+     * @param compactor the operation compacting a slice
+     * @param labels the label of each slice, from its number starting at 1
+     * @param cursorFile the file storing the number of completed slices, created if needed
+     * @throws CloudproofException if the cursor file cannot be read
+     */
+    public FindexIncrementalCompactor(SliceCompactor compactor,
+                                      LongFunction<String> labels,
+                                      Path cursorFile)
+        throws CloudproofException {
+        this.compactor = compactor;
+        this.labels = labels;
+        this.cursorFile = cursorFile;
+        if (Files.exists(cursorFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cursorFile)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new CloudproofException(cursorFile + " is not a compaction cursor");
+                }
+                this.completedSlices = in.readLong();
+                this.sliceInterrupted = in.readBoolean();
+            } catch (IOException e) {
+                throw new CloudproofException(
+                    "failed loading the compaction cursor from " + cursorFile + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param slicesPerPass the number of slices of a pass over the index, 100 by default
+     * @return this compactor
+     */
+    public FindexIncrementalCompactor slicesPerPass(int slicesPerPass) {
+        if (slicesPerPass < 1) {
+            throw new IllegalArgumentException("The number of slices per pass must be positive");
+        }
+        this.slicesPerPass = slicesPerPass;
+        return this;
+    }
+
+    /**
+     * @param pauseMillis the pause between two slices of a call to {@link #runSlices(int)}, 0 by default
+     * @return this compactor
+     */
+    public FindexIncrementalCompactor pauseMillis(long pauseMillis) {
+        if (pauseMillis < 0) {
+            throw new IllegalArgumentException("The pause cannot be negative");
+        }
+        this.pauseMillis = pauseMillis;
+        return this;
+    }
+
+    /**
+     * @param listener notified of the progress of the compaction
+     * @return this compactor
+     */
+    public FindexIncrementalCompactor listener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    private void saveCursor(long completed,
+                            boolean inProgress)
+        throws CloudproofException {
+        Path tmp = cursorFile.resolveSibling(cursorFile.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(completed);
+                out.writeBoolean(inProgress);
+            }
+            Files.move(tmp, cursorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new CloudproofException(
+                "failed saving the compaction cursor to " + cursorFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Record whether the slice interrupted by a failure or a crash was applied to the index.
+     *
+     * @param applied true if the index uses the label of the interrupted slice
+     * @throws CloudproofException if the cursor file cannot be written
+     */
+    public synchronized void resolveInterruptedSlice(boolean applied) throws CloudproofException {
+        if (!sliceInterrupted) {
+            return;
+        }
+        long completed = applied ? completedSlices + 1 : completedSlices;
+        saveCursor(completed, false);
+        completedSlices = completed;
+        sliceInterrupted = false;
+    }
+
+    /**
+     * Compact slices of the index.
+     *
+     * @param count the number of slices to compact
+     * @return the number of completed slices
+     * @throws CloudproofException if a slice fails; the slice must then be resolved with
+     *             {@link #resolveInterruptedSlice(boolean)}
+     */
+    public synchronized long runSlices(int count) throws CloudproofException {
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CloudproofException("compaction interrupted", e);
+                }
+            }
+            if (sliceInterrupted) {
+                throw new CloudproofException("slice " + (completedSlices + 1)
+                    + " was interrupted: the index may use the label of either slice " + completedSlices
+                    + " or slice " + (completedSlices + 1));
+            }
+            long start = System.nanoTime();
+            saveCursor(completedSlices, true);
+            sliceInterrupted = true;
+            compactor.compact(labels.apply(completedSlices + 1), 1.0 / slicesPerPass);
+            saveCursor(completedSlices + 1, false);
+            completedSlices++;
+            sliceInterrupted = false;
+            if (listener != null) {
+                listener.onSliceCompleted(completedSlices, slicesPerPass, System.nanoTime() - start);
+            }
+        }
+        return completedSlices;
+    }
+
+    /**
+     * Compact the slices left in the current pass over the index: a full pass when the previous one completed.
+     *
+     * @return the number of completed slices
+     * @throws CloudproofException if a slice fails
+     */
+    public synchronized long runPass() throws CloudproofException {
+        return runSlices(slicesPerPass - (int) (completedSlices % slicesPerPass));
+    }
+
+    /**
+     * Compact a slice at a fixed interval in a background thread, until the compactor is closed. The failures are
+     * reported to the listener; an interrupted slice stops the compaction until it is resolved.
+     *
+     * @param intervalMillis the interval between two slices
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("The compaction is already running");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "findex-incremental-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runSlices(1);
+            } catch (CloudproofException e) {
+                if (listener != null) {
+                    listener.onSliceFailed(e);
+                }
+            } catch (RuntimeException e) {
+                if (listener != null) {
+                    listener.onSliceFailed(new CloudproofException("compaction failed: " + e.getMessage(), e));
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of completed slices
+     */
+    public synchronized long getCompletedSlices() {
+        return completedSlices;
+    }
+
+    /**
+     * @return true if a slice was interrupted and not resolved yet
+     */
+    public synchronized boolean isSliceInterrupted() {
+        return sliceInterrupted;
+    }
+
+    /**
+     * @return the label of the index after the completed slices
+     */
+    public synchronized String getLabel() {
+        return labels.apply(completedSlices);
+    }
+
+    /**
+     * @return the label of the interrupted slice, or null
+     */
+    public synchronized String getInterruptedSliceLabel() {
+        return sliceInterrupted ? labels.apply(completedSlices + 1) : null;
+    }
+
+    /**
+     * Stop the background compaction, waiting for the slice in progress.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s != null) {
+            s.shutdown();
+            try {
+                s.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.cosmian.jna.findex;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A bounded pool of live {@link Findex} instances, indexed by the fingerprint of their key and by their label.
+ * <p>
+ * Instantiating Findex requires a native call and the creation of the callbacks given to the native library. The pool
+ * keeps the instances alive between requests and evicts them either because the pool is full (the least recently used
+ * instance is evicted) or because they have not been used for longer than the maximum idle time.
+ * <p>
+ * An instance is obtained as a {@link Lease}, which must be closed at the end of the request. An evicted instance is
+ * only closed once all its leases are released, so that eviction never fails a request in progress.
+ * <p>
+ * Closing an instance releases its callbacks, but the native library has no way to free the native instance itself:
+ * each instantiation of an index which was evicted keeps one more native instance alive. The pool should be sized to
+ * hold the working set of indexes, which {@link #getMisses()} helps monitoring.
+ */
+public final class FindexPool implements AutoCloseable {
+
+    private static class PooledFindex {
+        final Findex findex;
+
+        final int entryTableNumber;
+
+        final EntryTableDatabase entryTable;
+
+        final ChainTableDatabase chainTable;
+
+        long lastAccess;
+
+        /**
+         * The number of unreleased leases, guarded by the pool lock
+         */
+        int leases = 0;
+
+        /**
+         * True once removed from the pool, guarded by the pool lock
+         */
+        boolean evicted = false;
+
+        PooledFindex(Findex findex, int entryTableNumber, EntryTableDatabase entryTable, ChainTableDatabase chainTable) {
+            this.findex = findex;
+            this.entryTableNumber = entryTableNumber;
+            this.entryTable = entryTable;
+            this.chainTable = chainTable;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        boolean hasBackend(int entryTableNumber,
+                           EntryTableDatabase entryTable,
+                           ChainTableDatabase chainTable) {
+            return this.entryTableNumber == entryTableNumber && this.entryTable == entryTable
+                && this.chainTable == chainTable;
+        }
+    }
+
+    /**
+     * A pooled instance in use. The instance must not be used after the lease is closed, and must not be closed
+     * directly.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final PooledFindex pooled;
+
+        private boolean released = false;
+
+        private Lease(PooledFindex pooled) {
+            this.pooled = pooled;
+        }
+
+        /**
+         * @return the leased {@link Findex} instance
+         */
+        public Findex getFindex() {
+            return pooled.findex;
+        }
+
+        /**
+         * Release the instance to the pool. Releasing a lease twice has no effect.
+         */
+        @Override
+        public void close() {
+            boolean close;
+            synchronized (FindexPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                pooled.leases--;
+                close = pooled.evicted && pooled.leases == 0;
+            }
+            if (close) {
+                pooled.findex.close();
+            }
+        }
+    }
+
+    private final int maxSize;
+
+    private final long maxIdleMillis;
+
+    /**
+     * Instances in access order: the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<String, PooledFindex> instances = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private boolean closed = false;
+
+    /**
+     * Create a new pool.
+     *
+     * @param maxSize the maximum number of live instances
+     * @param maxIdleMillis the time after which an unused instance is evicted; 0 or less to never evict idle instances
+     */
+    public FindexPool(int maxSize, long maxIdleMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The pool size must be at least one");
+        }
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Lease the instance using the given key and label, instantiating it with the given backend if it is not in the
+     * pool.
+     *
+     * @param key Findex key used to encrypt the index
+     * @param label a public label used to allow compact operation without key rotation
+     * @param entryTable Entry Table implementation
+     * @param chainTable Chain Table implementation
+     * @return the lease of the live {@link Findex} instance, to close at the end of the request
+     * @throws CloudproofException if the pool is closed or the instantiation fails
+     * @throws IllegalArgumentException if the pooled instance of this key and label uses another backend
+     */
+    public Lease get(byte[] key,
+                     String label,
+                     EntryTableDatabase entryTable,
+                     ChainTableDatabase chainTable)
+        throws CloudproofException {
+        return get(key, label, 1, entryTable, chainTable);
+    }
+
+    /**
+     * Lease the instance using the given key and label, instantiating it with the given backend if it is not in the
+     * pool.
+     * <p>
+     * The backend of an instance is fixed at instantiation: a request for the same key and label with another number
+     * of Entry Tables or other Entry and Chain Table objects is rejected.
+     *
+     * @param key Findex key used to encrypt the index
+     * @param label a public label used to allow compact operation without key rotation
+     * @param entryTableNumber the number of Entry Table used as backend
+     * @param entryTable Entry Table implementation
+     * @param chainTable Chain Table implementation
+     * @return the lease of the live {@link Findex} instance, to close at the end of the request
+     * @throws CloudproofException if the pool is closed or the instantiation fails
+     * @throws IllegalArgumentException if the pooled instance of this key and label uses another backend
+     */
+    public Lease get(byte[] key,
+                     String label,
+                     int entryTableNumber,
+                     EntryTableDatabase entryTable,
+                     ChainTableDatabase chainTable)
+        throws CloudproofException {
+        String id = fingerprint(key, label);
+
+        List<PooledFindex> evicted = new ArrayList<>();
+        try {
+            synchronized (this) {
+                ensureOpen();
+                evictIdle(evicted);
+                PooledFindex pooled = instances.get(id);
+                if (pooled != null) {
+                    hits.increment();
+                    return lease(pooled, entryTableNumber, entryTable, chainTable);
+                }
+                misses.increment();
+            }
+
+            // Instantiate outside the lock so that a slow instantiation does not block the other tenants
+            Findex findex = new Findex(key, label, entryTableNumber, entryTable, chainTable);
+            PooledFindex created = new PooledFindex(findex, entryTableNumber, entryTable, chainTable);
+
+            synchronized (this) {
+                if (closed) {
+                    evict(created, evicted);
+                    throw new CloudproofException("The Findex pool is closed");
+                }
+                PooledFindex concurrent = instances.get(id);
+                if (concurrent != null) {
+                    // another thread instantiated the same index in the meantime
+                    evict(created, evicted);
+                    return lease(concurrent, entryTableNumber, entryTable, chainTable);
+                }
+                instances.put(id, created);
+                Lease lease = lease(created, entryTableNumber, entryTable, chainTable);
+                Iterator<PooledFindex> lru = instances.values().iterator();
+                while (instances.size() > maxSize) {
+                    PooledFindex eldest = lru.next();
+                    lru.remove();
+                    evict(eldest, evicted);
+                    evictions.increment();
+                }
+                return lease;
+            }
+        } finally {
+            closeAll(evicted);
+        }
+    }
+
+    private Lease lease(PooledFindex pooled,
+                        int entryTableNumber,
+                        EntryTableDatabase entryTable,
+                        ChainTableDatabase chainTable) {
+        if (!pooled.hasBackend(entryTableNumber, entryTable, chainTable)) {
+            throw new IllegalArgumentException(
+                "The pooled Findex instance of this key and label was instantiated with another backend");
+        }
+        pooled.lastAccess = System.currentTimeMillis();
+        pooled.leases++;
+        return new Lease(pooled);
+    }
+
+    /**
+     * Mark an instance removed from the pool, and add it to the instances to close if it is not leased.
+     */
+    private static void evict(PooledFindex pooled,
+                              List<PooledFindex> toClose) {
+        pooled.evicted = true;
+        if (pooled.leases == 0) {
+            toClose.add(pooled);
+        }
+    }
+
+    /**
+     * Remove the instance using the given key and label from the pool. It is closed once its leases are released.
+     *
+     * @param key Findex key used to encrypt the index
+     * @param label the label of the index
+     * @return true if an instance was removed
+     * @throws CloudproofException if the fingerprint of the key cannot be computed
+     */
+    public boolean invalidate(byte[] key,
+                              String label)
+        throws CloudproofException {
+        List<PooledFindex> evicted = new ArrayList<>();
+        synchronized (this) {
+            PooledFindex pooled = instances.remove(fingerprint(key, label));
+            if (pooled == null) {
+                return false;
+            }
+            evict(pooled, evicted);
+        }
+        closeAll(evicted);
+        return true;
+    }
+
+    /**
+     * Evict the instances which have been idle for longer than the maximum idle time. This is also done on every call
+     * to {@code get}; calling this method periodically releases the idle instances of a quiet pool.
+     *
+     * @return the number of evicted instances
+     */
+    public int evictIdle() {
+        List<PooledFindex> evicted = new ArrayList<>();
+        int count;
+        synchronized (this) {
+            long before = evictions.sum();
+            evictIdle(evicted);
+            count = (int) (evictions.sum() - before);
+        }
+        closeAll(evicted);
+        return count;
+    }
+
+    private void evictIdle(List<PooledFindex> evicted) {
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - maxIdleMillis;
+        Iterator<PooledFindex> lru = instances.values().iterator();
+        while (lru.hasNext()) {
+            PooledFindex pooled = lru.next();
+            if (pooled.lastAccess > oldest) {
+                // access order: all the following instances were used more recently
+                break;
+            }
+            lru.remove();
+            evict(pooled, evicted);
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @return the number of live instances in the pool
+     */
+    public synchronized int size() {
+        return instances.size();
+    }
+
+    /**
+     * @return the number of calls to {@code get} served by a pooled instance
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of calls to {@code get} which required an instantiation
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of instances evicted because the pool was full or they were idle
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Close all the instances of the pool, the leased ones once their leases are released. The pool cannot be used
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        List<PooledFindex> evicted = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (PooledFindex pooled : instances.values()) {
+                evict(pooled, evicted);
+            }
+            instances.clear();
+        }
+        closeAll(evicted);
+    }
+
+    private void ensureOpen() throws CloudproofException {
+        if (closed) {
+            throw new CloudproofException("The Findex pool is closed");
+        }
+    }
+
+    /**
+     * Close the given instances. Closing waits for the in-flight calls so this must not be done while holding the pool
+     * lock.
+     */
+    private static void closeAll(List<PooledFindex> instances) {
+        for (PooledFindex pooled : instances) {
+            pooled.findex.close();
+        }
+    }
+
+    /**
+     * The pool does not keep the keys: instances are identified by a SHA-256 fingerprint of the key and the label.
+     */
+    static String fingerprint(byte[] key,
+                              String label)
+        throws CloudproofException {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(key);
+            return Hex.encodeHexString(sha256.digest()) + ":" + label;
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudproofException("failed computing the key fingerprint: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FindexPool{size=" + instances.size() + ", maxSize=" + maxSize + ", hits=" + hits.sum() + ", misses="
+            + misses.sum() + ", evictions=" + evictions.sum() + "}";
+    }
+}
@@ -0,0 +1,76 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A concurrent {@link ChainTableDatabase} held in native memory, outside of the Java heap.
+ * <p>
+ * The lines are spread over lock stripes; the values are allocated in slabs of direct memory, reused when the lines are
+ * deleted.
+ * <p>
+ * The table is not persisted: it is meant for tests and benchmarks, and as a hot tier in front of a slower database.
+ */
+public class InMemoryChainTable implements ChainTableDatabase {
+
+    private final OffHeapStore store;
+
+    /**
+     * Create a table with 4 stripes per processor and slabs of 1MB.
+     */
+    public InMemoryChainTable() {
+        this(4 * Runtime.getRuntime().availableProcessors(), 1 << 20);
+    }
+
+    /**
+     * @param stripes the number of lock stripes, rounded up to a power of two
+     * @param slabSize the size of the slabs of direct memory, rounded up to a power of two
+     */
+    public InMemoryChainTable(int stripes, int slabSize) {
+        this.store = new OffHeapStore(stripes, slabSize);
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        store.get(uids, (uid, value) -> results.add(new Tuple<>(uid, new ChainTableValue(value))));
+        return results;
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        store.put(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        store.delete(uids);
+    }
+
+    /**
+     * Remove all the lines and release their memory.
+     */
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * @return the number of lines
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return the size of the direct memory allocated to the values, in bytes
+     */
+    public long getAllocatedBytes() {
+        return store.allocatedBytes();
+    }
+}
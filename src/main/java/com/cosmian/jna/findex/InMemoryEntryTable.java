@@ -0,0 +1,95 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A concurrent {@link EntryTableDatabase} held in native memory, outside of the Java heap.
+ * <p>
+ * The lines are spread over lock stripes; the values are allocated in slabs of direct memory, reused when the lines are
+ * overwritten or deleted. The conditional upserts of a stripe are atomic, and the upserts of distinct stripes run in
+ * parallel.
+ * <p>
+ * The table is not persisted: it is meant for tests and benchmarks, and as a hot tier in front of a slower database.
+ */
+public class InMemoryEntryTable implements EntryTableDatabase {
+
+    private final OffHeapStore store;
+
+    /**
+     * Create a table with 4 stripes per processor and slabs of 1MB.
+     */
+    public InMemoryEntryTable() {
+        this(4 * Runtime.getRuntime().availableProcessors(), 1 << 20);
+    }
+
+    /**
+     * @param stripes the number of lock stripes, rounded up to a power of two
+     * @param slabSize the size of the slabs of direct memory, rounded up to a power of two
+     */
+    public InMemoryEntryTable(int stripes, int slabSize) {
+        this.store = new OffHeapStore(stripes, slabSize);
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        return store.uids();
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        store.get(uids, (uid, value) -> results.add(new Tuple<>(uid, new EntryTableValue(value))));
+        return results;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        Map<Uid32, EntryTableValue> failed = new HashMap<>();
+        for (Map.Entry<Uid32, byte[]> line : store.compareAndPut(uidsAndValues).entrySet()) {
+            failed.put(line.getKey(), new EntryTableValue(line.getValue()));
+        }
+        return failed;
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        store.put(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        store.delete(uids);
+    }
+
+    /**
+     * Remove all the lines and release their memory.
+     */
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * @return the number of lines
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * @return the size of the direct memory allocated to the values, in bytes
+     */
+    public long getAllocatedBytes() {
+        return store.allocatedBytes();
+    }
+}
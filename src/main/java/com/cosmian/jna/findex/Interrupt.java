@@ -3,6 +3,7 @@ package com.cosmian.jna.findex;
 import java.util.Map;
 import java.util.Set;
 
+import com.cosmian.jna.findex.ffi.FFiUtils;
 import com.cosmian.jna.findex.ffi.FindexNativeWrapper.InterruptCallback;
 import com.cosmian.jna.findex.ffi.IntermediateResults;
 import com.cosmian.jna.findex.serde.Leb128Reader;
@@ -29,16 +30,11 @@ public interface Interrupt extends InterruptCallback {
                              int intermediateResultsLength) {
         try {
             //
-            // Read `searchResultsPointer` until `searchResultsLength`
-            //
-            byte[] serializedSearchResults = new byte[intermediateResultsLength];
-            intermediateResultsPointer.read(0, serializedSearchResults, 0, intermediateResultsLength);
-
-            //
-            // Deserialize search results
+            // Deserialize search results in place, without copying the native memory
             //
             IntermediateResults results =
-                new Leb128Reader(serializedSearchResults).readObject(IntermediateResults.class);
+                new Leb128Reader(FFiUtils.inputBuffer(intermediateResultsPointer, intermediateResultsLength))
+                    .readObject(IntermediateResults.class);
 
             //
             // Convert to Indexed Values list
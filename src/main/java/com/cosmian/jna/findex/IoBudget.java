@@ -0,0 +1,136 @@
+package com.cosmian.jna.findex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A token bucket limiting the lines and bytes per second read and written by the throttled tables, e.g.
+ * {@link ThrottledEntryTableDatabase}.
+ * <p>
+ * The bucket holds at most one second of budget, which absorbs short bursts. A call which overdraws the budget is
+ * let through, and the calls which follow wait until the debt is paid back: a single large call is never blocked
+ * forever. A budget can be shared by several tables to bound their total I/O.
+ */
+public final class IoBudget {
+
+    private final double linesPerSecond;
+
+    private final double bytesPerSecond;
+
+    private double lines;
+
+    private double bytes;
+
+    private long refilledAt = System.nanoTime();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param linesPerSecond the maximum number of lines per second, 0 for no limit
+     * @param bytesPerSecond the maximum number of bytes per second, 0 for no limit
+     */
+    public IoBudget(double linesPerSecond, double bytesPerSecond) {
+        if (linesPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The I/O budget cannot be negative");
+        }
+        this.linesPerSecond = linesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.lines = linesPerSecond;
+        this.bytes = bytesPerSecond;
+    }
+
+    /**
+     * @param linesPerSecond the maximum number of lines per second
+     * @return a budget limiting the lines only
+     */
+    public static IoBudget linesPerSecond(double linesPerSecond) {
+        return new IoBudget(linesPerSecond, 0);
+    }
+
+    /**
+     * @param bytesPerSecond the maximum number of bytes per second
+     * @return a budget limiting the bytes only
+     */
+    public static IoBudget bytesPerSecond(double bytesPerSecond) {
+        return new IoBudget(0, bytesPerSecond);
+    }
+
+    /**
+     * Wait until the budget is not overdrawn, then take lines and bytes from it.
+     *
+     * @param lines the number of lines
+     * @param bytes the number of bytes, which may be charged later with {@link #charge(long, long)}
+     * @throws CloudproofException if the thread is interrupted while waiting
+     */
+    public void acquire(long lines,
+                        long bytes)
+        throws CloudproofException {
+        long wait;
+        synchronized (this) {
+            wait = debtNanos(System.nanoTime());
+            this.lines -= lines;
+            this.bytes -= bytes;
+        }
+        if (wait > 0) {
+            waitNanos.add(wait);
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudproofException("interrupted while waiting for the I/O budget", e);
+            }
+        }
+    }
+
+    /**
+     * Take lines and bytes from the budget without waiting, e.g. the bytes read by a call: the next calls pay for
+     * them.
+     *
+     * @param lines the number of lines
+     * @param bytes the number of bytes
+     */
+    public synchronized void charge(long lines,
+                                    long bytes) {
+        refill(System.nanoTime());
+        this.lines -= lines;
+        this.bytes -= bytes;
+    }
+
+    private void refill(long now) {
+        double seconds = (now - refilledAt) / 1e9;
+        refilledAt = now;
+        // an unlimited budget stays at 0
+        lines = Math.min(linesPerSecond, lines + seconds * linesPerSecond);
+        bytes = Math.min(bytesPerSecond, bytes + seconds * bytesPerSecond);
+        if (linesPerSecond == 0) {
+            lines = 0;
+        }
+        if (bytesPerSecond == 0) {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return the time needed to pay back the current debt
+     */
+    private long debtNanos(long now) {
+        refill(now);
+        double seconds = 0;
+        if (linesPerSecond > 0 && lines < 0) {
+            seconds = -lines / linesPerSecond;
+        }
+        if (bytesPerSecond > 0 && bytes < 0) {
+            seconds = Math.max(seconds, -bytes / bytesPerSecond);
+        }
+        return (long) (seconds * 1e9);
+    }
+
+    /**
+     * @return the total time spent waiting for the budget, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+}
@@ -0,0 +1,157 @@
+package com.cosmian.jna.findex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link ChainTableDatabase} stored in a SQL table with a {@code uid} primary key and a {@code value} column, both
+ * binary.
+ * <p>
+ * Each call borrows a connection from the {@link DataSource}, which should be a connection pool. The UIDs are queried
+ * with IN lists of a few fixed sizes, so that the statements are cached by the driver or the pool, and the inserts are
+ * sent in JDBC batches, in a single transaction per call.
+ */
+public class JdbcChainTableDatabase implements ChainTableDatabase {
+
+    private final DataSource dataSource;
+
+    private final String tableName;
+
+    private int maxInListSize = 256;
+
+    private int batchSize = 1000;
+
+    /**
+     * @param dataSource the source of the connections
+     * @param tableName the name of the table
+     */
+    public JdbcChainTableDatabase(DataSource dataSource, String tableName) {
+        this.dataSource = dataSource;
+        this.tableName = JdbcTables.checkTableName(tableName);
+    }
+
+    /**
+     * @param maxInListSize the maximum number of UIDs queried by a single statement, 256 by default
+     * @return this database
+     */
+    public JdbcChainTableDatabase maxInListSize(int maxInListSize) {
+        if (maxInListSize < 1) {
+            throw new IllegalArgumentException("The IN list size must be positive");
+        }
+        this.maxInListSize = maxInListSize;
+        return this;
+    }
+
+    /**
+     * @param batchSize the maximum number of lines written by a single JDBC batch, 1000 by default
+     * @return this database
+     */
+    public JdbcChainTableDatabase batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Create the table if it does not exist, with the {@code BLOB} type for the columns.
+     *
+     * @throws CloudproofException if the table cannot be created
+     */
+    public void createTable() throws CloudproofException {
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()) {
+            statement.execute(
+                "CREATE TABLE IF NOT EXISTS " + tableName + " (uid BLOB PRIMARY KEY, value BLOB NOT NULL)");
+        } catch (SQLException e) {
+            throw new CloudproofException("error creating the Chain Table: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        if (uids.isEmpty()) {
+            return results;
+        }
+        // the padding of the IN lists may return the same line twice
+        Set<Uid32> seen = new HashSet<>(uids.size() * 2);
+        try (Connection connection = dataSource.getConnection()) {
+            JdbcTables.inChunks(connection, "SELECT uid, value FROM " + tableName + " WHERE uid IN ", "", uids,
+                maxInListSize, rs -> {
+                    while (rs.next()) {
+                        Uid32 uid = new Uid32(rs.getBytes(1));
+                        if (seen.add(uid)) {
+                            results.add(new Tuple<>(uid, new ChainTableValue(rs.getBytes(2))));
+                        }
+                    }
+                });
+            return results;
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Chain Table fetch: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        if (uidsAndValues.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement =
+                connection.prepareStatement("INSERT INTO " + tableName + " (uid, value) VALUES (?, ?)")) {
+                int batch = 0;
+                for (Map.Entry<Uid32, ChainTableValue> entry : uidsAndValues.entrySet()) {
+                    statement.setBytes(1, entry.getKey().getBytes());
+                    statement.setBytes(2, entry.getValue().getBytes());
+                    statement.addBatch();
+                    if (++batch == batchSize) {
+                        statement.executeBatch();
+                        batch = 0;
+                    }
+                }
+                if (batch > 0) {
+                    statement.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Chain Table insert: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            JdbcTables.inChunks(connection, "DELETE FROM " + tableName + " WHERE uid IN ", "", uids, maxInListSize,
+                null);
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Chain Table delete: " + e.getMessage(), e);
+        }
+    }
+}
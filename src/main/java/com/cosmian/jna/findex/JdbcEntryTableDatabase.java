@@ -0,0 +1,302 @@
+package com.cosmian.jna.findex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An {@link EntryTableDatabase} stored in a SQL table with a {@code uid} primary key and a {@code value} column, both
+ * binary.
+ * <p>
+ * Each call borrows a connection from the {@link DataSource}, which should be a connection pool. The UIDs are queried
+ * with IN lists of a few fixed sizes, so that the statements are cached by the driver or the pool, and the writes are
+ * sent in JDBC batches, in a single transaction per call.
+ * <p>
+ * The default conditional upsert query uses the {@code INSERT ... ON CONFLICT} syntax of SQLite and PostgreSQL; it can
+ * be replaced with {@link #upsertSql(String)} for other databases. The failed upserts are detected from the update
+ * counts of the batches; when the driver does not report them, the lines are read back in the same transaction.
+ */
+public class JdbcEntryTableDatabase implements EntryTableDatabase {
+
+    private final DataSource dataSource;
+
+    private final String tableName;
+
+    private int maxInListSize = 256;
+
+    private int batchSize = 1000;
+
+    private String upsertSql;
+
+    /**
+     * @param dataSource the source of the connections
+     * @param tableName the name of the table
+     */
+    public JdbcEntryTableDatabase(DataSource dataSource, String tableName) {
+        this.dataSource = dataSource;
+        this.tableName = JdbcTables.checkTableName(tableName);
+        this.upsertSql = "INSERT INTO " + tableName + " (uid, value) VALUES (?, ?) ON CONFLICT (uid) DO UPDATE SET"
+            + " value = ? WHERE " + tableName + ".value = ?";
+    }
+
+    /**
+     * @param maxInListSize the maximum number of UIDs queried by a single statement, 256 by default
+     * @return this database
+     */
+    public JdbcEntryTableDatabase maxInListSize(int maxInListSize) {
+        if (maxInListSize < 1) {
+            throw new IllegalArgumentException("The IN list size must be positive");
+        }
+        this.maxInListSize = maxInListSize;
+        return this;
+    }
+
+    /**
+     * @param batchSize the maximum number of lines written by a single JDBC batch, 1000 by default
+     * @return this database
+     */
+    public JdbcEntryTableDatabase batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Set the conditional upsert query. Its parameters are the UID, the new value, the new value again and the previous
+     * value; it must update no row when the line exists with a value other than the previous value.
+     *
+     * @param upsertSql the query
+     * @return this database
+     */
+    public JdbcEntryTableDatabase upsertSql(String upsertSql) {
+        this.upsertSql = upsertSql;
+        return this;
+    }
+
+    /**
+     * Create the table if it does not exist, with the {@code BLOB} type for the columns.
+     *
+     * @throws CloudproofException if the table cannot be created
+     */
+    public void createTable() throws CloudproofException {
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()) {
+            statement.execute(
+                "CREATE TABLE IF NOT EXISTS " + tableName + " (uid BLOB PRIMARY KEY, value BLOB NOT NULL)");
+        } catch (SQLException e) {
+            throw new CloudproofException("error creating the Entry Table: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        try (Connection connection = dataSource.getConnection();
+            PreparedStatement statement = connection.prepareStatement("SELECT uid FROM " + tableName)) {
+            statement.setFetchSize(10_000);
+            Set<Uid32> uids = new HashSet<>();
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    uids.add(new Uid32(rs.getBytes(1)));
+                }
+            }
+            return uids;
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Entry Table UID dump: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        if (uids.isEmpty()) {
+            return results;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            fetch(connection, uids, results);
+            return results;
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Entry Table fetch: " + e.getMessage(), e);
+        }
+    }
+
+    private void fetch(Connection connection,
+                       List<Uid32> uids,
+                       List<Tuple<Uid32, EntryTableValue>> results)
+        throws SQLException {
+        // the padding of the IN lists may return the same line twice
+        Set<Uid32> seen = new HashSet<>(uids.size() * 2);
+        JdbcTables.inChunks(connection, "SELECT uid, value FROM " + tableName + " WHERE uid IN ", "", uids,
+            maxInListSize, rs -> {
+                while (rs.next()) {
+                    Uid32 uid = new Uid32(rs.getBytes(1));
+                    if (seen.add(uid)) {
+                        results.add(new Tuple<>(uid, new EntryTableValue(rs.getBytes(2))));
+                    }
+                }
+            });
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        Map<Uid32, EntryTableValue> failed = new HashMap<>();
+        if (uidsAndValues.isEmpty()) {
+            return failed;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                List<Uid32> failedUids = new ArrayList<>();
+                // the UIDs of the batches whose update counts are unknown
+                List<Uid32> unknownUids = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(upsertSql)) {
+                    List<Uid32> batch = new ArrayList<>(Math.min(batchSize, uidsAndValues.size()));
+                    for (Map.Entry<Uid32, EntryTableValues> entry : uidsAndValues.entrySet()) {
+                        byte[] newValue = entry.getValue().getNew().getBytes();
+                        statement.setBytes(1, entry.getKey().getBytes());
+                        statement.setBytes(2, newValue);
+                        statement.setBytes(3, newValue);
+                        statement.setBytes(4, entry.getValue().getPrevious().getBytes());
+                        statement.addBatch();
+                        batch.add(entry.getKey());
+                        if (batch.size() == batchSize) {
+                            collectFailures(statement.executeBatch(), batch, failedUids, unknownUids);
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        collectFailures(statement.executeBatch(), batch, failedUids, unknownUids);
+                    }
+                }
+                if (!unknownUids.isEmpty()) {
+                    // read back in the transaction: a line holding its new value was written by this upsert
+                    List<Tuple<Uid32, EntryTableValue>> current = new ArrayList<>(unknownUids.size());
+                    fetch(connection, unknownUids, current);
+                    Map<Uid32, EntryTableValue> currentValues = new HashMap<>(current.size() * 2);
+                    for (Tuple<Uid32, EntryTableValue> line : current) {
+                        currentValues.put(line.getLeft(), line.getRight());
+                    }
+                    for (Uid32 uid : unknownUids) {
+                        EntryTableValue value = currentValues.get(uid);
+                        if (value == null || !value.equals(uidsAndValues.get(uid).getNew())) {
+                            failed.put(uid, value == null ? new EntryTableValue(new byte[0]) : value);
+                        }
+                    }
+                }
+                if (!failedUids.isEmpty()) {
+                    List<Tuple<Uid32, EntryTableValue>> current = new ArrayList<>(failedUids.size());
+                    fetch(connection, failedUids, current);
+                    for (Uid32 uid : failedUids) {
+                        // a line deleted concurrently is reported with an empty value
+                        failed.put(uid, new EntryTableValue(new byte[0]));
+                    }
+                    for (Tuple<Uid32, EntryTableValue> line : current) {
+                        failed.put(line.getLeft(), line.getRight());
+                    }
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return failed;
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Entry Table upsert: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add the UIDs of a batch which updated no row to the failed UIDs. When the driver does not report a count per
+     * statement, with {@link Statement#SUCCESS_NO_INFO} or because it rewrote the batch, all the UIDs of the batch are
+     * added to the unknown UIDs instead.
+     */
+    private static void collectFailures(int[] updateCounts,
+                                        List<Uid32> batch,
+                                        List<Uid32> failedUids,
+                                        List<Uid32> unknownUids) {
+        if (updateCounts.length != batch.size()) {
+            unknownUids.addAll(batch);
+            return;
+        }
+        for (int updateCount : updateCounts) {
+            if (updateCount == Statement.SUCCESS_NO_INFO) {
+                unknownUids.addAll(batch);
+                return;
+            }
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                failedUids.add(batch.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        if (uidsAndValues.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement =
+                connection.prepareStatement("INSERT INTO " + tableName + " (uid, value) VALUES (?, ?)")) {
+                int batch = 0;
+                for (Map.Entry<Uid32, EntryTableValue> entry : uidsAndValues.entrySet()) {
+                    statement.setBytes(1, entry.getKey().getBytes());
+                    statement.setBytes(2, entry.getValue().getBytes());
+                    statement.addBatch();
+                    if (++batch == batchSize) {
+                        statement.executeBatch();
+                        batch = 0;
+                    }
+                }
+                if (batch > 0) {
+                    statement.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Entry Table insert: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            JdbcTables.inChunks(connection, "DELETE FROM " + tableName + " WHERE uid IN ", "", uids, maxInListSize,
+                null);
+        } catch (SQLException e) {
+            throw new CloudproofException("error in Entry Table delete: " + e.getMessage(), e);
+        }
+    }
+}
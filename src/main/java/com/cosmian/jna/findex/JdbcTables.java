@@ -0,0 +1,107 @@
+package com.cosmian.jna.findex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cosmian.jna.findex.structs.Uid32;
+
+/**
+ * SQL helpers shared by the JDBC Entry Table and Chain Table.
+ */
+final class JdbcTables {
+
+    /**
+     * Reads the rows of a result set
+     */
+    @FunctionalInterface
+    interface RowReader {
+        void read(ResultSet rs) throws SQLException;
+    }
+
+    private JdbcTables() {
+    }
+
+    /**
+     * Check that a table name is a plain SQL identifier, since it is concatenated to the SQL queries.
+     */
+    static String checkTableName(String tableName) {
+        if (!tableName.matches("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?")) {
+            throw new IllegalArgumentException("Invalid table name: " + tableName);
+        }
+        return tableName;
+    }
+
+    /**
+     * The size of the IN list holding {@code count} UIDs: the next power of two, up to the maximum size. Using a few
+     * list sizes only keeps the number of distinct SQL queries small, so that they stay in the statement caches of the
+     * driver and of the connection pool.
+     */
+    static int inListSize(int count,
+                          int maxInListSize) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        return Math.min(count == 1 ? 1 : size, maxInListSize);
+    }
+
+    /**
+     * Run a query with an IN list of UIDs, {@code maxInListSize} UIDs at a time. The last chunk is padded with its last
+     * UID to the size of its IN list. The statements are cached by IN list size for the duration of the call.
+     *
+     * @param sqlPrefix the query up to the opening parenthesis of the IN list, excluded
+     * @param sqlSuffix the query after the closing parenthesis of the IN list, excluded
+     * @param reader the reader of the rows, null for an update
+     */
+    static void inChunks(Connection connection,
+                         String sqlPrefix,
+                         String sqlSuffix,
+                         List<Uid32> uids,
+                         int maxInListSize,
+                         RowReader reader)
+        throws SQLException {
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
+        try {
+            for (int from = 0; from < uids.size(); from += maxInListSize) {
+                int count = Math.min(maxInListSize, uids.size() - from);
+                int size = inListSize(count, maxInListSize);
+                PreparedStatement statement = statements.get(size);
+                if (statement == null) {
+                    statement = connection.prepareStatement(sqlPrefix + "(" + questionMarks(size) + ")" + sqlSuffix);
+                    statements.put(size, statement);
+                }
+                byte[] uid = null;
+                for (int i = 0; i < size; i++) {
+                    if (i < count) {
+                        uid = uids.get(from + i).getBytes();
+                    }
+                    statement.setBytes(i + 1, uid);
+                }
+                if (reader == null) {
+                    statement.executeUpdate();
+                } else {
+                    try (ResultSet rs = statement.executeQuery()) {
+                        reader.read(rs);
+                    }
+                }
+            }
+        } finally {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+    }
+
+    static String questionMarks(int count) {
+        StringBuilder sb = new StringBuilder(2 * count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package com.cosmian.jna.findex;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An embedded {@link EntryTableDatabase} stored in an append-only log of memory-mapped segment files.
+ * <p>
+ * The location of each line is kept in a hash index in native memory, rebuilt from the log when the table is opened:
+ * a fetch reads the lines from the mapped memory, without system call. The conditional upserts are atomic: they hold
+ * the write lock of the log while comparing and appending the lines.
+ * <p>
+ * The segments holding less than half of live lines are merged in the background, every 10 seconds by default.
+ * The table must be closed to stop the merges and release the files.
+ */
+public class MappedEntryTable implements EntryTableDatabase, AutoCloseable {
+
+    private final MappedLog log;
+
+    /**
+     * Open the table with segments of 64MB, flushed to disk by the operating system.
+     *
+     * @param directory the directory of the segment files, created if needed
+     * @throws CloudproofException if the segment files cannot be read or created
+     */
+    public MappedEntryTable(Path directory) throws CloudproofException {
+        this(directory, 64 << 20, false, 10_000);
+    }
+
+    /**
+     * @param directory the directory of the segment files, created if needed
+     * @param segmentSize the size of a segment file, in bytes
+     * @param sync whether each write is forced to disk before returning
+     * @param mergeIntervalMillis the interval between two background merges, 0 to only merge with {@link #merge()}
+     * @throws CloudproofException if the segment files cannot be read or created
+     */
+    public MappedEntryTable(Path directory, int segmentSize, boolean sync, long mergeIntervalMillis)
+        throws CloudproofException {
+        this.log = new MappedLog(directory, segmentSize, sync, 0.5, mergeIntervalMillis);
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        return log.uids();
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        log.get(uids, (uid, value) -> results.add(new Tuple<>(uid, new EntryTableValue(value))));
+        return results;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        Map<Uid32, EntryTableValue> failed = new HashMap<>();
+        for (Map.Entry<Uid32, byte[]> line : log.compareAndPut(uidsAndValues).entrySet()) {
+            failed.put(line.getKey(), new EntryTableValue(line.getValue()));
+        }
+        return failed;
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        log.put(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        log.delete(uids);
+    }
+
+    /**
+     * Merge the segments holding less than half of live lines.
+     *
+     * @return the number of segments merged
+     * @throws CloudproofException if a segment cannot be merged
+     */
+    public int merge() throws CloudproofException {
+        return log.merge();
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int getSegmentCount() {
+        return log.segmentCount();
+    }
+
+    @Override
+    public void close() throws CloudproofException {
+        log.close();
+    }
+}
@@ -0,0 +1,552 @@
+package com.cosmian.jna.findex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import com.cosmian.jna.findex.serde.Leb128ByteArray;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An append-only log of lines stored in memory-mapped segment files, indexed by an {@link OffHeapUidIndex}.
+ * <p>
+ * A record is the value length plus one (or -1 for a deletion, 0 marks the end of the segment), the CRC32 of the
+ * record, the UID and the value. Records are appended to the active segment; a new segment is created when it is full.
+ * The index holds the location of the last record of each live UID: the segment number in the high int and the
+ * offset in the low int. On opening, the index is rebuilt by replaying the segments in order, each one up to its first
+ * invalid record.
+ * <p>
+ * A background task merges the sealed segments holding mostly overwritten or deleted records: their live records are
+ * appended again to the active segment, and their file is deleted.
+ * <p>
+ * Reads hold a shared lock and read the mapped memory directly; writes, including the compare-and-set of the upserts,
+ * hold an exclusive lock.
+ */
+final class MappedLog implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 4 + 4 + 32;
+
+    private static final int DELETION = -1;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+    private static final class Segment {
+        final int id;
+
+        final Path path;
+
+        final FileChannel channel;
+
+        final MappedByteBuffer buffer;
+
+        int writePosition = 0;
+
+        long liveBytes = 0;
+
+        long deletionBytes = 0;
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final boolean sync;
+
+    private final double mergeThreshold;
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    private Segment active;
+
+    private final OffHeapUidIndex index = new OffHeapUidIndex(1024);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ScheduledExecutorService merger;
+
+    private boolean closed = false;
+
+    /**
+     * Open the log stored in a directory, creating it if needed.
+     *
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of a segment file, in bytes
+     * @param sync whether each write is flushed to disk before returning
+     * @param mergeThreshold the proportion of live bytes under which a sealed segment is merged
+     * @param mergeIntervalMillis the interval between two merges, 0 to only merge on demand
+     */
+    MappedLog(Path directory, int segmentSize, boolean sync, double mergeThreshold, long mergeIntervalMillis)
+        throws CloudproofException {
+        if (segmentSize < 2 * HEADER_SIZE) {
+            throw new IllegalArgumentException("The segment size must be at least " + 2 * HEADER_SIZE + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.mergeThreshold = mergeThreshold;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new CloudproofException("failed opening the log in " + directory + ": " + e.getMessage(), e);
+        }
+        if (mergeIntervalMillis > 0) {
+            this.merger = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "findex-mapped-log-merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.merger.scheduleWithFixedDelay(() -> {
+                try {
+                    merge();
+                } catch (CloudproofException | RuntimeException e) {
+                    // retried on the next run
+                }
+            }, mergeIntervalMillis, mergeIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.merger = null;
+        }
+    }
+
+    // ------------------------------------------------------
+    // Segments and records
+    // ------------------------------------------------------
+
+    private Segment openSegment(int id,
+                                boolean create)
+        throws IOException {
+        Path path = directory.resolve("segment-" + id + ".log");
+        FileChannel channel = create
+            ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = create ? segmentSize : channel.size();
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException(path + " is too large to be a segment");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        Segment segment = new Segment(id, path, channel, buffer);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static long location(Segment segment,
+                                 int offset) {
+        return (long) segment.id << 32 | offset;
+    }
+
+    private static int recordSize(int lengthField) {
+        return HEADER_SIZE + (lengthField == DELETION ? 0 : lengthField - 1);
+    }
+
+    private static int crc(ByteBuffer buffer,
+                           int offset,
+                           int lengthField) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 8);
+        record.limit(offset + recordSize(lengthField));
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(lengthField >>> shift);
+        }
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the length field of the valid record at the offset, or 0 if there is none
+     */
+    private static int validRecord(ByteBuffer buffer,
+                                   int offset) {
+        if (offset + HEADER_SIZE > buffer.capacity()) {
+            return 0;
+        }
+        int lengthField = buffer.getInt(offset);
+        if (lengthField == 0 || lengthField < DELETION
+            || (long) offset + recordSize(lengthField) > buffer.capacity()) {
+            return 0;
+        }
+        return crc(buffer, offset, lengthField) == buffer.getInt(offset + 4) ? lengthField : 0;
+    }
+
+    private static Uid32 uidAt(ByteBuffer buffer,
+                               int offset) {
+        return new Uid32(buffer.getLong(offset + 8), buffer.getLong(offset + 16), buffer.getLong(offset + 24),
+            buffer.getLong(offset + 32));
+    }
+
+    private byte[] valueAt(long location) {
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) location;
+        byte[] value = new byte[segment.buffer.getInt(offset) - 1];
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.get(value);
+        return value;
+    }
+
+    private int recordSizeAt(long location) {
+        Segment segment = segments.get((int) (location >>> 32));
+        return recordSize(segment.buffer.getInt((int) location));
+    }
+
+    /**
+     * Replay the segments to rebuild the index.
+     */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        ids.sort(null);
+        for (int id : ids) {
+            Segment segment = openSegment(id, false);
+            int offset = 0;
+            int lengthField;
+            while ((lengthField = validRecord(segment.buffer, offset)) != 0) {
+                Uid32 uid = uidAt(segment.buffer, offset);
+                int size = recordSize(lengthField);
+                long previous = lengthField == DELETION ? index.remove(uid) : index.put(uid, location(segment, offset));
+                if (previous > 0) {
+                    segments.get((int) (previous >>> 32)).liveBytes -= recordSizeAt(previous);
+                }
+                if (lengthField == DELETION) {
+                    segment.deletionBytes += size;
+                } else {
+                    segment.liveBytes += size;
+                }
+                offset += size;
+            }
+            // a torn write ends the segment: erase what follows so that it is never replayed
+            segment.writePosition = offset;
+            for (int i = offset; i < segment.buffer.capacity(); i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+        }
+        if (segments.isEmpty()) {
+            active = openSegment(1, true);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Append a record to the active segment, creating a new one if it is full.
+     *
+     * @param value the value, or null for a deletion
+     * @return the location of the record
+     */
+    private long append(Uid32 uid,
+                        byte[] value)
+        throws IOException {
+        int lengthField = value == null ? DELETION : value.length + 1;
+        int size = recordSize(lengthField);
+        if (size > segmentSize) {
+            throw new IOException("A line of " + value.length + " bytes does not fit in a segment of " + segmentSize
+                + " bytes");
+        }
+        if (active.writePosition + size > active.buffer.capacity()) {
+            if (sync) {
+                active.buffer.force();
+            }
+            active = openSegment(active.id + 1, true);
+        }
+        int offset = active.writePosition;
+        ByteBuffer view = active.buffer.duplicate();
+        view.position(offset + 8);
+        view.putLong(uid.getLong(0));
+        view.putLong(uid.getLong(1));
+        view.putLong(uid.getLong(2));
+        view.putLong(uid.getLong(3));
+        if (value != null) {
+            view.put(value);
+        }
+        active.buffer.putInt(offset + 4, crc(active.buffer, offset, lengthField));
+        // the length is written last: a record is only valid once complete
+        active.buffer.putInt(offset, lengthField);
+        active.writePosition += size;
+        return location(active, offset);
+    }
+
+    /**
+     * Append a line and index it, or remove it from the index if the value is null.
+     */
+    private void write(Uid32 uid,
+                       byte[] value)
+        throws IOException {
+        long location = append(uid, value);
+        long previous = value == null ? index.remove(uid) : index.put(uid, location);
+        if (previous > 0) {
+            segments.get((int) (previous >>> 32)).liveBytes -= recordSizeAt(previous);
+        }
+        if (value == null) {
+            active.deletionBytes += HEADER_SIZE;
+        } else {
+            active.liveBytes += recordSize(value.length + 1);
+        }
+    }
+
+    private void flush() {
+        if (sync) {
+            active.buffer.force();
+        }
+    }
+
+    // ------------------------------------------------------
+    // Lines
+    // ------------------------------------------------------
+
+    private void checkOpen() throws CloudproofException {
+        if (closed) {
+            throw new CloudproofException("The log in " + directory + " is closed");
+        }
+    }
+
+    /**
+     * Call the consumer with each existing line, read directly from the mapped memory.
+     */
+    void get(List<Uid32> uids,
+             BiConsumer<Uid32, byte[]> consumer)
+        throws CloudproofException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (Uid32 uid : uids) {
+                long location = index.get(uid);
+                if (location > 0) {
+                    consumer.accept(uid, valueAt(location));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Set<Uid32> uids() throws CloudproofException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Set<Uid32> uids = new HashSet<>(index.size() * 2);
+            index.forEach((uid, location) -> uids.add(uid));
+            return uids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void put(Map<Uid32, ? extends Leb128ByteArray> lines) throws CloudproofException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (Map.Entry<Uid32, ? extends Leb128ByteArray> line : lines.entrySet()) {
+                write(line.getKey(), line.getValue().getBytes());
+            }
+            flush();
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing to the log in " + directory + ": " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the new value of each line whose current value is its previous value, an absent line matching an empty
+     * previous value.
+     *
+     * @return the current value of the lines which were not written
+     */
+    Map<Uid32, byte[]> compareAndPut(Map<Uid32, EntryTableValues> lines) throws CloudproofException {
+        Map<Uid32, byte[]> failed = new HashMap<>();
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (Map.Entry<Uid32, EntryTableValues> line : lines.entrySet()) {
+                long location = index.get(line.getKey());
+                byte[] current = location > 0 ? valueAt(location) : new byte[0];
+                if (Arrays.equals(current, line.getValue().getPrevious().getBytes())) {
+                    write(line.getKey(), line.getValue().getNew().getBytes());
+                } else {
+                    failed.put(line.getKey(), current);
+                }
+            }
+            flush();
+            return failed;
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing to the log in " + directory + ": " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void delete(List<Uid32> uids) throws CloudproofException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (Uid32 uid : uids) {
+                if (index.get(uid) > 0) {
+                    write(uid, null);
+                }
+            }
+            flush();
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing to the log in " + directory + ": " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------
+    // Merge
+    // ------------------------------------------------------
+
+    /**
+     * Merge the sealed segments whose proportion of live bytes is under the threshold.
+     *
+     * @return the number of segments merged
+     */
+    synchronized int merge() throws CloudproofException {
+        int merged = 0;
+        while (true) {
+            Segment candidate = null;
+            boolean oldest;
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    return merged;
+                }
+                Segment first = segments.firstEntry().getValue();
+                for (Segment segment : segments.values()) {
+                    // the deletions are copied unless the segment is the oldest one
+                    long kept = segment.liveBytes + (segment == first ? 0 : segment.deletionBytes);
+                    if (segment != active && kept < mergeThreshold * segment.buffer.capacity()) {
+                        candidate = segment;
+                        break;
+                    }
+                }
+                if (candidate == null) {
+                    return merged;
+                }
+                oldest = candidate == segments.firstEntry().getValue();
+            } finally {
+                lock.readLock().unlock();
+            }
+            mergeSegment(candidate, oldest);
+            merged++;
+        }
+    }
+
+    private void mergeSegment(Segment segment,
+                              boolean oldest)
+        throws CloudproofException {
+        int offset = 0;
+        try {
+            while (offset < segment.writePosition) {
+                // release the lock regularly so that the merge does not stall the searches
+                lock.writeLock().lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    for (int n = 0; n < 1024 && offset < segment.writePosition; n++) {
+                        int lengthField = segment.buffer.getInt(offset);
+                        Uid32 uid = uidAt(segment.buffer, offset);
+                        if (lengthField == DELETION) {
+                            // a deletion is only needed while an older segment may hold the line
+                            if (!oldest && index.get(uid) < 0) {
+                                append(uid, null);
+                                active.deletionBytes += HEADER_SIZE;
+                            }
+                        } else if (index.get(uid) == location(segment, offset)) {
+                            ByteBuffer view = segment.buffer.duplicate();
+                            view.position(offset + HEADER_SIZE);
+                            byte[] value = new byte[lengthField - 1];
+                            view.get(value);
+                            write(uid, value);
+                        }
+                        offset += recordSize(lengthField);
+                    }
+                    if (offset >= segment.writePosition) {
+                        flush();
+                        segments.remove(segment.id);
+                        segment.channel.close();
+                        Files.delete(segment.path);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new CloudproofException("failed merging " + segment.path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws CloudproofException {
+        if (merger != null) {
+            merger.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            index.clear();
+        } catch (IOException e) {
+            throw new CloudproofException("failed closing the log in " + directory + ": " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.cosmian.jna.findex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import com.cosmian.jna.findex.serde.Leb128ByteArray;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+
+/**
+ * A concurrent map of {@link Uid32} to byte arrays, stored in native memory.
+ * <p>
+ * The UIDs are spread over lock stripes. Each stripe holds an {@link OffHeapUidIndex} of the location of the values,
+ * and allocates the values in slabs of direct memory. A slab is cut in chunks of a single power-of-two size, holding
+ * the value length and the value; a freed chunk is reused by the next value of its size. A value larger than a slab
+ * is allocated alone.
+ * <p>
+ * A location is the slab number plus one in the high int and the offset in the low int, so that it is positive as
+ * required by the index.
+ */
+final class OffHeapStore {
+
+    private static final int MIN_CHUNK_SHIFT = 4;
+
+    private final class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        OffHeapUidIndex index;
+
+        ArrayList<ByteBuffer> slabs;
+
+        /**
+         * The released slots of {@link #slabs}
+         */
+        ArrayList<Integer> freeSlabs;
+
+        /**
+         * The freed chunks, per chunk size
+         */
+        long[][] freeChunks;
+
+        int[] freeCounts;
+
+        /**
+         * The next chunk of the current slab, per chunk size, or 0
+         */
+        long[] next;
+
+        long allocatedBytes;
+
+        Stripe() {
+            reset();
+        }
+
+        void reset() {
+            index = new OffHeapUidIndex(64);
+            slabs = new ArrayList<>();
+            freeSlabs = new ArrayList<>();
+            freeChunks = new long[maxChunkShift - MIN_CHUNK_SHIFT + 1][];
+            freeCounts = new int[freeChunks.length];
+            next = new long[freeChunks.length];
+            allocatedBytes = 0;
+        }
+
+        private int addSlab(ByteBuffer slab) {
+            allocatedBytes += slab.capacity();
+            if (!freeSlabs.isEmpty()) {
+                int slot = freeSlabs.remove(freeSlabs.size() - 1);
+                slabs.set(slot, slab);
+                return slot;
+            }
+            slabs.add(slab);
+            return slabs.size() - 1;
+        }
+
+        /**
+         * @param size the size of the chunk: the value length plus 4
+         * @return the location of the chunk
+         */
+        private long allocate(int size) {
+            if (size > slabSize) {
+                return location(addSlab(ByteBuffer.allocateDirect(size)), 0);
+            }
+            int sizeClass = Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_CHUNK_SHIFT;
+            if (freeCounts[sizeClass] > 0) {
+                return freeChunks[sizeClass][--freeCounts[sizeClass]];
+            }
+            int chunkSize = 1 << (sizeClass + MIN_CHUNK_SHIFT);
+            long chunk = next[sizeClass];
+            if (chunk == 0 || (int) chunk + chunkSize > slabSize) {
+                chunk = location(addSlab(ByteBuffer.allocateDirect(slabSize)), 0);
+            }
+            next[sizeClass] = chunk + chunkSize;
+            return chunk;
+        }
+
+        private void free(long location) {
+            int slot = (int) (location >>> 32) - 1;
+            ByteBuffer slab = slabs.get(slot);
+            int size = slab.getInt((int) location) + 4;
+            if (size > slabSize) {
+                slabs.set(slot, null);
+                freeSlabs.add(slot);
+                allocatedBytes -= slab.capacity();
+                return;
+            }
+            int sizeClass = Math.max(MIN_CHUNK_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_CHUNK_SHIFT;
+            if (freeChunks[sizeClass] == null) {
+                freeChunks[sizeClass] = new long[16];
+            } else if (freeCounts[sizeClass] == freeChunks[sizeClass].length) {
+                freeChunks[sizeClass] = Arrays.copyOf(freeChunks[sizeClass], 2 * freeCounts[sizeClass]);
+            }
+            freeChunks[sizeClass][freeCounts[sizeClass]++] = location;
+        }
+
+        byte[] read(long location) {
+            ByteBuffer slab = slabs.get((int) (location >>> 32) - 1).duplicate();
+            int offset = (int) location;
+            byte[] value = new byte[slab.getInt(offset)];
+            slab.position(offset + 4);
+            slab.get(value);
+            return value;
+        }
+
+        /**
+         * Compare the value stored at a location with an array, without copying it.
+         */
+        boolean equals(long location,
+                       byte[] value) {
+            ByteBuffer slab = slabs.get((int) (location >>> 32) - 1);
+            int offset = (int) location;
+            if (slab.getInt(offset) != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (slab.get(offset + 4 + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void write(Uid32 uid,
+                   byte[] value) {
+            // freed first, so that a value of the same size reuses the chunk
+            long previous = index.get(uid);
+            if (previous > 0) {
+                free(previous);
+            }
+            long location = allocate(value.length + 4);
+            ByteBuffer slab = slabs.get((int) (location >>> 32) - 1).duplicate();
+            slab.position((int) location);
+            slab.putInt(value.length);
+            slab.put(value);
+            index.put(uid, location);
+        }
+
+        boolean remove(Uid32 uid) {
+            long previous = index.remove(uid);
+            if (previous > 0) {
+                free(previous);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final int slabSize;
+
+    private final int maxChunkShift;
+
+    private final Stripe[] stripes;
+
+    /**
+     * @param stripes the number of lock stripes, rounded up to a power of two
+     * @param slabSize the size of a slab, rounded up to a power of two
+     */
+    OffHeapStore(int stripes, int slabSize) {
+        if (stripes < 1 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("The number of stripes must be between 1 and 65536");
+        }
+        if (slabSize < 1 << MIN_CHUNK_SHIFT || slabSize > 1 << 30) {
+            throw new IllegalArgumentException("The slab size must be between 16 bytes and 1GB");
+        }
+        this.slabSize = ceilingPowerOfTwo(slabSize);
+        this.maxChunkShift = Integer.numberOfTrailingZeros(this.slabSize);
+        this.stripes = new Stripe[ceilingPowerOfTwo(stripes)];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static long location(int slot,
+                                 int offset) {
+        return (long) (slot + 1) << 32 | offset;
+    }
+
+    private int stripeOf(Uid32 uid) {
+        // the index hashes the first and third longs
+        return (int) (uid.getLong(1) >>> 40) & (stripes.length - 1);
+    }
+
+    /**
+     * Group the items by stripe, so that each stripe is locked once per call.
+     */
+    private <T> List<List<T>> byStripe(Collection<T> items,
+                                       Function<T, Uid32> uidOf) {
+        List<List<T>> groups = new ArrayList<>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            groups.add(null);
+        }
+        for (T item : items) {
+            int stripe = stripeOf(uidOf.apply(item));
+            List<T> group = groups.get(stripe);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.set(stripe, group);
+            }
+            group.add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Call the consumer with each existing value.
+     */
+    void get(List<Uid32> uids,
+             BiConsumer<Uid32, byte[]> consumer) {
+        List<List<Uid32>> groups = byStripe(uids, Function.identity());
+        for (int i = 0; i < stripes.length; i++) {
+            List<Uid32> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock.readLock().lock();
+            try {
+                for (Uid32 uid : group) {
+                    long location = stripe.index.get(uid);
+                    if (location > 0) {
+                        consumer.accept(uid, stripe.read(location));
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    Set<Uid32> uids() {
+        Set<Uid32> uids = new HashSet<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                stripe.index.forEach((uid, location) -> uids.add(uid));
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return uids;
+    }
+
+    <V extends Leb128ByteArray> void put(Map<Uid32, V> values) {
+        List<List<Map.Entry<Uid32, V>>> groups = byStripe(values.entrySet(), Map.Entry::getKey);
+        for (int i = 0; i < stripes.length; i++) {
+            List<Map.Entry<Uid32, V>> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock.writeLock().lock();
+            try {
+                for (Map.Entry<Uid32, V> entry : group) {
+                    stripe.write(entry.getKey(), entry.getValue().getBytes());
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Write the new value of each UID whose current value is its previous value, an absent UID matching an empty
+     * previous value.
+     *
+     * @return the current value of the UIDs which were not written
+     */
+    Map<Uid32, byte[]> compareAndPut(Map<Uid32, EntryTableValues> values) {
+        Map<Uid32, byte[]> failed = new HashMap<>();
+        List<List<Map.Entry<Uid32, EntryTableValues>>> groups = byStripe(values.entrySet(), Map.Entry::getKey);
+        for (int i = 0; i < stripes.length; i++) {
+            List<Map.Entry<Uid32, EntryTableValues>> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock.writeLock().lock();
+            try {
+                for (Map.Entry<Uid32, EntryTableValues> entry : group) {
+                    long location = stripe.index.get(entry.getKey());
+                    byte[] previous = entry.getValue().getPrevious().getBytes();
+                    if (location > 0 ? stripe.equals(location, previous) : previous.length == 0) {
+                        stripe.write(entry.getKey(), entry.getValue().getNew().getBytes());
+                    } else {
+                        failed.put(entry.getKey(), location > 0 ? stripe.read(location) : new byte[0]);
+                    }
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+        return failed;
+    }
+
+    void delete(List<Uid32> uids) {
+        List<List<Uid32>> groups = byStripe(uids, Function.identity());
+        for (int i = 0; i < stripes.length; i++) {
+            List<Uid32> group = groups.get(i);
+            if (group == null) {
+                continue;
+            }
+            Stripe stripe = stripes[i];
+            stripe.lock.writeLock().lock();
+            try {
+                for (Uid32 uid : group) {
+                    stripe.remove(uid);
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove all the values and release the slabs.
+     */
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.writeLock().lock();
+            try {
+                stripe.reset();
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of values
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.index.size();
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the slabs, in bytes
+     */
+    long allocatedBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                bytes += stripe.allocatedBytes;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,191 @@
+package com.cosmian.jna.findex;
+
+import java.nio.ByteBuffer;
+import java.util.function.ObjLongConsumer;
+
+import com.cosmian.jna.findex.structs.Uid32;
+
+/**
+ * An open addressing hash map of {@link Uid32} to a positive long, stored in native memory.
+ * <p>
+ * A slot holds the 32 bytes of the UID followed by the long value; 0 marks an empty slot and -1 a removed one. The
+ * capacity is a power of two and the load factor stays under 2/3. The index is not thread-safe.
+ */
+final class OffHeapUidIndex {
+
+    private static final int SLOT_SIZE = 32 + 8;
+
+    private static final long EMPTY = 0;
+
+    private static final long REMOVED = -1;
+
+    /**
+     * The largest capacity holding in a single direct buffer
+     */
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+
+    private ByteBuffer slots;
+
+    private int mask;
+
+    private int size = 0;
+
+    /**
+     * Live and removed slots
+     */
+    private int used = 0;
+
+    OffHeapUidIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(16L, (long) expectedSize * 3 / 2)) << 1;
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("The off-heap index cannot hold more than " + MAX_CAPACITY * 2 / 3
+                + " UIDs");
+        }
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        this.mask = capacity - 1;
+    }
+
+    private static int hash(Uid32 uid) {
+        // UIDs are uniformly distributed
+        long h = uid.getLong(0) ^ uid.getLong(2);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean matches(int offset,
+                            Uid32 uid) {
+        return slots.getLong(offset) == uid.getLong(0) && slots.getLong(offset + 8) == uid.getLong(1)
+            && slots.getLong(offset + 16) == uid.getLong(2) && slots.getLong(offset + 24) == uid.getLong(3);
+    }
+
+    /**
+     * @return the offset of the slot of the UID, or -1
+     */
+    private int find(Uid32 uid) {
+        for (int i = hash(uid) & mask;; i = (i + 1) & mask) {
+            int offset = i * SLOT_SIZE;
+            long value = slots.getLong(offset + 32);
+            if (value == EMPTY) {
+                return -1;
+            }
+            if (value != REMOVED && matches(offset, uid)) {
+                return offset;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the UID, or -1 if it is absent
+     */
+    long get(Uid32 uid) {
+        int offset = find(uid);
+        return offset < 0 ? -1 : slots.getLong(offset + 32);
+    }
+
+    /**
+     * @param value a positive value
+     * @return the previous value of the UID, or -1 if it was absent
+     */
+    long put(Uid32 uid,
+             long value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("The values of the off-heap index must be positive");
+        }
+        int existing = find(uid);
+        if (existing >= 0) {
+            long previous = slots.getLong(existing + 32);
+            slots.putLong(existing + 32, value);
+            return previous;
+        }
+        if ((used + 1) * 3L > (mask + 1) * 2L) {
+            // grow, or only drop the removed slots if they are numerous
+            rehash(size * 3L > (mask + 1) ? capacityFor(size + 1) : mask + 1);
+        }
+        for (int i = hash(uid) & mask;; i = (i + 1) & mask) {
+            int offset = i * SLOT_SIZE;
+            long current = slots.getLong(offset + 32);
+            if (current == EMPTY || current == REMOVED) {
+                slots.putLong(offset, uid.getLong(0));
+                slots.putLong(offset + 8, uid.getLong(1));
+                slots.putLong(offset + 16, uid.getLong(2));
+                slots.putLong(offset + 24, uid.getLong(3));
+                slots.putLong(offset + 32, value);
+                size++;
+                if (current == EMPTY) {
+                    used++;
+                }
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the removed UID, or -1 if it was absent
+     */
+    long remove(Uid32 uid) {
+        int offset = find(uid);
+        if (offset < 0) {
+            return -1;
+        }
+        long previous = slots.getLong(offset + 32);
+        slots.putLong(offset + 32, REMOVED);
+        size--;
+        return previous;
+    }
+
+    /**
+     * Call the consumer with each UID and its value.
+     */
+    void forEach(ObjLongConsumer<Uid32> consumer) {
+        for (int offset = 0; offset < slots.capacity(); offset += SLOT_SIZE) {
+            long value = slots.getLong(offset + 32);
+            if (value != EMPTY && value != REMOVED) {
+                consumer.accept(new Uid32(slots.getLong(offset), slots.getLong(offset + 8), slots.getLong(offset + 16),
+                    slots.getLong(offset + 24)), value);
+            }
+        }
+    }
+
+    void clear() {
+        allocate(mask + 1);
+        size = 0;
+        used = 0;
+    }
+
+    private void rehash(int capacity) {
+        ByteBuffer old = slots;
+        allocate(capacity);
+        used = size;
+        for (int offset = 0; offset < old.capacity(); offset += SLOT_SIZE) {
+            long value = old.getLong(offset + 32);
+            if (value == EMPTY || value == REMOVED) {
+                continue;
+            }
+            long l0 = old.getLong(offset);
+            long l2 = old.getLong(offset + 16);
+            long h = l0 ^ l2;
+            for (int i = (int) (h ^ (h >>> 32)) & mask;; i = (i + 1) & mask) {
+                int newOffset = i * SLOT_SIZE;
+                if (slots.getLong(newOffset + 32) == EMPTY) {
+                    slots.putLong(newOffset, l0);
+                    slots.putLong(newOffset + 8, old.getLong(offset + 8));
+                    slots.putLong(newOffset + 16, l2);
+                    slots.putLong(newOffset + 24, old.getLong(offset + 24));
+                    slots.putLong(newOffset + 32, value);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.cosmian.jna.findex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * A {@link ChainTableDatabase} stored in Redis, one key per line.
+ * <p>
+ * Each call borrows a connection from the {@link JedisPool} and sends its commands in pipelines: MGET for the fetches,
+ * SET for the inserts and DEL for the deletions, at most {@code batchSize} lines per command or pipeline.
+ * <p>
+ * The Jedis dependency is optional: it must be added to the application using this class.
+ */
+public class RedisChainTableDatabase implements ChainTableDatabase {
+
+    /**
+     * The keys of the Chain Table used by default: {@code cosmian} followed by the table number 2 on 4 bytes
+     */
+    public static final byte[] DEFAULT_KEY_PREFIX = ByteBuffer.allocate(11)
+        .put("cosmian".getBytes(StandardCharsets.UTF_8)).putInt(2).array();
+
+    private final JedisPool pool;
+
+    private final byte[] keyPrefix;
+
+    private int batchSize = 1000;
+
+    /**
+     * @param pool the pool of connections to the Redis server
+     */
+    public RedisChainTableDatabase(JedisPool pool) {
+        this(pool, DEFAULT_KEY_PREFIX);
+    }
+
+    /**
+     * @param pool the pool of connections to the Redis server
+     * @param keyPrefix the prefix of the keys of the table, distinct from the prefix of the Entry Table
+     */
+    public RedisChainTableDatabase(JedisPool pool, byte[] keyPrefix) {
+        this.pool = pool;
+        this.keyPrefix = keyPrefix.clone();
+    }
+
+    /**
+     * @param batchSize the maximum number of lines per command and per pipeline, 1000 by default
+     * @return this database
+     */
+    public RedisChainTableDatabase batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        if (uids.isEmpty()) {
+            return results;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            List<byte[]> values = RedisTables.mget(jedis, RedisTables.keys(keyPrefix, uids), batchSize);
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) != null) {
+                    results.add(new Tuple<>(uids.get(i), new ChainTableValue(values.get(i))));
+                }
+            }
+            return results;
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Chain Table fetch: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        if (uidsAndValues.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            RedisTables.set(jedis, keyPrefix, uidsAndValues, batchSize);
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Chain Table insert: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            RedisTables.del(jedis, RedisTables.keys(keyPrefix, uids), batchSize);
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Chain Table delete: " + e.getMessage(), e);
+        }
+    }
+}
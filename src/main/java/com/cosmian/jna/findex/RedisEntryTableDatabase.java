@@ -0,0 +1,219 @@
+package com.cosmian.jna.findex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+/**
+ * An {@link EntryTableDatabase} stored in Redis, one key per line.
+ * <p>
+ * Each call borrows a connection from the {@link JedisPool} and sends its commands in pipelines: MGET for the fetches,
+ * EVALSHA of a Lua script for the conditional upserts, SET for the inserts and DEL for the deletions, at most
+ * {@code batchSize} lines per command or pipeline. The UIDs are listed with SCAN, which does not block the server.
+ * <p>
+ * The Jedis dependency is optional: it must be added to the application using this class.
+ */
+public class RedisEntryTableDatabase implements EntryTableDatabase {
+
+    /**
+     * The keys of the Entry Table used by default: {@code cosmian} followed by the table number 1 on 4 bytes
+     */
+    public static final byte[] DEFAULT_KEY_PREFIX = ByteBuffer.allocate(11)
+        .put("cosmian".getBytes(StandardCharsets.UTF_8)).putInt(1).array();
+
+    /**
+     * Set the key to the new value if its value is the previous value, an empty previous value matching a missing key.
+     * Return nothing on success, or the current value.
+     */
+    static final String CONDITIONAL_UPSERT_SCRIPT = "local value = redis.call('GET', KEYS[1])\n"
+        + "if (value == false and ARGV[1] == '') or value == ARGV[1] then\n"
+        + "  redis.call('SET', KEYS[1], ARGV[2])\n"
+        + "  return {}\n"
+        + "end\n"
+        + "return {value or ''}";
+
+    private final JedisPool pool;
+
+    private final byte[] keyPrefix;
+
+    private int batchSize = 1000;
+
+    private int scanCount = 1000;
+
+    private volatile byte[] conditionalUpsertSha = null;
+
+    /**
+     * @param pool the pool of connections to the Redis server
+     */
+    public RedisEntryTableDatabase(JedisPool pool) {
+        this(pool, DEFAULT_KEY_PREFIX);
+    }
+
+    /**
+     * @param pool the pool of connections to the Redis server
+     * @param keyPrefix the prefix of the keys of the table, distinct from the prefix of the Chain Table
+     */
+    public RedisEntryTableDatabase(JedisPool pool, byte[] keyPrefix) {
+        this.pool = pool;
+        this.keyPrefix = keyPrefix.clone();
+    }
+
+    /**
+     * @param batchSize the maximum number of lines per command and per pipeline, 1000 by default
+     * @return this database
+     */
+    public RedisEntryTableDatabase batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param scanCount the number of keys scanned per SCAN command, 1000 by default
+     * @return this database
+     */
+    public RedisEntryTableDatabase scanCount(int scanCount) {
+        if (scanCount < 1) {
+            throw new IllegalArgumentException("The scan count must be positive");
+        }
+        this.scanCount = scanCount;
+        return this;
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        try (Jedis jedis = pool.getResource()) {
+            return RedisTables.scanUids(jedis, keyPrefix, scanCount);
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Entry Table UID dump: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        if (uids.isEmpty()) {
+            return results;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            List<byte[]> values = RedisTables.mget(jedis, RedisTables.keys(keyPrefix, uids), batchSize);
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i) != null) {
+                    results.add(new Tuple<>(uids.get(i), new EntryTableValue(values.get(i))));
+                }
+            }
+            return results;
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Entry Table fetch: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        Map<Uid32, EntryTableValue> failed = new HashMap<>();
+        if (uidsAndValues.isEmpty()) {
+            return failed;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            if (conditionalUpsertSha == null) {
+                conditionalUpsertSha = jedis.scriptLoad(CONDITIONAL_UPSERT_SCRIPT.getBytes(StandardCharsets.UTF_8));
+            }
+            List<Map.Entry<Uid32, EntryTableValues>> lines = new ArrayList<>(uidsAndValues.entrySet());
+            List<Map.Entry<Uid32, EntryTableValues>> unknownScript = conditionalUpserts(jedis, lines, failed);
+            if (!unknownScript.isEmpty()) {
+                // the script cache of the server was flushed, or the server restarted
+                conditionalUpsertSha = jedis.scriptLoad(CONDITIONAL_UPSERT_SCRIPT.getBytes(StandardCharsets.UTF_8));
+                if (!conditionalUpserts(jedis, unknownScript, failed).isEmpty()) {
+                    throw new CloudproofException("error in Entry Table upsert: the upsert script cannot be loaded");
+                }
+            }
+            return failed;
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Entry Table upsert: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run the conditional upsert script on each line, in pipelines of {@code batchSize} lines.
+     *
+     * @param failed the current value of the lines which were not written
+     * @return the lines for which the script is unknown to the server
+     */
+    @SuppressWarnings("unchecked")
+    private List<Map.Entry<Uid32, EntryTableValues>> conditionalUpserts(Jedis jedis,
+                                                                       List<Map.Entry<Uid32, EntryTableValues>> lines,
+                                                                       Map<Uid32, EntryTableValue> failed) {
+        byte[] sha = conditionalUpsertSha;
+        List<Map.Entry<Uid32, EntryTableValues>> unknownScript = new ArrayList<>();
+        List<Response<Object>> responses = new ArrayList<>(Math.min(batchSize, lines.size()));
+        for (int from = 0; from < lines.size(); from += batchSize) {
+            List<Map.Entry<Uid32, EntryTableValues>> batch =
+                lines.subList(from, Math.min(lines.size(), from + batchSize));
+            Pipeline pipeline = jedis.pipelined();
+            responses.clear();
+            for (Map.Entry<Uid32, EntryTableValues> line : batch) {
+                responses.add(pipeline.evalsha(sha,
+                    Collections.singletonList(RedisTables.key(keyPrefix, line.getKey())),
+                    Arrays.asList(line.getValue().getPrevious().getBytes(), line.getValue().getNew().getBytes())));
+            }
+            pipeline.sync();
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    List<byte[]> current = (List<byte[]>) responses.get(i).get();
+                    if (!current.isEmpty()) {
+                        failed.put(batch.get(i).getKey(), new EntryTableValue(current.get(0)));
+                    }
+                } catch (JedisNoScriptException e) {
+                    unknownScript.add(batch.get(i));
+                }
+            }
+        }
+        return unknownScript;
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        if (uidsAndValues.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            RedisTables.set(jedis, keyPrefix, uidsAndValues, batchSize);
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Entry Table insert: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = pool.getResource()) {
+            RedisTables.del(jedis, RedisTables.keys(keyPrefix, uids), batchSize);
+        } catch (JedisException e) {
+            throw new CloudproofException("error in Entry Table delete: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.jna.findex.serde.Leb128ByteArray;
+import com.cosmian.jna.findex.structs.Uid32;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+
+/**
+ * Redis helpers shared by the Redis Entry Table and Chain Table.
+ */
+final class RedisTables {
+
+    private RedisTables() {
+    }
+
+    /**
+     * @return the key of a line: the prefix of the table followed by the UID
+     */
+    static byte[] key(byte[] prefix,
+                      Uid32 uid) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + 32);
+        System.arraycopy(uid.getBytes(), 0, key, prefix.length, 32);
+        return key;
+    }
+
+    static byte[][] keys(byte[] prefix,
+                         List<Uid32> uids) {
+        byte[][] keys = new byte[uids.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(prefix, uids.get(i));
+        }
+        return keys;
+    }
+
+    /**
+     * Read the values of the keys with pipelined MGET commands of at most {@code batchSize} keys.
+     *
+     * @return the values, null for the missing keys
+     */
+    static List<byte[]> mget(Jedis jedis,
+                             byte[][] keys,
+                             int batchSize) {
+        if (keys.length <= batchSize) {
+            return jedis.mget(keys);
+        }
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<List<byte[]>>> responses = new ArrayList<>(keys.length / batchSize + 1);
+        for (int from = 0; from < keys.length; from += batchSize) {
+            responses.add(pipeline.mget(Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batchSize))));
+        }
+        pipeline.sync();
+        List<byte[]> values = new ArrayList<>(keys.length);
+        for (Response<List<byte[]>> response : responses) {
+            values.addAll(response.get());
+        }
+        return values;
+    }
+
+    /**
+     * Write the lines with pipelines of at most {@code batchSize} SET commands.
+     */
+    static void set(Jedis jedis,
+                    byte[] prefix,
+                    Map<Uid32, ? extends Leb128ByteArray> lines,
+                    int batchSize) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<String>> responses = new ArrayList<>(Math.min(batchSize, lines.size()));
+        for (Map.Entry<Uid32, ? extends Leb128ByteArray> line : lines.entrySet()) {
+            responses.add(pipeline.set(key(prefix, line.getKey()), line.getValue().getBytes()));
+            if (responses.size() == batchSize) {
+                sync(pipeline, responses);
+            }
+        }
+        sync(pipeline, responses);
+    }
+
+    /**
+     * Send the pipelined commands and throw the first error.
+     */
+    private static <T> void sync(Pipeline pipeline,
+                                 List<Response<T>> responses) {
+        pipeline.sync();
+        for (Response<T> response : responses) {
+            response.get();
+        }
+        responses.clear();
+    }
+
+    /**
+     * Delete the keys with pipelined DEL commands of at most {@code batchSize} keys.
+     */
+    static void del(Jedis jedis,
+                    byte[][] keys,
+                    int batchSize) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>(keys.length / batchSize + 1);
+        for (int from = 0; from < keys.length; from += batchSize) {
+            responses.add(pipeline.del(Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batchSize))));
+        }
+        sync(pipeline, responses);
+    }
+
+    /**
+     * List the UIDs of a table with SCAN, {@code count} keys at a time, so that the server is never blocked for long.
+     */
+    static Set<Uid32> scanUids(Jedis jedis,
+                               byte[] prefix,
+                               int count) {
+        ScanParams params = new ScanParams().match(globPattern(prefix)).count(count);
+        Set<Uid32> uids = new HashSet<>();
+        byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+        do {
+            ScanResult<byte[]> result = jedis.scan(cursor, params);
+            for (byte[] key : result.getResult()) {
+                if (key.length == prefix.length + 32) {
+                    uids.add(new Uid32(Arrays.copyOfRange(key, prefix.length, key.length)));
+                }
+            }
+            cursor = result.getCursorAsBytes();
+        } while (!isScanComplete(cursor));
+        return uids;
+    }
+
+    private static boolean isScanComplete(byte[] cursor) {
+        return cursor.length == 1 && cursor[0] == '0';
+    }
+
+    /**
+     * @return the glob pattern matching the keys starting with the prefix
+     */
+    static byte[] globPattern(byte[] prefix) {
+        byte[] pattern = new byte[2 * prefix.length + 1];
+        int length = 0;
+        for (byte b : prefix) {
+            if (b == '*' || b == '?' || b == '[' || b == ']' || b == '\\') {
+                pattern[length++] = '\\';
+            }
+            pattern[length++] = b;
+        }
+        pattern[length++] = '*';
+        return Arrays.copyOf(pattern, length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.cosmian.jna.findex;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.cosmian.jna.findex.structs.Uid32;
+
+/**
+ * Route the Entry Table or Chain Table lines to shards, by their {@link Uid32}.
+ *
+ * @see ShardedEntryTableDatabase
+ * @see ShardedChainTableDatabase
+ */
+public interface ShardRouter {
+
+    /**
+     * @param uid the UID of a line
+     * @return the index of the shard holding the line, between 0 and {@link #shards()} excluded
+     */
+    int shard(Uid32 uid);
+
+    /**
+     * @return the number of shards
+     */
+    int shards();
+
+    /**
+     * Route the lines by the prefix of their UID: each shard holds a contiguous range of UIDs of the same size. Adding
+     * a shard moves most lines.
+     *
+     * @param shards the number of shards
+     * @return the router
+     */
+    static ShardRouter byPrefix(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive");
+        }
+        return new ShardRouter() {
+            @Override
+            public int shard(Uid32 uid) {
+                // the 32 first bits of the UID scaled to the number of shards
+                return (int) (((uid.getLong(0) >>> 32) * shards) >>> 32);
+            }
+
+            @Override
+            public int shards() {
+                return shards;
+            }
+        };
+    }
+
+    /**
+     * Route the lines by consistent hashing: each shard owns several points of a ring of hashes, and a line belongs to
+     * the shard owning the first point after its UID. Adding a shard only moves about {@code 1 / shards} of the
+     * lines.
+     *
+     * @param shards the number of shards
+     * @param pointsPerShard the number of points of each shard, e.g. 128: more points spread the lines more evenly
+     * @return the router
+     */
+    static ShardRouter consistentHashing(int shards,
+                                         int pointsPerShard) {
+        if (shards < 1 || pointsPerShard < 1) {
+            throw new IllegalArgumentException("The number of shards and of points per shard must be positive");
+        }
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            for (int point = 0; point < pointsPerShard; point++) {
+                // SplitMix64 finalizer of the shard and point numbers
+                long h = ((long) shard << 32 | point) + 0x9E3779B97F4A7C15L;
+                h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+                h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+                ring.putIfAbsent(h ^ (h >>> 31), shard);
+            }
+        }
+        return new ShardRouter() {
+            @Override
+            public int shard(Uid32 uid) {
+                Map.Entry<Long, Integer> point = ring.ceilingEntry(uid.getLong(0));
+                return point == null ? ring.firstEntry().getValue() : point.getValue();
+            }
+
+            @Override
+            public int shards() {
+                return shards;
+            }
+        };
+    }
+}
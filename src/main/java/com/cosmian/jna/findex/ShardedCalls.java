@@ -0,0 +1,106 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * Split the lines of a call by shard, and run the calls to the shards concurrently.
+ */
+final class ShardedCalls {
+
+    @FunctionalInterface
+    interface ShardCall<R> {
+        R call() throws CloudproofException;
+    }
+
+    private ShardedCalls() {
+    }
+
+    /**
+     * @return the UIDs of each shard, by shard index
+     */
+    static Map<Integer, List<Uid32>> split(ShardRouter router,
+                                           List<Uid32> uids) {
+        Map<Integer, List<Uid32>> byShard = new HashMap<>();
+        for (Uid32 uid : uids) {
+            byShard.computeIfAbsent(router.shard(uid), s -> new ArrayList<>()).add(uid);
+        }
+        return byShard;
+    }
+
+    /**
+     * @return the lines of each shard, by shard index
+     */
+    static <V> Map<Integer, Map<Uid32, V>> split(ShardRouter router,
+                                                 Map<Uid32, V> lines) {
+        Map<Integer, Map<Uid32, V>> byShard = new HashMap<>();
+        for (Map.Entry<Uid32, V> line : lines.entrySet()) {
+            byShard.computeIfAbsent(router.shard(line.getKey()), s -> new HashMap<>()).put(line.getKey(),
+                line.getValue());
+        }
+        return byShard;
+    }
+
+    /**
+     * Run the calls, the first one in the calling thread and the others on the executor, and wait for all of them.
+     * There must be at least one call.
+     *
+     * @return the results of the calls, in order
+     * @throws CloudproofException the first failure, once all the calls completed; a runtime exception is rethrown as
+     *             is
+     */
+    static <R> List<R> invokeAll(Executor executor,
+                                 List<ShardCall<R>> calls)
+        throws CloudproofException {
+        List<R> results = new ArrayList<>(calls.size());
+        if (calls.size() == 1) {
+            results.add(calls.get(0).call());
+            return results;
+        }
+
+        List<CompletableFuture<R>> futures = new ArrayList<>(calls.size() - 1);
+        for (ShardCall<R> call : calls.subList(1, calls.size())) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.call();
+                } catch (CloudproofException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        Throwable failure = null;
+        try {
+            results.add(calls.get(0).call());
+        } catch (CloudproofException | RuntimeException e) {
+            failure = e;
+        }
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof CloudproofException) {
+            throw (CloudproofException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new CloudproofException("A shard call failed: " + failure.getMessage(), failure);
+        }
+        return results;
+    }
+}
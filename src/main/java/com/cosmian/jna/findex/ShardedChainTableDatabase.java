@@ -0,0 +1,102 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import com.cosmian.jna.findex.ShardedCalls.ShardCall;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link ChainTableDatabase} spread over several databases, each holding the lines routed to it by a
+ * {@link ShardRouter}.
+ * <p>
+ * The lines of a call are split by shard, and the shards are called concurrently: the latency of a call is bounded by
+ * the slowest shard.
+ */
+public class ShardedChainTableDatabase implements ChainTableDatabase {
+
+    private final List<ChainTableDatabase> shards;
+
+    private final ShardRouter router;
+
+    private final Executor executor;
+
+    /**
+     * @param shards the databases holding the shards
+     * @param router the router of the lines, routing to as many shards as there are databases
+     * @param executor the {@link Executor} calling the shards
+     */
+    public ShardedChainTableDatabase(List<? extends ChainTableDatabase> shards, ShardRouter router,
+                                     Executor executor) {
+        if (shards.isEmpty() || shards.size() != router.shards()) {
+            throw new IllegalArgumentException(
+                "The router routes to " + router.shards() + " shards but " + shards.size() + " databases are given");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.router = router;
+        this.executor = executor;
+    }
+
+    /**
+     * Route the lines by UID prefix.
+     *
+     * @param shards the databases holding the shards
+     * @param executor the {@link Executor} calling the shards
+     */
+    public ShardedChainTableDatabase(List<? extends ChainTableDatabase> shards, Executor executor) {
+        this(shards, ShardRouter.byPrefix(shards.size()), executor);
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<ShardCall<List<Tuple<Uid32, ChainTableValue>>>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, List<Uid32>> entry : ShardedCalls.split(router, uids).entrySet()) {
+            ChainTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> shard.fetch(entry.getValue()));
+        }
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        if (calls.isEmpty()) {
+            return results;
+        }
+        for (List<Tuple<Uid32, ChainTableValue>> shardResults : ShardedCalls.invokeAll(executor, calls)) {
+            results.addAll(shardResults);
+        }
+        return results;
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        List<ShardCall<Void>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, Map<Uid32, ChainTableValue>> entry : ShardedCalls.split(router, uidsAndValues)
+            .entrySet()) {
+            ChainTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> {
+                shard.insert(entry.getValue());
+                return null;
+            });
+        }
+        if (!calls.isEmpty()) {
+            ShardedCalls.invokeAll(executor, calls);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        List<ShardCall<Void>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, List<Uid32>> entry : ShardedCalls.split(router, uids).entrySet()) {
+            ChainTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> {
+                shard.delete(entry.getValue());
+                return null;
+            });
+        }
+        if (!calls.isEmpty()) {
+            ShardedCalls.invokeAll(executor, calls);
+        }
+    }
+}
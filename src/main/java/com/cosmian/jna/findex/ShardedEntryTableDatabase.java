@@ -0,0 +1,139 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.cosmian.jna.findex.ShardedCalls.ShardCall;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An {@link EntryTableDatabase} spread over several databases, each holding the lines routed to it by a
+ * {@link ShardRouter}.
+ * <p>
+ * The lines of a call are split by shard, and the shards are called concurrently: the latency of a call is bounded by
+ * the slowest shard. Contrary to the multiple Entry Tables selected by {@code entryTableNumber}, each line is held by
+ * a single shard.
+ */
+public class ShardedEntryTableDatabase implements EntryTableDatabase {
+
+    private final List<EntryTableDatabase> shards;
+
+    private final ShardRouter router;
+
+    private final Executor executor;
+
+    /**
+     * @param shards the databases holding the shards
+     * @param router the router of the lines, routing to as many shards as there are databases
+     * @param executor the {@link Executor} calling the shards
+     */
+    public ShardedEntryTableDatabase(List<? extends EntryTableDatabase> shards, ShardRouter router,
+                                     Executor executor) {
+        if (shards.isEmpty() || shards.size() != router.shards()) {
+            throw new IllegalArgumentException(
+                "The router routes to " + router.shards() + " shards but " + shards.size() + " databases are given");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.router = router;
+        this.executor = executor;
+    }
+
+    /**
+     * Route the lines by UID prefix.
+     *
+     * @param shards the databases holding the shards
+     * @param executor the {@link Executor} calling the shards
+     */
+    public ShardedEntryTableDatabase(List<? extends EntryTableDatabase> shards, Executor executor) {
+        this(shards, ShardRouter.byPrefix(shards.size()), executor);
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        List<ShardCall<Set<Uid32>>> calls = new ArrayList<>(shards.size());
+        for (EntryTableDatabase shard : shards) {
+            calls.add(shard::fetchAllUids);
+        }
+        Set<Uid32> uids = new HashSet<>();
+        for (Set<Uid32> shardUids : ShardedCalls.invokeAll(executor, calls)) {
+            uids.addAll(shardUids);
+        }
+        return uids;
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<ShardCall<List<Tuple<Uid32, EntryTableValue>>>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, List<Uid32>> entry : ShardedCalls.split(router, uids).entrySet()) {
+            EntryTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> shard.fetch(entry.getValue()));
+        }
+        List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+        if (calls.isEmpty()) {
+            return results;
+        }
+        for (List<Tuple<Uid32, EntryTableValue>> shardResults : ShardedCalls.invokeAll(executor, calls)) {
+            results.addAll(shardResults);
+        }
+        return results;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        List<ShardCall<Map<Uid32, EntryTableValue>>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, Map<Uid32, EntryTableValues>> entry : ShardedCalls.split(router, uidsAndValues)
+            .entrySet()) {
+            EntryTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> shard.upsert(entry.getValue()));
+        }
+        Map<Uid32, EntryTableValue> failed = new HashMap<>();
+        if (calls.isEmpty()) {
+            return failed;
+        }
+        for (Map<Uid32, EntryTableValue> shardFailed : ShardedCalls.invokeAll(executor, calls)) {
+            failed.putAll(shardFailed);
+        }
+        return failed;
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        List<ShardCall<Void>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, Map<Uid32, EntryTableValue>> entry : ShardedCalls.split(router, uidsAndValues)
+            .entrySet()) {
+            EntryTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> {
+                shard.insert(entry.getValue());
+                return null;
+            });
+        }
+        if (!calls.isEmpty()) {
+            ShardedCalls.invokeAll(executor, calls);
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        List<ShardCall<Void>> calls = new ArrayList<>();
+        for (Map.Entry<Integer, List<Uid32>> entry : ShardedCalls.split(router, uids).entrySet()) {
+            EntryTableDatabase shard = shards.get(entry.getKey());
+            calls.add(() -> {
+                shard.delete(entry.getValue());
+                return null;
+            });
+        }
+        if (!calls.isEmpty()) {
+            ShardedCalls.invokeAll(executor, calls);
+        }
+    }
+}
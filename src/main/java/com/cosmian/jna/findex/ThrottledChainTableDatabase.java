@@ -0,0 +1,58 @@
+package com.cosmian.jna.findex;
+
+import java.util.List;
+import java.util.Map;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link ChainTableDatabase} limiting the I/O of another one to an {@link IoBudget}.
+ *
+ * @see ThrottledEntryTableDatabase
+ */
+public class ThrottledChainTableDatabase implements ChainTableDatabase {
+
+    private final ChainTableDatabase delegate;
+
+    private final IoBudget budget;
+
+    /**
+     * @param delegate the throttled database
+     * @param budget the I/O budget, which may be shared with other tables
+     */
+    public ThrottledChainTableDatabase(ChainTableDatabase delegate, IoBudget budget) {
+        this.delegate = delegate;
+        this.budget = budget;
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        budget.acquire(uids.size(), 32L * uids.size());
+        List<Tuple<Uid32, ChainTableValue>> lines = delegate.fetch(uids);
+        long bytes = 0;
+        for (Tuple<Uid32, ChainTableValue> line : lines) {
+            bytes += line.getRight().getBytes().length;
+        }
+        budget.charge(0, bytes);
+        return lines;
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        long bytes = 0;
+        for (ChainTableValue value : uidsAndValues.values()) {
+            bytes += 32 + value.getBytes().length;
+        }
+        budget.acquire(uidsAndValues.size(), bytes);
+        delegate.insert(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        budget.acquire(uids.size(), 32L * uids.size());
+        delegate.delete(uids);
+    }
+}
@@ -0,0 +1,81 @@
+package com.cosmian.jna.findex;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * An {@link EntryTableDatabase} limiting the I/O of another one to an {@link IoBudget}, e.g. to run a compaction at
+ * low priority.
+ * <p>
+ * A call waits for the budget to cover the lines it requests and the bytes it writes; the bytes read are charged once
+ * the call returns. A line and a byte are counted for both the UID and the value.
+ */
+public class ThrottledEntryTableDatabase implements EntryTableDatabase {
+
+    private final EntryTableDatabase delegate;
+
+    private final IoBudget budget;
+
+    /**
+     * @param delegate the throttled database
+     * @param budget the I/O budget, which may be shared with other tables
+     */
+    public ThrottledEntryTableDatabase(EntryTableDatabase delegate, IoBudget budget) {
+        this.delegate = delegate;
+        this.budget = budget;
+    }
+
+    @Override
+    public Set<Uid32> fetchAllUids() throws CloudproofException {
+        budget.acquire(0, 0);
+        Set<Uid32> uids = delegate.fetchAllUids();
+        budget.charge(uids.size(), 32L * uids.size());
+        return uids;
+    }
+
+    @Override
+    public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        budget.acquire(uids.size(), 32L * uids.size());
+        List<Tuple<Uid32, EntryTableValue>> lines = delegate.fetch(uids);
+        long bytes = 0;
+        for (Tuple<Uid32, EntryTableValue> line : lines) {
+            bytes += line.getRight().getBytes().length;
+        }
+        budget.charge(0, bytes);
+        return lines;
+    }
+
+    @Override
+    public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+        throws CloudproofException {
+        long bytes = 0;
+        for (EntryTableValues values : uidsAndValues.values()) {
+            bytes += 32 + values.getPrevious().getBytes().length + values.getNew().getBytes().length;
+        }
+        budget.acquire(uidsAndValues.size(), bytes);
+        return delegate.upsert(uidsAndValues);
+    }
+
+    @Override
+    public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+        long bytes = 0;
+        for (EntryTableValue value : uidsAndValues.values()) {
+            bytes += 32 + value.getBytes().length;
+        }
+        budget.acquire(uidsAndValues.size(), bytes);
+        delegate.insert(uidsAndValues);
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        budget.acquire(uids.size(), 32L * uids.size());
+        delegate.delete(uids);
+    }
+}
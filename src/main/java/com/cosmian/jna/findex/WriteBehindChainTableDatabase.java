@@ -0,0 +1,309 @@
+package com.cosmian.jna.findex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32HashMap;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A {@link ChainTableDatabase} grouping the inserts into another one in larger batches.
+ * <p>
+ * The inserted lines are buffered and written in a single {@code insert} once their size reaches the maximum batch
+ * size, or once the oldest of them has waited for the maximum delay. They are visible to {@code fetch} while buffered.
+ * <p>
+ * The Chain Table lines must be written before the Entry Table lines referencing them: the Entry Table must be wrapped
+ * with {@link #entryTableBarrier(EntryTableDatabase)}, which flushes the buffered lines before its upserts and inserts.
+ * A failure of a delayed write is thrown by the next insert, unless a flush wrote the lines in the meantime: that
+ * insert fails with the earlier error, without buffering its own lines. The lines of a failed write are kept buffered
+ * and a delayed write retries them, with a delay doubling after each failure up to 30 seconds, or up to the maximum
+ * delay if it is larger.
+ */
+public class WriteBehindChainTableDatabase implements ChainTableDatabase, AutoCloseable {
+
+    /**
+     * Estimated size of a buffered line on top of its value: the 32 bytes of the uid and the encoding overhead
+     */
+    private static final int LINE_OVERHEAD = 32 + 4;
+
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final ChainTableDatabase delegate;
+
+    private final long maxBatchBytes;
+
+    private final long maxDelayMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Lines waiting to be written, guarded by {@code this}
+     */
+    private Uid32HashMap<ChainTableValue> pending = new Uid32HashMap<>();
+
+    private long pendingBytes = 0;
+
+    /**
+     * Lines being written by a flush, guarded by {@code this}; visible to fetch until written
+     */
+    private Map<Uid32, ChainTableValue> flushing = null;
+
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    /**
+     * The delay before retrying a failed write, guarded by {@code this}
+     */
+    private long retryDelayMillis;
+
+    private CloudproofException asyncError = null;
+
+    /**
+     * Serializes the flushes, so that a barrier waits for the flush in progress
+     */
+    private final Object flushLock = new Object();
+
+    private boolean closed = false;
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder lines = new LongAdder();
+
+    /**
+     * Wrap a Chain Table database.
+     *
+     * @param delegate the Chain Table database
+     * @param maxBatchBytes the size of the buffered lines triggering a write, in bytes
+     * @param maxDelayMillis the maximum time a line stays buffered, in milliseconds
+     */
+    public WriteBehindChainTableDatabase(ChainTableDatabase delegate, long maxBatchBytes, long maxDelayMillis) {
+        if (maxBatchBytes < 1 || maxDelayMillis < 1) {
+            throw new IllegalArgumentException("The maximum batch size and delay must be positive");
+        }
+        this.delegate = delegate;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryDelayMillis = maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "findex-chain-table-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wrap the Entry Table so that the Chain Table lines buffered by this instance are written before any Entry Table
+     * line is upserted or inserted.
+     *
+     * @param entryTable the Entry Table database
+     * @return the wrapped Entry Table database, to give to {@link Findex}
+     */
+    public EntryTableDatabase entryTableBarrier(EntryTableDatabase entryTable) {
+        return new EntryTableDatabase() {
+            @Override
+            public Set<Uid32> fetchAllUids() throws CloudproofException {
+                return entryTable.fetchAllUids();
+            }
+
+            @Override
+            public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+                return entryTable.fetch(uids);
+            }
+
+            @Override
+            public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues)
+                throws CloudproofException {
+                flush();
+                return entryTable.upsert(uidsAndValues);
+            }
+
+            @Override
+            public void insert(Map<Uid32, EntryTableValue> uidsAndValues) throws CloudproofException {
+                flush();
+                entryTable.insert(uidsAndValues);
+            }
+
+            @Override
+            public void delete(List<Uid32> uids) throws CloudproofException {
+                entryTable.delete(uids);
+            }
+        };
+    }
+
+    @Override
+    public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+        List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+        List<Uid32> missing = new ArrayList<>(uids.size());
+        synchronized (this) {
+            for (Uid32 uid : uids) {
+                ChainTableValue value = pending.get(uid);
+                if (value == null && flushing != null) {
+                    value = flushing.get(uid);
+                }
+                if (value == null) {
+                    missing.add(uid);
+                } else {
+                    results.add(new Tuple<>(uid, value));
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            results.addAll(delegate.fetch(missing));
+        }
+        return results;
+    }
+
+    @Override
+    public void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new CloudproofException("The write-behind Chain Table is closed");
+            }
+            rethrowAsyncError();
+            for (Map.Entry<Uid32, ChainTableValue> entry : uidsAndValues.entrySet()) {
+                if (pending.put(entry.getKey(), entry.getValue()) == null) {
+                    pendingBytes += LINE_OVERHEAD + entry.getValue().getBytes().length;
+                }
+            }
+            full = pendingBytes >= maxBatchBytes;
+            if (!full && scheduledFlush == null && !pending.isEmpty()) {
+                scheduledFlush = scheduler.schedule(this::delayedFlush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    @Override
+    public void delete(List<Uid32> uids) throws CloudproofException {
+        // a buffered line must not be written after its deletion
+        flush();
+        delegate.delete(uids);
+    }
+
+    private void delayedFlush() {
+        try {
+            flush();
+        } catch (CloudproofException | RuntimeException e) {
+            synchronized (this) {
+                if (asyncError == null) {
+                    asyncError = e instanceof CloudproofException ? (CloudproofException) e
+                        : new CloudproofException("The delayed Chain Table insert failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void rethrowAsyncError() throws CloudproofException {
+        CloudproofException e = asyncError;
+        if (e != null) {
+            asyncError = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Write all the buffered lines to the wrapped database. On failure, the lines stay buffered and a delayed write
+     * retries them.
+     *
+     * @throws CloudproofException if the lines cannot be written
+     */
+    public void flush() throws CloudproofException {
+        synchronized (flushLock) {
+            Map<Uid32, ChainTableValue> batch;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                flushing = batch;
+                pending = new Uid32HashMap<>();
+                pendingBytes = 0;
+            }
+            try {
+                delegate.insert(batch);
+            } catch (CloudproofException | RuntimeException e) {
+                synchronized (this) {
+                    // keep the failed lines, without overriding those inserted since
+                    for (Map.Entry<Uid32, ChainTableValue> entry : batch.entrySet()) {
+                        if (!pending.containsKey(entry.getKey())) {
+                            pending.put(entry.getKey(), entry.getValue());
+                            pendingBytes += LINE_OVERHEAD + entry.getValue().getBytes().length;
+                        }
+                    }
+                    flushing = null;
+                    if (!closed && scheduledFlush == null) {
+                        scheduledFlush =
+                            scheduler.schedule(this::delayedFlush, retryDelayMillis, TimeUnit.MILLISECONDS);
+                        retryDelayMillis =
+                            Math.min(2 * retryDelayMillis, Math.max(maxDelayMillis, MAX_RETRY_DELAY_MILLIS));
+                    }
+                }
+                throw e;
+            }
+            synchronized (this) {
+                flushing = null;
+                // the lines of a failed delayed write were part of this batch
+                asyncError = null;
+                retryDelayMillis = maxDelayMillis;
+            }
+            batches.increment();
+            lines.add(batch.size());
+        }
+    }
+
+    /**
+     * Write the buffered lines and stop the scheduler. Inserts fail afterwards.
+     *
+     * @throws CloudproofException if the buffered lines cannot be written
+     */
+    @Override
+    public void close() throws CloudproofException {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of lines buffered
+     */
+    public synchronized int getPendingLines() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of inserts performed on the wrapped database
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of lines written to the wrapped database
+     */
+    public long getLines() {
+        return lines.sum();
+    }
+}
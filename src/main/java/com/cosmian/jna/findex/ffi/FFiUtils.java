@@ -1,9 +1,11 @@
 package com.cosmian.jna.findex.ffi;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.cosmian.jna.findex.serde.ByteBufferOutputStream;
 import com.cosmian.jna.findex.serde.Leb128Serializable;
 import com.cosmian.jna.findex.serde.Leb128Writer;
 import com.cosmian.jna.findex.serde.Tuple;
@@ -13,6 +15,63 @@ import com.sun.jna.ptr.IntByReference;
 
 public class FFiUtils {
 
+    /**
+     * Encoder of a callback output.
+     */
+    private interface OutputEncoder {
+        void encode(Leb128Writer writer) throws CloudproofException;
+    }
+
+    /**
+     * Expose the native memory given as input to a callback without copying it.
+     *
+     * @param input the input Pointer
+     * @param inputLength the input byte size
+     * @return a {@link ByteBuffer} backed by the native memory
+     */
+    public static ByteBuffer inputBuffer(Pointer input,
+                                         int inputLength) {
+        if (input == null || inputLength == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        return input.getByteBuffer(0, inputLength);
+    }
+
+    /**
+     * Check that the output fits in the native memory allocated by Findex, then encode it there directly. Nothing is
+     * encoded if it does not fit: only the required size is set.
+     *
+     * @return 0 on success, 1 if the pre-allocated memory is too small
+     */
+    private static int encodeToOutputPointer(long size,
+                                             OutputEncoder encoder,
+                                             Pointer output,
+                                             IntByReference outputSize)
+        throws CloudproofException {
+        return encodeToOutputPointer(size, encoder, output, outputSize, true);
+    }
+
+    private static int encodeToOutputPointer(long size,
+                                             OutputEncoder encoder,
+                                             Pointer output,
+                                             IntByReference outputSize,
+                                             boolean checkSize)
+        throws CloudproofException {
+        if (size > Integer.MAX_VALUE) {
+            throw new CloudproofException("the callback output is too large: " + size + " bytes");
+        }
+        if (checkSize && size > outputSize.getValue()) {
+            outputSize.setValue((int) size);
+            return 1;
+        }
+        ByteBuffer buffer = size == 0 ? ByteBuffer.allocate(0) : output.getByteBuffer(0, size);
+        ByteBufferOutputStream os = new ByteBufferOutputStream(buffer);
+        encoder.encode(new Leb128Writer(os));
+        os.checkSize(size);
+        outputSize.setValue((int) size);
+        return 0;
+    }
+
     /**
      * Serialize a map to a memory location specified by the Pointer; set its actual size in the pointed int.
      *
@@ -29,14 +88,8 @@ public class FFiUtils {
                                                                                                       Pointer output,
                                                                                                       IntByReference outputSize)
         throws CloudproofException {
-        byte[] uidsAndValuesBytes = Leb128Writer.serializeMap(map);
-        if (outputSize.getValue() < uidsAndValuesBytes.length) {
-            outputSize.setValue(uidsAndValuesBytes.length);
-            return 1;
-        }
-        outputSize.setValue(uidsAndValuesBytes.length);
-        output.write(0, uidsAndValuesBytes, 0, uidsAndValuesBytes.length);
-        return 0;
+        return encodeToOutputPointer(Leb128Writer.serializedSizeOfEntryCollection(map.entrySet()),
+            writer -> writer.writeMap(map), output, outputSize);
     }
 
     /**
@@ -55,28 +108,42 @@ public class FFiUtils {
                                                                                                                Pointer output,
                                                                                                                IntByReference outputSize)
         throws CloudproofException {
-        byte[] uidsAndValuesBytes = Leb128Writer.serializeListOfTuples(list);
-        // System.out.println("listOfTuplesToOutputPointer: uidsAndValuesBytes" + Arrays.toString(uidsAndValuesBytes));
-        if (outputSize.getValue() < uidsAndValuesBytes.length) {
-            outputSize.setValue(uidsAndValuesBytes.length);
-            return 1;
-        }
-        outputSize.setValue(uidsAndValuesBytes.length);
-        output.write(0, uidsAndValuesBytes, 0, uidsAndValuesBytes.length);
-        return 0;
+        return encodeToOutputPointer(Leb128Writer.serializedSizeOfEntryCollection(list),
+            writer -> writer.writeListOfTuples(list), output, outputSize);
     }
 
     public static <V extends Leb128Serializable> int setToOutputPointer(Set<V> set,
                                                                         Pointer output,
                                                                         IntByReference outputSize)
         throws CloudproofException {
-        byte[] uidsAndValuesBytes = Leb128Writer.serializeCollection(set);
-        if (outputSize.getValue() < uidsAndValuesBytes.length) {
-            outputSize.setValue(uidsAndValuesBytes.length);
-            return 1;
+        return encodeToOutputPointer(Leb128Writer.serializedSizeOfCollection(set),
+            writer -> writer.writeCollection(set), output, outputSize);
+    }
+
+    /**
+     * Serialize a list to a memory location of a known capacity, specified by the Pointer; set its actual size in the
+     * pointed int.
+     * <p>
+     * For the outputs the native library does not ask for again with a larger memory, such as the locations kept by a
+     * {@link com.cosmian.jna.findex.DataFilter}, which are written in the memory holding the input.
+     *
+     * @param <V> the list element type. Must be {@link Leb128Serializable}
+     * @param list the list to serialize and export
+     * @param output the output Pointer
+     * @param capacity the byte size of the memory allocated for the output
+     * @param outputSize the output byte size
+     * @throws CloudproofException if the list cannot be serialized or does not fit in the capacity
+     */
+    public static <V extends Leb128Serializable> void listToOutputPointer(List<V> list,
+                                                                          Pointer output,
+                                                                          int capacity,
+                                                                          IntByReference outputSize)
+        throws CloudproofException {
+        long size = Leb128Writer.serializedSizeOfCollection(list);
+        if (size > capacity) {
+            throw new CloudproofException(
+                "the callback output is " + size + " bytes, larger than the " + capacity + " bytes allocated");
         }
-        outputSize.setValue(uidsAndValuesBytes.length);
-        output.write(0, uidsAndValuesBytes, 0, uidsAndValuesBytes.length);
-        return 0;
+        encodeToOutputPointer(size, writer -> writer.writeCollection(list), output, outputSize, false);
     }
 }
@@ -1,6 +1,5 @@
 package com.cosmian.jna.findex.ffi;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
@@ -8,11 +7,12 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.cosmian.jna.findex.serde.Leb128Codecs;
+import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Leb128Serializable;
 import com.cosmian.jna.findex.structs.IndexedValue;
 import com.cosmian.jna.findex.structs.Keyword;
 import com.cosmian.utils.CloudproofException;
-import com.cosmian.utils.Leb128;
 
 public class IntermediateResults implements Leb128Serializable {
 
@@ -28,19 +28,16 @@ public class IntermediateResults implements Leb128Serializable {
 
     @Override
     public void readObject(InputStream is) throws CloudproofException {
-        try {
-            int mapLen = (int) Leb128.readU64(is);
-            for (int i = 0; i < mapLen; i++) {
-                Keyword keyword = new Keyword(Leb128.readByteArray(is));
-                int numResults = (int) Leb128.readU64(is);
-                Set<IndexedValue> indexedValues = new HashSet<>();
-                for (int j = 0; j < numResults; j++) {
-                    indexedValues.add(new IndexedValue(Leb128.readByteArray(is)));
-                }
-                results.put(keyword, indexedValues);
+        Leb128Reader reader = new Leb128Reader(is);
+        int mapLen = (int) reader.readU64();
+        for (int i = 0; i < mapLen; i++) {
+            Keyword keyword = Leb128Codecs.KEYWORD.read(reader);
+            int numResults = (int) reader.readU64();
+            Set<IndexedValue> indexedValues = new HashSet<>(numResults * 2);
+            for (int j = 0; j < numResults; j++) {
+                indexedValues.add(Leb128Codecs.INDEXED_VALUE.read(reader));
             }
-        } catch (IOException e) {
-            throw new CloudproofException("failed deserializing the search results: " + e.getMessage(), e);
+            results.put(keyword, indexedValues);
         }
     }
 
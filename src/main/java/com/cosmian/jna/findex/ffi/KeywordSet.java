@@ -1,14 +1,14 @@
 package com.cosmian.jna.findex.ffi;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.Set;
+import com.cosmian.jna.findex.serde.Leb128Codecs;
+import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Leb128Serializable;
 import com.cosmian.jna.findex.structs.Keyword;
 import com.cosmian.utils.CloudproofException;
-import com.cosmian.utils.Leb128;
 
 public class KeywordSet implements Leb128Serializable {
 
@@ -32,17 +32,11 @@ public class KeywordSet implements Leb128Serializable {
 
     @Override
     public void readObject(InputStream is) throws CloudproofException {
-        try {
-
-            int setLen = (int) Leb128.readU64(is);
-            for (int i = 0; i < setLen; i++) {
-                Keyword keyword = new Keyword(Leb128.readByteArray(is));
-                results.add(keyword);
-            }
-        } catch (IOException e) {
-            throw new CloudproofException("failed deserializing the upsert results: " + e.getMessage(), e);
+        Leb128Reader reader = new Leb128Reader(is);
+        int setLen = (int) reader.readU64();
+        for (int i = 0; i < setLen; i++) {
+            results.add(Leb128Codecs.KEYWORD.read(reader));
         }
-
     }
 
     @Override
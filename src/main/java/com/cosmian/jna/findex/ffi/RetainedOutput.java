@@ -0,0 +1,73 @@
+package com.cosmian.jna.findex.ffi;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keep the result of a callback whose output did not fit in the memory allocated by Findex.
+ * <p>
+ * When a callback returns 1, the native library allocates the required size and calls it again with the same input.
+ * Retaining the result, per thread and keyed by the serialized input, lets the second call encode it without
+ * querying the database again.
+ * <p>
+ * A retained result is only valid during the native call which created it: {@link #clear()} must be called once each
+ * native call returns, so that a result the native library did not ask again is never served to a later call.
+ *
+ * @param <T> the type of the retained result
+ */
+public final class RetainedOutput<T> {
+
+    private static final class Retained {
+        final ByteBuffer input;
+
+        final Object value;
+
+        Retained(ByteBuffer input, Object value) {
+            this.input = input;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The results retained on each thread, by retaining instance
+     */
+    private static final ThreadLocal<Map<RetainedOutput<?>, Retained>> retained =
+        ThreadLocal.withInitial(IdentityHashMap::new);
+
+    /**
+     * Take the result retained for this input, if any. Whatever the input, nothing is retained after this call.
+     *
+     * @param input the serialized callback input; its position is not modified
+     * @return the retained result or null if none was retained for this input
+     */
+    @SuppressWarnings("unchecked")
+    public T take(ByteBuffer input) {
+        Retained r = retained.get().remove(this);
+        if (r == null) {
+            return null;
+        }
+        return r.input.equals(input) ? (T) r.value : null;
+    }
+
+    /**
+     * Retain a result until the next call on this thread, or until the native call returns.
+     *
+     * @param input the serialized callback input; it is copied, its position is not modified
+     * @param value the result
+     */
+    public void retain(ByteBuffer input,
+                       T value) {
+        ByteBuffer copy = ByteBuffer.allocate(input.remaining());
+        copy.put(input.duplicate());
+        copy.flip();
+        retained.get().put(this, new Retained(copy, value));
+    }
+
+    /**
+     * Forget all the results retained on this thread. Call it each time a native call returns.
+     */
+    public static void clear() {
+        retained.remove();
+    }
+}
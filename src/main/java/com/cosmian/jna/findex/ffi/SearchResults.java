@@ -1,6 +1,5 @@
 package com.cosmian.jna.findex.ffi;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
@@ -9,11 +8,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import com.cosmian.jna.findex.serde.Leb128Codecs;
+import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Leb128Serializable;
 import com.cosmian.jna.findex.structs.Keyword;
 import com.cosmian.jna.findex.structs.Location;
 import com.cosmian.utils.CloudproofException;
-import com.cosmian.utils.Leb128;
 
 public class SearchResults implements Leb128Serializable {
 
@@ -23,6 +23,10 @@ public class SearchResults implements Leb128Serializable {
         this.results = new HashMap<>();
     }
 
+    public SearchResults(Map<Keyword, Set<Location>> results) {
+        this.results = results;
+    }
+
     public Map<Keyword, Set<Location>> getResults() {
         return results;
     }
@@ -106,22 +110,17 @@ public class SearchResults implements Leb128Serializable {
 
     @Override
     public void readObject(InputStream is) throws CloudproofException {
-        try {
-
-            int mapLen = (int) Leb128.readU64(is);
-            for (int i = 0; i < mapLen; i++) {
-                Keyword keyword = new Keyword(Leb128.readByteArray(is));
-                int numResults = (int) Leb128.readU64(is);
-                Set<Location> locations = new HashSet<>();
-                for (int j = 0; j < numResults; j++) {
-                    locations.add(new Location(Leb128.readByteArray(is)));
-                }
-                results.put(keyword, locations);
+        Leb128Reader reader = new Leb128Reader(is);
+        int mapLen = (int) reader.readU64();
+        for (int i = 0; i < mapLen; i++) {
+            Keyword keyword = Leb128Codecs.KEYWORD.read(reader);
+            int numResults = (int) reader.readU64();
+            Set<Location> locations = new HashSet<>(numResults * 2);
+            for (int j = 0; j < numResults; j++) {
+                locations.add(Leb128Codecs.LOCATION.read(reader));
             }
-        } catch (IOException e) {
-            throw new CloudproofException("failed deserializing the search results: " + e.getMessage(), e);
+            results.put(keyword, locations);
         }
-
     }
 
     @Override
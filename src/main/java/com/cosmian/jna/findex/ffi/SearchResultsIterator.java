@@ -0,0 +1,80 @@
+package com.cosmian.jna.findex.ffi;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.utils.Leb128;
+
+/**
+ * Iterate over the locations of serialized search results, decoding them one at a time.
+ * <p>
+ * Contrary to {@link SearchResults}, no map nor set is built: only the serialized results are kept in memory. A
+ * location indexed under several of the searched keywords is returned once per keyword.
+ */
+public final class SearchResultsIterator implements Iterator<Location> {
+
+    private final ByteBuffer buffer;
+
+    private long remainingKeywords;
+
+    private long remainingLocations = 0;
+
+    private Keyword keyword = null;
+
+    private Keyword currentKeyword = null;
+
+    /**
+     * @param serializedResults the buffer holding the serialized search results; it may be larger than the results
+     */
+    public SearchResultsIterator(byte[] serializedResults) {
+        this.buffer = ByteBuffer.wrap(serializedResults);
+        try {
+            this.remainingKeywords = Leb128.readU64(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("failed deserializing the search results: truncated buffer", e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (remainingLocations == 0) {
+                if (remainingKeywords == 0) {
+                    return false;
+                }
+                keyword = new Keyword(Leb128.readByteArray(buffer));
+                remainingLocations = Leb128.readU64(buffer);
+                remainingKeywords--;
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("failed deserializing the search results: truncated buffer", e);
+        }
+    }
+
+    @Override
+    public Location next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Location location = new Location(Leb128.readByteArray(buffer));
+            remainingLocations--;
+            currentKeyword = keyword;
+            return location;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("failed deserializing the search results: truncated buffer", e);
+        }
+    }
+
+    /**
+     * @return the keyword under which the last location returned by {@link #next()} was found
+     */
+    public Keyword currentKeyword() {
+        return currentKeyword;
+    }
+}
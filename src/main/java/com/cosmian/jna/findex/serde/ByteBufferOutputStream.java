@@ -0,0 +1,121 @@
+package com.cosmian.jna.findex.serde;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.cosmian.utils.CloudproofException;
+import com.cosmian.utils.Leb128;
+
+/**
+ * An {@link OutputStream} writing to a fixed capacity {@link ByteBuffer}.
+ * <p>
+ * Used to encode the callback outputs directly into the native memory allocated by Findex. When the buffer is too
+ * small, the remaining bytes are counted but not written: {@link #size()} then gives the size required to hold the
+ * whole output, which is what Findex expects in return to retry the call with a larger buffer.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    private long size = 0;
+
+    private boolean overflowed = false;
+
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        if (!overflowed && buffer.hasRemaining()) {
+            buffer.put((byte) b);
+        } else {
+            overflowed = true;
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b,
+                      int off,
+                      int len) {
+        if (!overflowed && len <= buffer.remaining()) {
+            buffer.put(b, off, len);
+        } else {
+            overflowed = true;
+        }
+        size += len;
+    }
+
+    /**
+     * Write a big-endian long, whatever the order of the underlying buffer.
+     *
+     * @param value the long
+     */
+    public void writeLong(long value) {
+        if (!overflowed && buffer.remaining() >= Long.BYTES) {
+            buffer.putLong(buffer.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+        } else {
+            overflowed = true;
+        }
+        size += Long.BYTES;
+    }
+
+    /**
+     * Write an u64 as an LEB128.
+     *
+     * @param value the value
+     */
+    public void writeU64(long value) {
+        int length = Leb128.encodedLength(value);
+        if (!overflowed && buffer.remaining() >= length) {
+            Leb128.writeU64(buffer, value);
+        } else {
+            overflowed = true;
+        }
+        size += length;
+    }
+
+    /**
+     * Write a byte array prefixed with its LEB128 length.
+     *
+     * @param array the array
+     */
+    public void writeByteArray(byte[] array) {
+        int length = Leb128.encodedLength(array);
+        if (!overflowed && buffer.remaining() >= length) {
+            Leb128.writeArray(buffer, array);
+        } else {
+            overflowed = true;
+        }
+        size += length;
+    }
+
+    /**
+     * @return the number of bytes written to the stream, including the ones which did not fit in the buffer
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if some bytes did not fit in the buffer
+     */
+    public boolean overflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Check that the bytes written are exactly the size computed for the buffer.
+     *
+     * @param computedSize the size computed before writing
+     * @throws CloudproofException if a codec wrote another number of bytes than its computed size
+     */
+    public void checkSize(long computedSize) throws CloudproofException {
+        if (overflowed || size != computedSize) {
+            throw new CloudproofException(
+                "the serialized size is " + size + " bytes instead of the computed " + computedSize + " bytes");
+        }
+    }
+}
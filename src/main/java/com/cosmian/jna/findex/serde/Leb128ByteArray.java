@@ -72,7 +72,7 @@ public abstract class Leb128ByteArray implements Leb128Serializable {
             return false;
         }
         Leb128ByteArray leb128ByteArray = (Leb128ByteArray) o;
-        return Arrays.equals(bytes, leb128ByteArray.bytes);
+        return Arrays.equals(getBytes(), leb128ByteArray.getBytes());
     }
 
     @Override
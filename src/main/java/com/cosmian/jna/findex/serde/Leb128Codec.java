@@ -0,0 +1,50 @@
+package com.cosmian.jna.findex.serde;
+
+import java.nio.ByteBuffer;
+
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * Decoder and encoder of a {@link Leb128Serializable} type.
+ * <p>
+ * Codecs are registered in {@link Leb128Codecs} and used by the {@link Leb128Reader} to decode collections, maps and
+ * tuples without instantiating their elements by reflection.
+ *
+ * @param <T> the decoded type
+ */
+public interface Leb128Codec<T extends Leb128Serializable> {
+
+    /**
+     * Decode the next value.
+     *
+     * @param reader the {@link Leb128Reader} to read from
+     * @return the decoded value
+     * @throws CloudproofException if the value cannot be decoded
+     */
+    T read(Leb128Reader reader) throws CloudproofException;
+
+    /**
+     * Encode a value.
+     *
+     * @param writer the {@link Leb128Writer} to write to
+     * @param value the value to encode
+     * @throws CloudproofException if the value cannot be encoded
+     */
+    void write(Leb128Writer writer,
+               T value)
+        throws CloudproofException;
+
+    /**
+     * The size of the encoding of a value, used to allocate the output buffers at once. The default implementation
+     * encodes the value without writing it; codecs should override it with a direct computation.
+     *
+     * @param value the value
+     * @return the size in bytes
+     * @throws CloudproofException if the value cannot be encoded
+     */
+    default long serializedSize(T value) throws CloudproofException {
+        ByteBufferOutputStream counter = new ByteBufferOutputStream(ByteBuffer.allocate(0));
+        write(new Leb128Writer(counter), value);
+        return counter.size();
+    }
+}
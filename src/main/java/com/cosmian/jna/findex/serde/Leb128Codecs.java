@@ -0,0 +1,239 @@
+package com.cosmian.jna.findex.serde;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.IndexedValue;
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+import com.cosmian.utils.Leb128;
+
+/**
+ * Registry of the {@link Leb128Codec} of each {@link Leb128Serializable} type.
+ * <p>
+ * The types exchanged with the native library have a built-in codec. Other types can register theirs; types without a
+ * registered codec get one which instantiates them through their public no-argument constructor, looked up once.
+ */
+public final class Leb128Codecs {
+
+    private static final ConcurrentHashMap<Class<?>, Leb128Codec<?>> CODECS = new ConcurrentHashMap<>();
+
+    public static final Leb128Codec<Uid32> UID32 = new Leb128Codec<Uid32>() {
+        @Override
+        public Uid32 read(Leb128Reader reader) throws CloudproofException {
+            // read in place from native memory, see Uid32#readObject
+            Uid32 uid = new Uid32();
+            uid.readObject(reader.in);
+            return uid;
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          Uid32 value)
+            throws CloudproofException {
+            value.writeObject(writer.os);
+        }
+
+        @Override
+        public long serializedSize(Uid32 value) {
+            return 32;
+        }
+    };
+
+    public static final Leb128Codec<EntryTableValue> ENTRY_TABLE_VALUE = new Leb128Codec<EntryTableValue>() {
+        @Override
+        public EntryTableValue read(Leb128Reader reader) throws CloudproofException {
+            return new EntryTableValue(reader.readByteArray());
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          EntryTableValue value)
+            throws CloudproofException {
+            writer.writeByteArray(value.getBytes());
+        }
+
+        @Override
+        public long serializedSize(EntryTableValue value) {
+            return Leb128.encodedLength(value.getBytes());
+        }
+    };
+
+    public static final Leb128Codec<ChainTableValue> CHAIN_TABLE_VALUE = new Leb128Codec<ChainTableValue>() {
+        @Override
+        public ChainTableValue read(Leb128Reader reader) throws CloudproofException {
+            return new ChainTableValue(reader.readByteArray());
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          ChainTableValue value)
+            throws CloudproofException {
+            writer.writeByteArray(value.getBytes());
+        }
+
+        @Override
+        public long serializedSize(ChainTableValue value) {
+            return Leb128.encodedLength(value.getBytes());
+        }
+    };
+
+    public static final Leb128Codec<Keyword> KEYWORD = new Leb128Codec<Keyword>() {
+        @Override
+        public Keyword read(Leb128Reader reader) throws CloudproofException {
+            return new Keyword(reader.readByteArray());
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          Keyword value)
+            throws CloudproofException {
+            writer.writeByteArray(value.getBytes());
+        }
+
+        @Override
+        public long serializedSize(Keyword value) {
+            return Leb128.encodedLength(value.getBytes());
+        }
+    };
+
+    public static final Leb128Codec<Location> LOCATION = new Leb128Codec<Location>() {
+        @Override
+        public Location read(Leb128Reader reader) throws CloudproofException {
+            return new Location(reader.readByteArray());
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          Location value)
+            throws CloudproofException {
+            writer.writeByteArray(value.getBytes());
+        }
+
+        @Override
+        public long serializedSize(Location value) {
+            return Leb128.encodedLength(value.getBytes());
+        }
+    };
+
+    public static final Leb128Codec<IndexedValue> INDEXED_VALUE = new Leb128Codec<IndexedValue>() {
+        @Override
+        public IndexedValue read(Leb128Reader reader) throws CloudproofException {
+            return new IndexedValue(reader.readByteArray());
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          IndexedValue value)
+            throws CloudproofException {
+            writer.writeByteArray(value.getBytes());
+        }
+
+        @Override
+        public long serializedSize(IndexedValue value) {
+            return Leb128.encodedLength(value.getBytes());
+        }
+    };
+
+    public static final Leb128Codec<EntryTableValues> ENTRY_TABLE_VALUES = new Leb128Codec<EntryTableValues>() {
+        @Override
+        public EntryTableValues read(Leb128Reader reader) throws CloudproofException {
+            EntryTableValue previous = ENTRY_TABLE_VALUE.read(reader);
+            EntryTableValue next = ENTRY_TABLE_VALUE.read(reader);
+            return new EntryTableValues(previous, next);
+        }
+
+        @Override
+        public void write(Leb128Writer writer,
+                          EntryTableValues value)
+            throws CloudproofException {
+            ENTRY_TABLE_VALUE.write(writer, value.getPrevious());
+            ENTRY_TABLE_VALUE.write(writer, value.getNew());
+        }
+
+        @Override
+        public long serializedSize(EntryTableValues value) {
+            return Leb128.encodedLength(value.getPrevious().getBytes()) + Leb128.encodedLength(value.getNew().getBytes());
+        }
+    };
+
+    static {
+        register(Uid32.class, UID32);
+        register(EntryTableValue.class, ENTRY_TABLE_VALUE);
+        register(ChainTableValue.class, CHAIN_TABLE_VALUE);
+        register(Keyword.class, KEYWORD);
+        register(Location.class, LOCATION);
+        register(IndexedValue.class, INDEXED_VALUE);
+        register(EntryTableValues.class, ENTRY_TABLE_VALUES);
+    }
+
+    private Leb128Codecs() {
+    }
+
+    /**
+     * Register the codec of a type, replacing the existing one if any.
+     *
+     * @param <T> the type
+     * @param clazz the class of the type
+     * @param codec the {@link Leb128Codec} of the type
+     */
+    public static <T extends Leb128Serializable> void register(Class<T> clazz,
+                                                               Leb128Codec<T> codec) {
+        CODECS.put(clazz, codec);
+    }
+
+    /**
+     * Get the codec of a type.
+     *
+     * @param <T> the type
+     * @param clazz the class of the type
+     * @return the registered {@link Leb128Codec}, or a codec instantiating the type by reflection
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Leb128Serializable> Leb128Codec<T> get(Class<? extends Leb128Serializable> clazz) {
+        Leb128Codec<?> codec = CODECS.get(clazz);
+        if (codec == null) {
+            codec = CODECS.computeIfAbsent(clazz, c -> reflective((Class<? extends Leb128Serializable>) c));
+        }
+        return (Leb128Codec<T>) codec;
+    }
+
+    /**
+     * Codec of a type without a registered codec: the constructor is looked up once.
+     */
+    private static <T extends Leb128Serializable> Leb128Codec<T> reflective(Class<? extends Leb128Serializable> clazz) {
+        return new Leb128Codec<T>() {
+            private volatile Constructor<? extends Leb128Serializable> constructor;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T read(Leb128Reader reader) throws CloudproofException {
+                T element;
+                try {
+                    if (constructor == null) {
+                        constructor = clazz.getConstructor();
+                    }
+                    element = (T) constructor.newInstance();
+                } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
+                    | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+                    throw new CloudproofException(
+                        "Leb128 reader: failed instantiating a " + clazz.getSimpleName() + ": " + e.getMessage(), e);
+                }
+                return reader.readObject(element);
+            }
+
+            @Override
+            public void write(Leb128Writer writer,
+                              T value)
+                throws CloudproofException {
+                value.writeObject(writer.os);
+            }
+        };
+    }
+}
@@ -1,15 +1,16 @@
 package com.cosmian.jna.findex.serde;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32HashMap;
 import com.cosmian.utils.CloudproofException;
 import com.cosmian.utils.Leb128;
 
@@ -17,12 +18,29 @@ public class Leb128Reader {
 
     final InputStream in;
 
+    /**
+     * The buffer read by {@link #in}, or null if the reader reads a plain stream. Primitives are decoded directly from
+     * the buffer.
+     */
+    final ByteBuffer buffer;
+
     public Leb128Reader(byte[] bytes) {
-        this.in = new ByteArrayInputStream(bytes);
+        this(ByteBuffer.wrap(bytes));
     }
 
     public Leb128Reader(InputStream in) {
         this.in = in;
+        this.buffer = in instanceof ByteBufferInputStream ? ((ByteBufferInputStream) in).buffer() : null;
+    }
+
+    /**
+     * Read the remaining bytes of the given buffer in place: the buffer may wrap native memory.
+     *
+     * @param buffer the {@link ByteBuffer} to read
+     */
+    public Leb128Reader(ByteBuffer buffer) {
+        this.in = new ByteBufferInputStream(buffer);
+        this.buffer = buffer;
     }
 
     public <T extends Leb128Serializable> T readObject(T newInstance) throws CloudproofException {
@@ -32,31 +50,74 @@ public class Leb128Reader {
 
     public <T extends Leb128Serializable> T readObject(Class<? extends Leb128Serializable> clazzOfT)
         throws CloudproofException {
-        T element;
+        return Leb128Codecs.<T>get(clazzOfT).read(this);
+    }
+
+    /**
+     * Read an unsigned LEB128 integer.
+     *
+     * @return the value
+     * @throws CloudproofException if the input is in error
+     */
+    public long readU64() throws CloudproofException {
         try {
-            @SuppressWarnings("unchecked")
-            final T el = (T) clazzOfT.getConstructor().newInstance();
-            element = el;
-        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
-            | NoSuchMethodException | SecurityException e) {
-            throw new CloudproofException(
-                "Leb128 reader: failed instantiating a " + clazzOfT.getSimpleName() + ": " + e.getMessage(), e);
+            if (buffer != null) {
+                return Leb128.readU64(buffer);
+            }
+            return Leb128.readU64(this.in);
+        } catch (IOException | BufferUnderflowException e) {
+            throw new CloudproofException("failed reading an LEB128 integer: " + e, e);
         }
-        this.readObject(element);
-        return element;
     }
 
-    public <T extends Leb128Serializable> List<T> readCollection(Class<? extends Leb128Serializable> clazzOfT)
-        throws CloudproofException {
-        int size;
+    /**
+     * Read a byte array prefixed with its LEB128 length.
+     *
+     * @return the array
+     * @throws CloudproofException if the input is in error
+     */
+    public byte[] readByteArray() throws CloudproofException {
+        try {
+            if (buffer != null) {
+                return Leb128.readByteArray(buffer);
+            }
+            return Leb128.readByteArray(this.in);
+        } catch (IOException | BufferUnderflowException e) {
+            throw new CloudproofException("failed reading a byte array: " + e, e);
+        }
+    }
+
+    /**
+     * Read a fixed size byte array.
+     *
+     * @param length the size of the array
+     * @return the array
+     * @throws CloudproofException if the input is in error or too short
+     */
+    public byte[] readBytes(int length) throws CloudproofException {
+        byte[] bytes = new byte[length];
         try {
-            size = (int) Leb128.readU64(this.in);
-        } catch (IOException e) {
-            throw new CloudproofException("failed reading the collection size: " + e.getMessage(), e);
+            if (buffer != null) {
+                buffer.get(bytes);
+                return bytes;
+            }
+            int read = length == 0 ? 0 : this.in.read(bytes);
+            if (read != length) {
+                throw new IOException("expected " + length + " bytes, read " + read);
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            throw new CloudproofException("failed reading a byte array: " + e, e);
         }
+        return bytes;
+    }
+
+    public <T extends Leb128Serializable> List<T> readCollection(Class<? extends Leb128Serializable> clazzOfT)
+        throws CloudproofException {
+        int size = (int) readU64();
+        Leb128Codec<T> codec = Leb128Codecs.get(clazzOfT);
         List<T> result = new ArrayList<T>(size);
         for (int i = 0; i < size; i++) {
-            result.add(this.readObject(clazzOfT));
+            result.add(codec.read(this));
         }
         return result;
     }
@@ -64,34 +125,37 @@ public class Leb128Reader {
     public <LEFT extends Leb128Serializable, RIGHT extends Leb128Serializable> Tuple<LEFT, RIGHT> readTuple(Class<? extends Leb128Serializable> clazzOfK,
                                                                                                             Class<? extends Leb128Serializable> clazzOfV)
         throws CloudproofException {
-        LEFT key = this.readObject(clazzOfK);
-        RIGHT value = this.readObject(clazzOfV);
+        LEFT key = Leb128Codecs.<LEFT>get(clazzOfK).read(this);
+        RIGHT value = Leb128Codecs.<RIGHT>get(clazzOfV).read(this);
         return new Tuple<>(key, value);
     }
 
-    private <K extends Leb128Serializable, V extends Leb128Serializable> Entry<K, V> readEntry(Class<? extends Leb128Serializable> clazzOfK,
-                                                                                               Class<? extends Leb128Serializable> clazzOfV)
-        throws CloudproofException {
-        return this.readTuple(clazzOfK, clazzOfV);
-    }
-
     public <K extends Leb128Serializable, V extends Leb128Serializable> Map<K, V> readMap(Class<? extends Leb128Serializable> clazzOfK,
                                                                                           Class<? extends Leb128Serializable> clazzOfV)
         throws CloudproofException {
-        int size;
-        try {
-            size = (int) Leb128.readU64(this.in);
-        } catch (IOException e) {
-            throw new CloudproofException("failed reading the map size: " + e.getMessage(), e);
-        }
-        Map<K, V> map = new HashMap<>(size);
+        int size = (int) readU64();
+        Leb128Codec<K> keyCodec = Leb128Codecs.get(clazzOfK);
+        Leb128Codec<V> valueCodec = Leb128Codecs.get(clazzOfV);
+        Map<K, V> map = newMap(clazzOfK, size);
         for (int i = 0; i < size; i++) {
-            Entry<K, V> entry = this.readEntry(clazzOfK, clazzOfV);
-            map.put(entry.getKey(), entry.getValue());
+            K key = keyCodec.read(this);
+            map.put(key, valueCodec.read(this));
         }
         return map;
     }
 
+    /**
+     * Maps keyed by {@link Uid32} use the allocation-light {@link Uid32HashMap}.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> Map<K, V> newMap(Class<?> clazzOfK,
+                                           int size) {
+        if (clazzOfK == Uid32.class) {
+            return (Map<K, V>) new Uid32HashMap<V>(size);
+        }
+        return new HashMap<>(size);
+    }
+
     // ------------------------------------------------------
     // Static implementations
     // ------------------------------------------------------
@@ -99,21 +163,34 @@ public class Leb128Reader {
     public static <T extends Leb128Serializable> List<T> deserializeCollection(Class<? extends Leb128Serializable> clazzOfT,
                                                                                byte[] bytes)
         throws CloudproofException {
-        return new Leb128Reader(new ByteArrayInputStream(bytes)).readCollection(clazzOfT);
+        return new Leb128Reader(bytes).readCollection(clazzOfT);
     }
 
     public static <K extends Leb128Serializable, V extends Leb128Serializable> Map<K, V> deserializeMap(Class<? extends Leb128Serializable> clazzOfK,
                                                                                                         Class<? extends Leb128Serializable> clazzOfV,
                                                                                                         byte[] bytes)
         throws CloudproofException {
-        return new Leb128Reader(new ByteArrayInputStream(bytes)).readMap(clazzOfK, clazzOfV);
+        return new Leb128Reader(bytes).readMap(clazzOfK, clazzOfV);
+    }
+
+    public static <T extends Leb128Serializable> List<T> deserializeCollection(Class<? extends Leb128Serializable> clazzOfT,
+                                                                               ByteBuffer buffer)
+        throws CloudproofException {
+        return new Leb128Reader(buffer).readCollection(clazzOfT);
+    }
+
+    public static <K extends Leb128Serializable, V extends Leb128Serializable> Map<K, V> deserializeMap(Class<? extends Leb128Serializable> clazzOfK,
+                                                                                                        Class<? extends Leb128Serializable> clazzOfV,
+                                                                                                        ByteBuffer buffer)
+        throws CloudproofException {
+        return new Leb128Reader(buffer).readMap(clazzOfK, clazzOfV);
     }
 
     public static <LEFT extends Leb128Serializable, RIGHT extends Leb128Serializable> Tuple<LEFT, RIGHT> deserializeTuple(Class<? extends Leb128Serializable> clazzOfLeft,
                                                                                                                           Class<? extends Leb128Serializable> clazzOfRight,
                                                                                                                           byte[] bytes)
         throws CloudproofException {
-        return new Leb128Reader(new ByteArrayInputStream(bytes)).readTuple(clazzOfLeft, clazzOfRight);
+        return new Leb128Reader(bytes).readTuple(clazzOfLeft, clazzOfRight);
     }
 
 }
@@ -13,4 +13,14 @@ public interface Leb128Serializable {
     public void readObject(InputStream is) throws CloudproofException;
 
     public void writeObject(OutputStream os) throws CloudproofException;
+
+    /**
+     * The exact size of the serialization of this object, computed by its {@link Leb128Codec}.
+     *
+     * @return the size in bytes
+     * @throws CloudproofException if the size cannot be computed
+     */
+    default long serializedSize() throws CloudproofException {
+        return Leb128Writer.serializedSize(this);
+    }
 }
@@ -1,8 +1,8 @@
 package com.cosmian.jna.findex.serde;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -16,12 +16,78 @@ public class Leb128Writer {
 
     final OutputStream os;
 
+    /**
+     * The {@link #os} stream when it writes to a buffer: primitives are encoded directly in the buffer.
+     */
+    final ByteBufferOutputStream bufferOs;
+
     public Leb128Writer(OutputStream os) {
         this.os = os;
+        this.bufferOs = os instanceof ByteBufferOutputStream ? (ByteBufferOutputStream) os : null;
+    }
+
+    /**
+     * Write to the given buffer, from its current position. Bytes which do not fit are counted but not written, see
+     * {@link ByteBufferOutputStream}.
+     *
+     * @param buffer the {@link ByteBuffer} to write to
+     */
+    public Leb128Writer(ByteBuffer buffer) {
+        this(new ByteBufferOutputStream(buffer));
     }
 
     public <T extends Leb128Serializable> void writeObject(T obj) throws CloudproofException {
-        obj.writeObject(os);
+        Leb128Codecs.<T>get(obj.getClass()).write(this, obj);
+    }
+
+    /**
+     * Write an unsigned LEB128 integer.
+     *
+     * @param value the value
+     * @throws CloudproofException if the output is in error
+     */
+    public void writeU64(long value) throws CloudproofException {
+        if (bufferOs != null) {
+            bufferOs.writeU64(value);
+            return;
+        }
+        try {
+            Leb128.writeU64(this.os, value);
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing an LEB128 integer: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write a byte array prefixed with its LEB128 length.
+     *
+     * @param bytes the array
+     * @throws CloudproofException if the output is in error
+     */
+    public void writeByteArray(byte[] bytes) throws CloudproofException {
+        if (bufferOs != null) {
+            bufferOs.writeByteArray(bytes);
+            return;
+        }
+        try {
+            Leb128.writeArray(this.os, bytes);
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing a byte array: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write a byte array without its length.
+     *
+     * @param bytes the array
+     * @throws CloudproofException if the output is in error
+     */
+    public void writeBytes(byte[] bytes) throws CloudproofException {
+        try {
+            this.os.write(bytes);
+        } catch (IOException e) {
+            throw new CloudproofException("failed writing a byte array: " + e.getMessage(), e);
+        }
     }
 
     private <K extends Leb128Serializable, V extends Leb128Serializable> void writeEntry(Entry<K, V> tuple)
@@ -36,25 +102,14 @@ public class Leb128Writer {
     }
 
     public <T extends Leb128Serializable> void writeCollection(Collection<T> elements) throws CloudproofException {
-        try {
-            Leb128.writeU64(this.os, elements.size());
-        } catch (IOException e) {
-            throw new CloudproofException("failed writing the collection to the output: " + e.getMessage(), e);
-        }
+        this.writeU64(elements.size());
         for (T value : elements) {
             this.writeObject(value);
         }
     }
 
     public <T extends Leb128Serializable> void writeSet(Set<T> elements) throws CloudproofException {
-        try {
-            Leb128.writeU64(this.os, elements.size());
-        } catch (IOException e) {
-            throw new CloudproofException("failed writing the collection to the output: " + e.getMessage(), e);
-        }
-        for (T value : elements) {
-            this.writeObject(value);
-        }
+        this.writeCollection(elements);
     }
 
     public <K extends Leb128Serializable, V extends Leb128Serializable> void writeMap(Map<K, V> map)
@@ -64,11 +119,7 @@ public class Leb128Writer {
 
     public <K extends Leb128Serializable, V extends Leb128Serializable> void writeMapOfSet(Map<K, Set<V>> map)
         throws CloudproofException {
-        try {
-            Leb128.writeU64(this.os, map.size());
-        } catch (IOException e) {
-            throw new CloudproofException("failed writing the size of the map to the output: " + e.getMessage(), e);
-        }
+        this.writeU64(map.size());
         for (Map.Entry<K, Set<V>> entry : map.entrySet()) {
             this.writeObject(entry.getKey());
             this.writeSet(entry.getValue());
@@ -77,11 +128,7 @@ public class Leb128Writer {
 
     public <LEFT extends Leb128Serializable, RIGHT extends Leb128Serializable> void writeListOfTuples(List<Tuple<LEFT, RIGHT>> list)
         throws CloudproofException {
-        try {
-            Leb128.writeU64(this.os, list.size());
-        } catch (IOException e) {
-            throw new CloudproofException("failed writing the list of tuples to the output: " + e.getMessage(), e);
-        }
+        this.writeU64(list.size());
         for (Tuple<LEFT, RIGHT> value : list) {
             this.writeEntry(value);
         }
@@ -89,59 +136,133 @@ public class Leb128Writer {
 
     public <K extends Leb128Serializable, V extends Leb128Serializable> void writeEntryCollection(Collection<Entry<K, V>> entryCollection)
         throws CloudproofException {
-        try {
-            Leb128.writeU64(this.os, entryCollection.size());
-        } catch (IOException e) {
-            throw new CloudproofException("failed writing the entry collection to the output: " + e.getMessage(), e);
-        }
+        this.writeU64(entryCollection.size());
         for (Entry<K, V> value : entryCollection) {
             this.writeEntry(value);
         }
     }
 
+    // ------------------------------------------------------
+    // Serialized sizes
+    // ------------------------------------------------------
+
+    /**
+     * The exact size of the serialization of a value, computed without serializing it.
+     *
+     * @param <T> the value type
+     * @param obj the value
+     * @return the size in bytes
+     * @throws CloudproofException if the size cannot be computed
+     */
+    public static <T extends Leb128Serializable> long serializedSize(T obj) throws CloudproofException {
+        return Leb128Codecs.<T>get(obj.getClass()).serializedSize(obj);
+    }
+
+    /**
+     * The exact size of the serialization of a collection, computed without serializing it.
+     *
+     * @param <T> the element type
+     * @param elements the collection
+     * @return the size in bytes
+     * @throws CloudproofException if the size cannot be computed
+     */
+    public static <T extends Leb128Serializable> long serializedSizeOfCollection(Collection<T> elements)
+        throws CloudproofException {
+        long size = Leb128.encodedLength((long) elements.size());
+        for (T value : elements) {
+            size += serializedSize(value);
+        }
+        return size;
+    }
+
+    /**
+     * The exact size of the serialization of a map, or a list of tuples, computed without serializing it.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     * @param entryCollection the entries of the map or the list of tuples
+     * @return the size in bytes
+     * @throws CloudproofException if the size cannot be computed
+     */
+    public static <K extends Leb128Serializable, V extends Leb128Serializable> long serializedSizeOfEntryCollection(Collection<? extends Entry<K, V>> entryCollection)
+        throws CloudproofException {
+        long size = Leb128.encodedLength((long) entryCollection.size());
+        for (Entry<K, V> entry : entryCollection) {
+            size += serializedSize(entry.getKey()) + serializedSize(entry.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * The exact size of the serialization of a map of sets, computed without serializing it.
+     *
+     * @param <K> the key type
+     * @param <V> the set element type
+     * @param map the map
+     * @return the size in bytes
+     * @throws CloudproofException if the size cannot be computed
+     */
+    public static <K extends Leb128Serializable, V extends Leb128Serializable> long serializedSizeOfMapOfSet(Map<K, Set<V>> map)
+        throws CloudproofException {
+        long size = Leb128.encodedLength((long) map.size());
+        for (Map.Entry<K, Set<V>> entry : map.entrySet()) {
+            size += serializedSize(entry.getKey()) + serializedSizeOfCollection(entry.getValue());
+        }
+        return size;
+    }
+
     // ------------------------------------------------------
     // Static implementations
     // ------------------------------------------------------
 
+    /**
+     * Encoding of a value, run into a buffer of the exact size of the output
+     */
+    private interface Encoder {
+        void encode(Leb128Writer writer) throws CloudproofException;
+    }
+
+    private static byte[] serialize(long size,
+                                    Encoder encoder)
+        throws CloudproofException {
+        if (size > Integer.MAX_VALUE) {
+            throw new CloudproofException("the serialized value is too large: " + size + " bytes");
+        }
+        byte[] bytes = new byte[(int) size];
+        ByteBufferOutputStream bos = new ByteBufferOutputStream(ByteBuffer.wrap(bytes));
+        encoder.encode(new Leb128Writer(bos));
+        bos.checkSize(size);
+        return bytes;
+    }
+
     public static <T extends Leb128Serializable> byte[] serializeCollection(Collection<T> elements)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeCollection(elements);
-        return bos.toByteArray();
+        return serialize(serializedSizeOfCollection(elements), writer -> writer.writeCollection(elements));
     }
 
     public static <K extends Leb128Serializable, V extends Leb128Serializable> byte[] serializeMap(Map<K, V> map)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeMap(map);
-        return bos.toByteArray();
+        return serialize(serializedSizeOfEntryCollection(map.entrySet()), writer -> writer.writeMap(map));
     }
 
     public static <K extends Leb128Serializable, V extends Leb128Serializable> byte[] serializeMapOfSet(Map<K, Set<V>> map)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeMapOfSet(map);
-        return bos.toByteArray();
+        return serialize(serializedSizeOfMapOfSet(map), writer -> writer.writeMapOfSet(map));
     }
 
     public static <LEFT extends Leb128Serializable, RIGHT extends Leb128Serializable> byte[] serializeListOfTuples(List<Tuple<LEFT, RIGHT>> list)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeListOfTuples(list);
-        return bos.toByteArray();
+        return serialize(serializedSizeOfEntryCollection(list), writer -> writer.writeListOfTuples(list));
     }
 
     public static <LEFT extends Leb128Serializable, RIGHT extends Leb128Serializable> byte[] serializeTuple(Tuple<LEFT, RIGHT> tuple)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeTuple(tuple);
-        return bos.toByteArray();
+        return serialize(serializedSize(tuple.getLeft()) + serializedSize(tuple.getRight()),
+            writer -> writer.writeTuple(tuple));
     }
 
     public static <K extends Leb128Serializable, V extends Leb128Serializable> byte[] serializeEntryCollection(Collection<Entry<K, V>> entryCollection)
         throws CloudproofException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        new Leb128Writer(bos).writeEntryCollection(entryCollection);
-        return bos.toByteArray();
+        return serialize(serializedSizeOfEntryCollection(entryCollection), writer -> writer.writeEntryCollection(entryCollection));
     }
 }
@@ -1,24 +1,167 @@
 package com.cosmian.jna.findex.structs;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.cosmian.jna.findex.serde.ByteBufferInputStream;
+import com.cosmian.jna.findex.serde.ByteBufferOutputStream;
 import com.cosmian.jna.findex.serde.Leb128ByteArray;
+import com.cosmian.utils.CloudproofException;
 
+/**
+ * The 32 bytes UID of an Entry Table or Chain Table line.
+ * <p>
+ * The UID is held in four longs (big-endian) which are used for hashing and comparison. The byte array is only built
+ * when {@link #getBytes()} is called on a UID read from native memory.
+ */
 public class Uid32 extends Leb128ByteArray {
 
+    private static final int SIZE = 32;
+
+    private long l0;
+
+    private long l1;
+
+    private long l2;
+
+    private long l3;
+
     public Uid32() {
         super();
     }
 
     public Uid32(byte[] bytes) {
         super(bytes);
-        if (bytes.length != fixedSize()) {
+        if (bytes.length != SIZE) {
             throw new IllegalArgumentException(
-                "A " + getClass().getSimpleName() + " must have " + fixedSize() + " bytes, not " + bytes.length);
+                "A " + getClass().getSimpleName() + " must have " + SIZE + " bytes, not " + bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        this.l0 = buffer.getLong();
+        this.l1 = buffer.getLong();
+        this.l2 = buffer.getLong();
+        this.l3 = buffer.getLong();
+    }
+
+    /**
+     * Build a UID from its four big-endian longs, without allocating its byte array.
+     *
+     * @param l0 bytes 0 to 7
+     * @param l1 bytes 8 to 15
+     * @param l2 bytes 16 to 23
+     * @param l3 bytes 24 to 31
+     */
+    public Uid32(long l0, long l1, long l2, long l3) {
+        this.bytes = null;
+        this.l0 = l0;
+        this.l1 = l1;
+        this.l2 = l2;
+        this.l3 = l3;
+    }
+
+    /**
+     * UIDs are uniformly distributed: their longs can be used as hashes, e.g. to route or filter them.
+     *
+     * @param index the index of the long, from 0 to 3
+     * @return the long holding the bytes {@code 8 * index} to {@code 8 * index + 7}, big-endian
+     */
+    public long getLong(int index) {
+        switch (index) {
+            case 0:
+                return l0;
+            case 1:
+                return l1;
+            case 2:
+                return l2;
+            case 3:
+                return l3;
+            default:
+                throw new IndexOutOfBoundsException("A Uid32 holds 4 longs, not " + (index + 1));
         }
     }
 
     @Override
     public int fixedSize() {
-        return 32;
+        return SIZE;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        byte[] b = this.bytes;
+        if (b == null) {
+            b = ByteBuffer.allocate(SIZE).order(ByteOrder.BIG_ENDIAN)
+                .putLong(l0).putLong(l1).putLong(l2).putLong(l3).array();
+            this.bytes = b;
+        }
+        return b;
+    }
+
+    @Override
+    public int hashCode() {
+        // UIDs are uniformly distributed: mixing the four longs is enough
+        long h = l0 ^ Long.rotateLeft(l1, 16) ^ Long.rotateLeft(l2, 32) ^ Long.rotateLeft(l3, 48);
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof Uid32) {
+            Uid32 other = (Uid32) o;
+            return l0 == other.l0 && l1 == other.l1 && l2 == other.l2 && l3 == other.l3;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return Hex.encodeHexString(getBytes());
+    }
+
+    @Override
+    public void writeObject(OutputStream out) throws CloudproofException {
+        if (this.bytes == null && out instanceof ByteBufferOutputStream) {
+            ByteBufferOutputStream os = (ByteBufferOutputStream) out;
+            os.writeLong(l0);
+            os.writeLong(l1);
+            os.writeLong(l2);
+            os.writeLong(l3);
+            return;
+        }
+        try {
+            out.write(getBytes());
+        } catch (IOException e) {
+            throw new CloudproofException(
+                "failed serializing " + this.getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void readObject(InputStream in) throws CloudproofException {
+        if (in instanceof ByteBufferInputStream && ((ByteBufferInputStream) in).available() >= SIZE) {
+            // read in place: the byte array is only allocated if requested
+            ByteBufferInputStream is = (ByteBufferInputStream) in;
+            this.bytes = null;
+            this.l0 = is.readLong();
+            this.l1 = is.readLong();
+            this.l2 = is.readLong();
+            this.l3 = is.readLong();
+            return;
+        }
+        super.readObject(in);
+        ByteBuffer buffer = ByteBuffer.wrap(this.bytes).order(ByteOrder.BIG_ENDIAN);
+        this.l0 = buffer.getLong();
+        this.l1 = buffer.getLong();
+        this.l2 = buffer.getLong();
+        this.l3 = buffer.getLong();
     }
 
 }
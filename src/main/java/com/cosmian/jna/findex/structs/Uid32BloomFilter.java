@@ -0,0 +1,165 @@
+package com.cosmian.jna.findex.structs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * A Bloom filter of {@link Uid32}: {@link #mightContain(Uid32)} never returns false for a UID which was added, and
+ * returns true for a UID which was not added with a probability close to the false positive rate the filter was sized
+ * for.
+ * <p>
+ * UIDs are the output of a hash function: the bit indexes are derived from their longs by double hashing, without
+ * hashing them again. The filter is thread-safe and lock-free. UIDs cannot be removed from it.
+ */
+public final class Uid32BloomFilter {
+
+    private static final int MAGIC = 0x55424631; // "UBF1"
+
+    private final AtomicLongArray bits;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    private final LongAdder insertions = new LongAdder();
+
+    private Uid32BloomFilter(long numBits,
+                             int numHashes) {
+        if (numBits / 64 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A Bloom filter cannot hold more than " + 64L * Integer.MAX_VALUE
+                + " bits");
+        }
+        this.bits = new AtomicLongArray((int) ((numBits + 63) / 64));
+        this.numBits = 64L * bits.length();
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Create an empty filter sized for the given number of UIDs and false positive rate.
+     *
+     * @param expectedInsertions the number of UIDs expected to be added
+     * @param falsePositiveRate the false positive rate once the expected number of UIDs were added, between 0 and 1
+     * @return the filter
+     */
+    public static Uid32BloomFilter create(long expectedInsertions,
+                                          double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        }
+        long n = Math.max(1, expectedInsertions);
+        long numBits = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        int numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        return new Uid32BloomFilter(numBits, numHashes);
+    }
+
+    /**
+     * Add a UID to the filter.
+     *
+     * @param uid the UID
+     */
+    public void put(Uid32 uid) {
+        long h1 = uid.getLong(0) ^ uid.getLong(2);
+        long h2 = (uid.getLong(1) ^ uid.getLong(3)) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                current = bits.get(word);
+            }
+        }
+        insertions.increment();
+    }
+
+    /**
+     * @param uid the UID
+     * @return false if the UID was definitely never added, true if it may have been
+     */
+    public boolean mightContain(Uid32 uid) {
+        long h1 = uid.getLong(0) ^ uid.getLong(2);
+        long h2 = (uid.getLong(1) ^ uid.getLong(3)) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of calls to {@link #put(Uid32)}, counting duplicates
+     */
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    /**
+     * @return the false positive rate expected from the proportion of bits set
+     */
+    public double getExpectedFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) set / numBits, numHashes);
+    }
+
+    /**
+     * Save the filter to a file, replacing it if it exists. UIDs added during the save may or may not be saved.
+     *
+     * @param path the file path
+     * @throws CloudproofException if the file cannot be written
+     */
+    public void save(Path path) throws CloudproofException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(numBits);
+            out.writeInt(numHashes);
+            out.writeLong(insertions.sum());
+            for (int i = 0; i < bits.length(); i++) {
+                out.writeLong(bits.get(i));
+            }
+        } catch (IOException e) {
+            throw new CloudproofException("failed saving the Bloom filter to " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Load a filter saved by {@link #save(Path)}.
+     *
+     * @param path the file path
+     * @return the filter
+     * @throws CloudproofException if the file cannot be read or is not a saved filter
+     */
+    public static Uid32BloomFilter load(Path path) throws CloudproofException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new CloudproofException(path + " is not a saved Bloom filter");
+            }
+            long numBits = in.readLong();
+            int numHashes = in.readInt();
+            if (numBits <= 0 || numBits % 64 != 0 || numHashes <= 0) {
+                throw new CloudproofException(path + " is not a valid Bloom filter");
+            }
+            Uid32BloomFilter filter = new Uid32BloomFilter(numBits, numHashes);
+            filter.insertions.add(in.readLong());
+            for (int i = 0; i < filter.bits.length(); i++) {
+                filter.bits.set(i, in.readLong());
+            }
+            return filter;
+        } catch (IOException e) {
+            throw new CloudproofException("failed loading the Bloom filter from " + path + ": " + e.getMessage(), e);
+        }
+    }
+}
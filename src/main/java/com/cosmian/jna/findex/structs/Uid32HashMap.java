@@ -0,0 +1,306 @@
+package com.cosmian.jna.findex.structs;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An open addressing hash map keyed by {@link Uid32}, used to hold the Entry Table and Chain Table lines exchanged
+ * with the native library.
+ * <p>
+ * Keys and values are stored in two flat arrays, with linear probing: contrary to {@link java.util.HashMap}, no node
+ * is allocated per line. Removed slots are marked with a tombstone, which are purged on resize. Null keys are not
+ * supported. This map is not thread safe.
+ *
+ * @param <V> the value type, e.g. {@link EntryTableValue} or {@link ChainTableValue}
+ */
+public class Uid32HashMap<V> extends AbstractMap<Uid32, V> {
+
+    private static final Uid32 TOMBSTONE = new Uid32(0, 0, 0, 0);
+
+    private static final int MIN_CAPACITY = 8;
+
+    private Uid32[] keys;
+
+    private Object[] values;
+
+    private int size = 0;
+
+    /**
+     * Number of slots used by a key or a tombstone
+     */
+    private int used = 0;
+
+    private int modCount = 0;
+
+    public Uid32HashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize the number of lines the map should hold without resizing
+     */
+    public Uid32HashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public Uid32HashMap(Map<Uid32, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    /**
+     * @return the power of two capacity keeping the load factor under 2/3
+     */
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < (long) expectedSize * 3 / 2 + 1) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new Uid32[capacity];
+        this.values = new Object[capacity];
+        this.used = 0;
+    }
+
+    /**
+     * @return the slot holding the key, or -1
+     */
+    private int find(Object key) {
+        if (!(key instanceof Uid32)) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        Uid32 k;
+        while ((k = keys[i]) != null) {
+            if (k != TOMBSTONE && k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i = find(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(Uid32 key,
+                 V value) {
+        if (key == null) {
+            throw new NullPointerException("a Uid32HashMap does not support null keys");
+        }
+        int mask = keys.length - 1;
+        int i = key.hashCode() & mask;
+        int firstTombstone = -1;
+        Uid32 k;
+        while ((k = keys[i]) != null) {
+            if (k == TOMBSTONE) {
+                if (firstTombstone < 0) {
+                    firstTombstone = i;
+                }
+            } else if (k.equals(key)) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        if (firstTombstone >= 0) {
+            i = firstTombstone;
+        } else {
+            used++;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        modCount++;
+        if (used * 3 >= keys.length * 2) {
+            // grow if the map is full of keys, only purge the tombstones otherwise
+            resize(size * 3 >= keys.length ? keys.length * 2 : keys.length);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V previous = (V) values[i];
+        keys[i] = TOMBSTONE;
+        values[i] = null;
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        allocate(keys.length);
+        size = 0;
+        modCount++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        Uid32[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Uid32 k = oldKeys[j];
+            if (k != null && k != TOMBSTONE) {
+                int i = k.hashCode() & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = (V) oldValues[j];
+                used++;
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<Uid32, V>> entrySet() {
+        return new AbstractSet<Entry<Uid32, V>>() {
+            @Override
+            public Iterator<Entry<Uid32, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                Uid32HashMap.this.clear();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<Uid32, V>> {
+
+        private final Uid32[] iteratedKeys = keys;
+
+        private int next = 0;
+
+        private int last = -1;
+
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            while (next < iteratedKeys.length && (iteratedKeys[next] == null || iteratedKeys[next] == TOMBSTONE)) {
+                next++;
+            }
+            return next < iteratedKeys.length;
+        }
+
+        @Override
+        public Entry<Uid32, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new SlotEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // removing leaves a tombstone: the slots do not move
+            keys[last] = TOMBSTONE;
+            values[last] = null;
+            size--;
+            modCount++;
+            expectedModCount = modCount;
+            last = -1;
+        }
+    }
+
+    private class SlotEntry implements Entry<Uid32, V> {
+
+        private final Uid32 key;
+
+        private final int slot;
+
+        SlotEntry(int slot) {
+            this.key = keys[slot];
+            this.slot = slot;
+        }
+
+        @Override
+        public Uid32 getKey() {
+            return key;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return keys[slot] == key ? (V) values[slot] : Uid32HashMap.this.get(key);
+        }
+
+        @Override
+        public V setValue(V value) {
+            return Uid32HashMap.this.put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            V value = getValue();
+            return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            V value = getValue();
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.cosmian.utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 public class Leb128 {
 
@@ -87,4 +89,112 @@ public class Leb128 {
         os.write(array);
     }
 
+    // ------------------------------------------------------
+    // Buffer implementations
+    // ------------------------------------------------------
+
+    /**
+     * The number of bytes of the LEB128 encoding of an u64
+     *
+     * @param value the value to encode
+     * @return the encoded length, from 1 to 10 bytes
+     */
+    public static int encodedLength(long value) {
+        // 1 byte per started group of 7 bits
+        return value == 0 ? 1 : (70 - Long.numberOfLeadingZeros(value)) / 7;
+    }
+
+    /**
+     * Write a u64 as an LEB128
+     *
+     * @param buffer the {@link ByteBuffer} to write to
+     * @param value the value to write
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void writeU64(ByteBuffer buffer,
+                                long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an u64 encoded as an LEB 128 from a buffer
+     * <p>
+     * The decoding of the lengths and counts found in the Findex serializations, which fit in one or two bytes, is
+     * unrolled.
+     *
+     * @param buffer the {@link ByteBuffer} to read from
+     * @return the long value
+     * @throws BufferUnderflowException if the buffer ends before the value
+     */
+    public static long readU64(ByteBuffer buffer) {
+        long b = buffer.get();
+        if (b >= 0) {
+            return b;
+        }
+        long result = b & 0x7F;
+        b = buffer.get();
+        if (b >= 0) {
+            return result | (b << 7);
+        }
+        result |= (b & 0x7F) << 7;
+        b = buffer.get();
+        if (b >= 0) {
+            return result | (b << 14);
+        }
+        result |= (b & 0x7F) << 14;
+        int shift = 21;
+        do {
+            b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    /**
+     * Read a byte array prepended with a LEB 128 u64 indicated its length Warning: the maximum array size is 2^31
+     *
+     * @param buffer the {@link ByteBuffer} to read the array from
+     * @return the byte array
+     * @throws BufferUnderflowException if the buffer ends before the array
+     */
+    public static byte[] readByteArray(ByteBuffer buffer) {
+        long length = readU64(buffer);
+        if (length == 0) {
+            return new byte[] {};
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] array = new byte[(int) length];
+        buffer.get(array);
+        return array;
+    }
+
+    /**
+     * Write a byte array prepended with a LEB128 u64 indicating its length
+     *
+     * @param buffer the {@link ByteBuffer} to write to
+     * @param array the array to write
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void writeArray(ByteBuffer buffer,
+                                  byte[] array) {
+        writeU64(buffer, (long) array.length);
+        buffer.put(array);
+    }
+
+    /**
+     * The number of bytes of a byte array prepended with its LEB128 length
+     *
+     * @param array the array
+     * @return the encoded length
+     */
+    public static int encodedLength(byte[] array) {
+        return encodedLength((long) array.length) + array.length;
+    }
 }
@@ -2,9 +2,13 @@ package com.cosmian;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.jupiter.api.BeforeAll;
@@ -83,7 +87,56 @@ public class TestLeb128 {
         ByteArrayInputStream bis = new ByteArrayInputStream(data);
         byte[] array_ = Leb128.readByteArray(bis);
         assertArrayEquals(array, array_);
+    }
+
+    @Test
+    public void testBufferU64() throws Exception {
+        Random random = new Random();
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        for (int i = 0; i < 10000; i++) {
+            // cover all the encoded lengths
+            long val = random.nextLong() >>> random.nextInt(64);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            Leb128.writeU64(bos, val);
+            byte[] leb128 = bos.toByteArray();
+            assertEquals(leb128.length, Leb128.encodedLength(val));
+
+            buffer.clear();
+            Leb128.writeU64(buffer, val);
+            buffer.flip();
+            assertEquals(leb128.length, buffer.remaining());
+            assertArrayEquals(leb128, Arrays.copyOf(buffer.array(), buffer.remaining()));
 
+            assertEquals(val, Leb128.readU64(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+        assertEquals(1, Leb128.encodedLength(0));
+        assertEquals(1, Leb128.encodedLength(127));
+        assertEquals(2, Leb128.encodedLength(128));
+        assertEquals(10, Leb128.encodedLength(-1L));
     }
 
+    @Test
+    public void testBufferArray() throws Exception {
+        Random random = new Random();
+        for (int i = 0; i < 50; i++) {
+            byte[] array = new byte[random.nextInt(1025)];
+            random.nextBytes(array);
+            ByteBuffer buffer = ByteBuffer.allocate(Leb128.encodedLength(array));
+            Leb128.writeArray(buffer, array);
+            assertEquals(0, buffer.remaining());
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            Leb128.writeArray(bos, array);
+            assertArrayEquals(bos.toByteArray(), buffer.array());
+
+            buffer.flip();
+            assertArrayEquals(array, Leb128.readByteArray(buffer));
+        }
+        // a truncated array
+        ByteBuffer truncated = ByteBuffer.allocate(3);
+        Leb128.writeU64(truncated, 10);
+        truncated.flip();
+        assertThrows(BufferUnderflowException.class, () -> Leb128.readByteArray(truncated));
+    }
 }
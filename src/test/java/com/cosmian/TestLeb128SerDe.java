@@ -1,24 +1,37 @@
 package com.cosmian;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
+import com.cosmian.jna.findex.ffi.SearchResults;
+import com.cosmian.jna.findex.ffi.SearchResultsIterator;
+import com.cosmian.jna.findex.serde.Leb128ByteArray;
+import com.cosmian.jna.findex.serde.Leb128Codec;
+import com.cosmian.jna.findex.serde.Leb128Codecs;
 import com.cosmian.jna.findex.serde.Leb128Reader;
 import com.cosmian.jna.findex.serde.Leb128Writer;
 import com.cosmian.jna.findex.structs.ChainTableValue;
 import com.cosmian.jna.findex.structs.EntryTableValue;
 import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
 import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+import com.cosmian.utils.Leb128;
 
 public class TestLeb128SerDe {
 
@@ -126,4 +139,137 @@ public class TestLeb128SerDe {
         }
     }
 
+    @Test
+    public void testSearchResultsIterator() throws Exception {
+        Map<Keyword, List<Location>> results = new HashMap<>();
+        for (int k = 0; k < 10; k++) {
+            List<Location> locations = new ArrayList<>();
+            for (long l = 0; l < k * 100; l++) {
+                locations.add(new Location(k * 1_000L + l));
+            }
+            results.put(new Keyword("keyword_" + k), locations);
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Leb128.writeU64(os, results.size());
+        for (Entry<Keyword, List<Location>> entry : results.entrySet()) {
+            Leb128.writeArray(os, entry.getKey().getBytes());
+            Leb128.writeU64(os, entry.getValue().size());
+            for (Location location : entry.getValue()) {
+                Leb128.writeArray(os, location.getBytes());
+            }
+        }
+        // the native search results buffer is usually larger than the results
+        byte[] serialized = Arrays.copyOf(os.toByteArray(), os.size() + 1024);
+
+        SearchResults searchResults = new Leb128Reader(serialized).readObject(SearchResults.class);
+        SearchResultsIterator it = new SearchResultsIterator(serialized);
+        int count = 0;
+        while (it.hasNext()) {
+            Location location = it.next();
+            assertTrue(searchResults.get(it.currentKeyword()).contains(location));
+            count++;
+        }
+        assertEquals(searchResults.numberOfUniqueLocations(), count);
+        assertThrows(NoSuchElementException.class, () -> it.next());
+    }
+
+    /**
+     * A type without a built-in codec
+     */
+    public static class Custom extends Leb128ByteArray {
+        public Custom() {
+            super();
+        }
+
+        public Custom(byte[] bytes) {
+            super(bytes);
+        }
+    }
+
+    @Test
+    public void testCodecs() throws Exception {
+        List<Custom> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(new Custom(("custom_" + i).getBytes()));
+        }
+        byte[] serialized = Leb128Writer.serializeCollection(list);
+
+        // instantiated by reflection
+        assertEquals(list, Leb128Reader.deserializeCollection(Custom.class, serialized));
+
+        // with a registered codec
+        AtomicInteger decoded = new AtomicInteger();
+        Leb128Codecs.register(Custom.class, new Leb128Codec<Custom>() {
+            @Override
+            public Custom read(Leb128Reader reader) throws CloudproofException {
+                decoded.incrementAndGet();
+                return new Custom(reader.readByteArray());
+            }
+
+            @Override
+            public void write(Leb128Writer writer,
+                              Custom value)
+                throws CloudproofException {
+                writer.writeByteArray(value.getBytes());
+            }
+        });
+        assertEquals(list, Leb128Reader.deserializeCollection(Custom.class, serialized));
+        assertEquals(list.size(), decoded.get());
+
+        // the built-in codecs decode what the types serialize
+        Map<Uid32, EntryTableValues> map = new HashMap<>();
+        Random rand = new Random();
+        for (int i = 0; i < 100; i++) {
+            byte[] uid = new byte[32];
+            rand.nextBytes(uid);
+            map.put(new Uid32(uid), new EntryTableValues(("previous_" + i).getBytes(), ("new_" + i).getBytes()));
+        }
+        Map<Uid32, EntryTableValues> map_ =
+            Leb128Reader.deserializeMap(Uid32.class, EntryTableValues.class, Leb128Writer.serializeMap(map));
+        assertEquals(map, map_);
+        for (Entry<Uid32, EntryTableValues> entry : map.entrySet()) {
+            EntryTableValues values = map_.get(entry.getKey());
+            assertEquals(entry.getValue().getPrevious(), values.getPrevious());
+            assertEquals(entry.getValue().getNew(), values.getNew());
+        }
+    }
+
+    /**
+     * A type whose codec computes a wrong size
+     */
+    public static class Misfit extends Leb128ByteArray {
+        public Misfit() {
+            super();
+        }
+
+        public Misfit(byte[] bytes) {
+            super(bytes);
+        }
+    }
+
+    @Test
+    public void testWrongSerializedSize() throws Exception {
+        Leb128Codecs.register(Misfit.class, new Leb128Codec<Misfit>() {
+            @Override
+            public Misfit read(Leb128Reader reader) throws CloudproofException {
+                return new Misfit(reader.readByteArray());
+            }
+
+            @Override
+            public void write(Leb128Writer writer,
+                              Misfit value)
+                throws CloudproofException {
+                writer.writeByteArray(value.getBytes());
+            }
+
+            @Override
+            public long serializedSize(Misfit value) {
+                return value.getBytes().length;
+            }
+        });
+        // the codec bug is reported, as it is when encoding a callback output
+        CloudproofException e = assertThrows(CloudproofException.class,
+            () -> Leb128Writer.serializeCollection(Arrays.asList(new Misfit("misfit".getBytes()))));
+        assertTrue(e.getMessage().startsWith("the serialized size is"));
+    }
 }
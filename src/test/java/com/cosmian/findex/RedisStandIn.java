@@ -0,0 +1,341 @@
+package com.cosmian.findex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A minimal Redis server running in the test JVM, for the tests and benchmarks of the Redis tables when no Redis
+ * server is available.
+ * <p>
+ * It understands the commands used by the Redis tables: GET, SET, MGET, DEL, SCAN, SCRIPT LOAD and FLUSH, and EVALSHA.
+ * Any loaded script is run as the conditional upsert script of the Entry Table.
+ */
+public class RedisStandIn implements Closeable {
+
+    private final ServerSocket serverSocket;
+
+    private final TreeMap<ByteBuffer, byte[]> data = new TreeMap<>();
+
+    private final Set<String> scripts = new HashSet<>();
+
+    private final Set<Socket> clients = new HashSet<>();
+
+    public RedisStandIn() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "redis-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+                Thread client = new Thread(() -> serve(socket), "redis-stand-in-client");
+                client.setDaemon(true);
+                client.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            while (true) {
+                List<byte[]> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                execute(command, out);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // disconnected
+        } finally {
+            synchronized (clients) {
+                clients.remove(socket);
+            }
+        }
+    }
+
+    //
+    // RESP protocol
+    //
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) {
+                return null;
+            }
+            sb.append((char) c);
+        }
+        in.read();
+        return sb.toString();
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        int count = Integer.parseInt(line.substring(1));
+        List<byte[]> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] arg = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(arg, read, length - read);
+                if (n < 0) {
+                    return null;
+                }
+                read += n;
+            }
+            in.read();
+            in.read();
+            command.add(arg);
+        }
+        return command;
+    }
+
+    private static void writeLine(OutputStream out,
+                                  String line)
+        throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static void writeBulk(OutputStream out,
+                                  byte[] bulk)
+        throws IOException {
+        if (bulk == null) {
+            writeLine(out, "$-1");
+            return;
+        }
+        writeLine(out, "$" + bulk.length);
+        out.write(bulk);
+        writeLine(out, "");
+    }
+
+    //
+    // Commands
+    //
+
+    private void execute(List<byte[]> command,
+                         OutputStream out)
+        throws IOException {
+        String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase();
+        synchronized (data) {
+            switch (name) {
+                case "PING":
+                    writeLine(out, "+PONG");
+                    break;
+                case "AUTH":
+                case "SELECT":
+                case "CLIENT":
+                case "QUIT":
+                    writeLine(out, "+OK");
+                    break;
+                case "GET":
+                    writeBulk(out, data.get(ByteBuffer.wrap(command.get(1))));
+                    break;
+                case "SET":
+                    data.put(ByteBuffer.wrap(command.get(1)), command.get(2));
+                    writeLine(out, "+OK");
+                    break;
+                case "MGET":
+                    writeLine(out, "*" + (command.size() - 1));
+                    for (int i = 1; i < command.size(); i++) {
+                        writeBulk(out, data.get(ByteBuffer.wrap(command.get(i))));
+                    }
+                    break;
+                case "DEL":
+                    int deleted = 0;
+                    for (int i = 1; i < command.size(); i++) {
+                        if (data.remove(ByteBuffer.wrap(command.get(i))) != null) {
+                            deleted++;
+                        }
+                    }
+                    writeLine(out, ":" + deleted);
+                    break;
+                case "SCAN":
+                    scan(command, out);
+                    break;
+                case "SCRIPT":
+                    String subcommand = new String(command.get(1), StandardCharsets.UTF_8).toUpperCase();
+                    if (subcommand.equals("LOAD")) {
+                        String sha = sha1(command.get(2));
+                        scripts.add(sha);
+                        writeBulk(out, sha.getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        scripts.clear();
+                        writeLine(out, "+OK");
+                    }
+                    break;
+                case "EVALSHA":
+                    evalsha(command, out);
+                    break;
+                default:
+                    writeLine(out, "-ERR unknown command '" + name + "'");
+            }
+        }
+    }
+
+    private void scan(List<byte[]> command,
+                      OutputStream out)
+        throws IOException {
+        int cursor = Integer.parseInt(new String(command.get(1), StandardCharsets.UTF_8));
+        byte[] pattern = null;
+        int count = 10;
+        for (int i = 2; i + 1 < command.size(); i += 2) {
+            String option = new String(command.get(i), StandardCharsets.UTF_8).toUpperCase();
+            if (option.equals("MATCH")) {
+                pattern = command.get(i + 1);
+            } else if (option.equals("COUNT")) {
+                count = Integer.parseInt(new String(command.get(i + 1), StandardCharsets.UTF_8));
+            }
+        }
+        // the cursor is the number of keys already scanned
+        List<byte[]> keys = new ArrayList<>();
+        Iterator<ByteBuffer> it = data.keySet().iterator();
+        int position = 0;
+        while (it.hasNext() && position < cursor + count) {
+            ByteBuffer key = it.next();
+            if (position++ >= cursor) {
+                byte[] bytes = new byte[key.remaining()];
+                key.duplicate().get(bytes);
+                if (pattern == null || matches(pattern, 0, bytes, 0)) {
+                    keys.add(bytes);
+                }
+            }
+        }
+        writeLine(out, "*2");
+        writeBulk(out, (it.hasNext() ? Integer.toString(position) : "0").getBytes(StandardCharsets.UTF_8));
+        writeLine(out, "*" + keys.size());
+        for (byte[] key : keys) {
+            writeBulk(out, key);
+        }
+    }
+
+    /**
+     * Match a glob pattern with {@code *}, {@code ?} and escapes
+     */
+    private static boolean matches(byte[] pattern,
+                                   int p,
+                                   byte[] key,
+                                   int k) {
+        while (p < pattern.length) {
+            byte c = pattern[p];
+            if (c == '*') {
+                for (int i = k; i <= key.length; i++) {
+                    if (matches(pattern, p + 1, key, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (k == key.length) {
+                return false;
+            }
+            if (c == '\\' && p + 1 < pattern.length) {
+                c = pattern[++p];
+            } else if (c == '?') {
+                c = key[k];
+            }
+            if (c != key[k]) {
+                return false;
+            }
+            p++;
+            k++;
+        }
+        return k == key.length;
+    }
+
+    private void evalsha(List<byte[]> command,
+                         OutputStream out)
+        throws IOException {
+        if (!scripts.contains(new String(command.get(1), StandardCharsets.UTF_8))) {
+            writeLine(out, "-NOSCRIPT No matching script. Please use EVAL.");
+            return;
+        }
+        ByteBuffer key = ByteBuffer.wrap(command.get(3));
+        byte[] previous = command.get(4);
+        byte[] current = data.get(key);
+        if (current == null ? previous.length == 0 : Arrays.equals(current, previous)) {
+            data.put(key, command.get(5));
+            writeLine(out, "*0");
+        } else {
+            writeLine(out, "*1");
+            writeBulk(out, current == null ? new byte[0] : current);
+        }
+    }
+
+    private static String sha1(byte[] script) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(script)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Forget the loaded scripts, as SCRIPT FLUSH does.
+     */
+    public void flushScripts() {
+        synchronized (data) {
+            scripts.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (clients) {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+}
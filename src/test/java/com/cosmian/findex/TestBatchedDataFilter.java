@@ -0,0 +1,136 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.BatchedDataFilter;
+import com.cosmian.jna.findex.DataFilter;
+import com.cosmian.jna.findex.FindexCallbackException;
+import com.cosmian.jna.findex.serde.Leb128Reader;
+import com.cosmian.jna.findex.serde.Leb128Writer;
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.utils.CloudproofException;
+import com.sun.jna.Memory;
+import com.sun.jna.ptr.IntByReference;
+
+public class TestBatchedDataFilter {
+
+    /**
+     * The even locations exist
+     */
+    static Set<Location> evenLocations(List<Location> locations) {
+        Set<Location> existing = new HashSet<>();
+        for (Location location : locations) {
+            if (Long.parseLong(location.toString()) % 2 == 0) {
+                existing.add(location);
+            }
+        }
+        return existing;
+    }
+
+    static List<Location> locations(int count) {
+        List<Location> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locations.add(new Location(Long.toString(i)));
+        }
+        return locations;
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            BatchedDataFilter filter = new BatchedDataFilter(locations -> {
+                threads.add(Thread.currentThread());
+                try {
+                    // a slow lookup, so that the sub-batches overlap
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new CloudproofException("interrupted", e);
+                }
+                return evenLocations(locations);
+            }, executor).subBatchSize(100);
+
+            List<Location> locations = locations(1000);
+            List<Location> remaining = filter.filter(locations);
+            assertEquals(500, remaining.size());
+            // the survivors keep their order
+            for (int i = 0; i < remaining.size(); i++) {
+                assertEquals(locations.get(2 * i), remaining.get(i));
+            }
+            assertTrue(threads.contains(Thread.currentThread()));
+            assertTrue(threads.size() > 1);
+            assertEquals(10, filter.getLookups());
+            assertEquals(1000, filter.getLocations());
+            assertEquals(500, filter.getSurvivors());
+
+            assertEquals(0, filter.filter(new ArrayList<>()).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BatchedDataFilter filter =
+                new BatchedDataFilter(TestBatchedDataFilter::evenLocations, executor).subBatchSize(64);
+            List<Location> locations = locations(1000);
+            byte[] input = Leb128Writer.serializeCollection(locations);
+            Memory items = new Memory(input.length);
+            items.write(0, input, 0, input.length);
+            Memory output = new Memory(input.length);
+            IntByReference outputSize = new IntByReference(input.length);
+
+            assertEquals(0, filter.callback(output, outputSize, items, input.length));
+            List<Location> remaining = Leb128Reader.deserializeCollection(Location.class,
+                output.getByteArray(0, outputSize.getValue()));
+            assertEquals(filter.filter(locations), remaining);
+
+            // the output is written whatever the size announced, as the native compaction does not retry the filter
+            IntByReference unsetSize = new IntByReference(0);
+            assertEquals(0, filter.callback(output, unsetSize, items, input.length));
+            assertEquals(outputSize.getValue(), unsetSize.getValue());
+
+            // a failed lookup is recorded for the calling thread
+            BatchedDataFilter failing = new BatchedDataFilter(batch -> {
+                if (batch.contains(new Location("900"))) {
+                    throw new CloudproofException("user database unavailable");
+                }
+                return evenLocations(batch);
+            }, executor).subBatchSize(64);
+            FindexCallbackException.clear();
+            int errorCode = failing.callback(output, outputSize, items, input.length);
+            CloudproofException e = assertThrows(CloudproofException.class,
+                () -> FindexCallbackException.rethrowOnErrorCode(errorCode));
+            assertEquals("user database unavailable", e.getMessage());
+
+            // a filter returning more locations than the input is not written past the native memory
+            DataFilter growing = new DataFilter() {
+                @Override
+                public List<Location> filter(List<Location> batch) {
+                    return locations(2000);
+                }
+            };
+            int overflowCode = growing.callback(output, outputSize, items, input.length);
+            e = assertThrows(CloudproofException.class,
+                () -> FindexCallbackException.rethrowOnErrorCode(overflowCode));
+            assertTrue(e.getMessage().contains("larger than the " + input.length + " bytes allocated"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+
+import com.cosmian.TestUtils;
+import com.cosmian.jna.findex.InMemoryEntryTable;
+import com.cosmian.jna.findex.JdbcEntryTableDatabase;
+import com.cosmian.jna.findex.RedisEntryTableDatabase;
+import com.cosmian.jna.findex.ffi.FindexNativeWrapper.UpsertCallback;
+import com.cosmian.jna.findex.serde.Leb128Reader;
+import com.cosmian.jna.findex.serde.Leb128Writer;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.Leb128;
+import com.sun.jna.Memory;
+import com.sun.jna.ptr.IntByReference;
+
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Benchmarks of the Findex callbacks. They do not need the native library: the callbacks are called the way Findex
+ * calls them, on an in-memory backend.
+ */
+public class TestBenchesFindex {
+
+    static final int[] BATCH_SIZES = new int[] {10, 100, 1_000, 10_000, 100_000};
+
+    /**
+     * Entry Table accepting all the upserts without storing them, to only measure the callback overhead
+     */
+    static class NoOpEntryTable extends TestCallbacks.MemoryEntryTable {
+        @Override
+        public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues) {
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * @return the average time of an upsert callback call in nanoseconds
+     */
+    static long benchUpsertCallback(int batchSize,
+                                    int iterations) {
+        Random rand = new Random();
+        Map<Uid32, EntryTableValue> oldValues = new HashMap<>();
+        Map<Uid32, EntryTableValue> newValues = new HashMap<>();
+        for (int i = 0; i < batchSize; i++) {
+            Uid32 uid = TestCallbacks.randomUid(rand);
+            // half of the lines already exist
+            if (i % 2 == 0) {
+                oldValues.put(uid, TestCallbacks.randomValue(rand));
+            }
+            newValues.put(uid, TestCallbacks.randomValue(rand));
+        }
+        Memory oldValuesMemory;
+        Memory newValuesMemory;
+        int oldValuesLength;
+        int newValuesLength;
+        try {
+            byte[] serializedOldValues = Leb128Writer.serializeMap(oldValues);
+            byte[] serializedNewValues = Leb128Writer.serializeMap(newValues);
+            oldValuesMemory = TestCallbacks.toMemory(serializedOldValues);
+            newValuesMemory = TestCallbacks.toMemory(serializedNewValues);
+            oldValuesLength = serializedOldValues.length;
+            newValuesLength = serializedNewValues.length;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        UpsertCallback callback = new NoOpEntryTable().upsertCallback();
+        Memory output = new Memory(16);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            int code = callback.callback(output, new IntByReference(16), oldValuesMemory, oldValuesLength,
+                newValuesMemory, newValuesLength);
+            if (code != 0) {
+                throw new RuntimeException("upsert callback failed with code " + code);
+            }
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    @Test
+    public void testBenchUpsertCallback() throws Exception {
+        System.out.println("");
+        System.out.println("---------------------------------------");
+        System.out.println(" Bench Entry Table upsert callback");
+        System.out.println("---------------------------------------");
+        System.out.println("");
+
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            benchUpsertCallback(10_000, 5);
+        }
+
+        double nsPerLineAt10000 = 0;
+        for (int batchSize : BATCH_SIZES) {
+            int iterations = Math.max(3, 1_000_000 / batchSize);
+            long time = benchUpsertCallback(batchSize, iterations);
+            double nsPerLine = (double) time / batchSize;
+            if (batchSize == 10_000) {
+                nsPerLineAt10000 = nsPerLine;
+            }
+            System.out.println("Upsert callback of " + batchSize + " lines: " + time / 1000 + "us ("
+                + String.format("%.0f", nsPerLine) + "ns per line)");
+        }
+
+        // linear scaling: the time per line does not grow tenfold with the batch size as a quadratic merge would
+        // (allowing for cache and GC effects)
+        double nsPerLineAt100000 = (double) benchUpsertCallback(100_000, 10) / 100_000;
+        assertTrue(nsPerLineAt100000 < 8 * nsPerLineAt10000, "the upsert callback does not scale linearly: "
+            + nsPerLineAt10000 + "ns per line for 10000 lines, " + nsPerLineAt100000 + "ns for 100000 lines");
+    }
+
+    /**
+     * The serialization before the buffer based engine: byte by byte through streams
+     */
+    static byte[] streamSerializeMap(Map<Uid32, EntryTableValue> map) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Leb128.writeU64(bos, map.size());
+        for (Map.Entry<Uid32, EntryTableValue> entry : map.entrySet()) {
+            bos.write(entry.getKey().getBytes());
+            Leb128.writeArray(bos, entry.getValue().getBytes());
+        }
+        return bos.toByteArray();
+    }
+
+    static Map<Uid32, EntryTableValue> streamDeserializeMap(byte[] bytes) throws Exception {
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        int size = (int) Leb128.readU64(bis);
+        Map<Uid32, EntryTableValue> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            byte[] uid = new byte[32];
+            bis.read(uid);
+            map.put(new Uid32(uid), new EntryTableValue(Leb128.readByteArray(bis)));
+        }
+        return map;
+    }
+
+    @Test
+    public void testBenchLeb128() throws Exception {
+        System.out.println("");
+        System.out.println("---------------------------------------");
+        System.out.println(" Bench Leb128 serialization");
+        System.out.println("---------------------------------------");
+        System.out.println("");
+
+        Random rand = new Random();
+        Map<Uid32, EntryTableValue> map = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            map.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        byte[] serialized = Leb128Writer.serializeMap(map);
+        assertArrayEquals(serialized, streamSerializeMap(map));
+
+        int iterations = 20;
+        long streamWrite = 0, bufferWrite = 0, streamRead = 0, bufferRead = 0;
+        // the first half of the iterations is a warm up
+        for (int i = 0; i < 2 * iterations; i++) {
+            long start = System.nanoTime();
+            streamSerializeMap(map);
+            long t1 = System.nanoTime();
+            Leb128Writer.serializeMap(map);
+            long t2 = System.nanoTime();
+            streamDeserializeMap(serialized);
+            long t3 = System.nanoTime();
+            Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class, serialized);
+            long t4 = System.nanoTime();
+            if (i >= iterations) {
+                streamWrite += t1 - start;
+                bufferWrite += t2 - t1;
+                streamRead += t3 - t2;
+                bufferRead += t4 - t3;
+            }
+        }
+        System.out.println("Serialize 50k Entry Table lines: stream " + streamWrite / iterations / 1000 + "us, buffer "
+            + bufferWrite / iterations / 1000 + "us");
+        System.out.println("Deserialize 50k Entry Table lines: stream " + streamRead / iterations / 1000
+            + "us, buffer " + bufferRead / iterations / 1000 + "us");
+    }
+
+    /**
+     * A data source handing out a single connection, never closed by its users, as a connection pool would
+     */
+    static DataSource singleConnection(Connection connection) {
+        Connection unclosable = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+            new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                    return null;
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        SQLiteDataSource dataSource = new SQLiteDataSource() {
+            @Override
+            public Connection getConnection() {
+                return unclosable;
+            }
+        };
+        return dataSource;
+    }
+
+    @Test
+    public void testBenchJdbc() throws Exception {
+        System.out.println("");
+        System.out.println("---------------------------------------");
+        System.out.println(" Bench JDBC Entry Table on SQLite");
+        System.out.println("---------------------------------------");
+        System.out.println("");
+
+        Random rand = new Random();
+        Map<Uid32, EntryTableValue> lines = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        List<Uid32> uids = new ArrayList<>(lines.keySet());
+
+        try (SqliteEntryTable sqlite = new SqliteEntryTable();
+            Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            JdbcEntryTableDatabase jdbc = new JdbcEntryTableDatabase(singleConnection(connection), "entry_table");
+            jdbc.createTable();
+            InMemoryEntryTable inMemory = new InMemoryEntryTable();
+
+            long start = System.nanoTime();
+            sqlite.insert(lines);
+            long t1 = System.nanoTime();
+            jdbc.insert(lines);
+            long t2 = System.nanoTime();
+            inMemory.insert(lines);
+            long t3 = System.nanoTime();
+            System.out.println("Insert 100k lines: test Sqlite table " + (t1 - start) / 1_000_000 + "ms, JDBC "
+                + (t2 - t1) / 1_000_000 + "ms, in memory " + (t3 - t2) / 1_000_000 + "ms");
+
+            for (int batchSize : new int[] {10, 100, 1_000, 10_000}) {
+                int iterations = Math.max(10, 100_000 / batchSize);
+                long sqliteTime = 0, jdbcTime = 0, inMemoryTime = 0;
+                // the first half of the iterations is a warm up
+                for (int i = 0; i < 2 * iterations; i++) {
+                    int from = rand.nextInt(uids.size() - batchSize);
+                    List<Uid32> batch = uids.subList(from, from + batchSize);
+                    long s0 = System.nanoTime();
+                    sqlite.fetch(batch);
+                    long s1 = System.nanoTime();
+                    jdbc.fetch(batch);
+                    long s2 = System.nanoTime();
+                    inMemory.fetch(batch);
+                    long s3 = System.nanoTime();
+                    if (i >= iterations) {
+                        sqliteTime += s1 - s0;
+                        jdbcTime += s2 - s1;
+                        inMemoryTime += s3 - s2;
+                    }
+                }
+                System.out.println("Fetch " + batchSize + " lines: test Sqlite table "
+                    + sqliteTime / iterations / 1000 + "us, JDBC " + jdbcTime / iterations / 1000 + "us, in memory "
+                    + inMemoryTime / iterations / 1000 + "us");
+            }
+        }
+    }
+
+    @Test
+    public void testBenchRedis() throws Exception {
+        System.out.println("");
+        System.out.println("---------------------------------------");
+        System.out.println(" Bench Redis Entry Table");
+        System.out.println("---------------------------------------");
+        System.out.println("");
+
+        // a Redis server if one is running, the stand-in otherwise
+        boolean redisIsDown = TestUtils.portAvailable(RedisConnection.redisHostname(), RedisConnection.redisPort());
+        try (RedisStandIn standIn = redisIsDown ? new RedisStandIn() : null;
+            JedisPool pool = redisIsDown ? new JedisPool(standIn.getHost(), standIn.getPort())
+                : new JedisPool(RedisConnection.redisHostname(), RedisConnection.redisPort())) {
+            System.out.println(redisIsDown ? "Using the Redis stand-in" : "Using the Redis server");
+            RedisEntryTable perKey = new RedisEntryTable(pool, RedisConnection.redisPassword());
+            RedisEntryTableDatabase pipelined = new RedisEntryTableDatabase(pool);
+
+            Random rand = new Random();
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 10_000; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            pipelined.insert(lines);
+
+            for (int batchSize : new int[] {10, 100, 1_000}) {
+                int iterations = Math.max(10, 10_000 / batchSize);
+                long perKeyTime = 0, pipelinedTime = 0;
+                // the first half of the iterations is a warm up
+                for (int i = 0; i < 2 * iterations; i++) {
+                    int from = rand.nextInt(uids.size() - batchSize);
+                    List<Uid32> batch = uids.subList(from, from + batchSize);
+                    long s0 = System.nanoTime();
+                    perKey.fetch(batch);
+                    long s1 = System.nanoTime();
+                    pipelined.fetch(batch);
+                    long s2 = System.nanoTime();
+                    if (i >= iterations) {
+                        perKeyTime += s1 - s0;
+                        pipelinedTime += s2 - s1;
+                    }
+                }
+                System.out.println("Fetch " + batchSize + " lines: test Redis table "
+                    + perKeyTime / iterations / 1000 + "us, pipelined " + pipelinedTime / iterations / 1000 + "us");
+            }
+
+            for (int batchSize : new int[] {10, 100, 1_000}) {
+                int iterations = 10;
+                long perKeyTime = 0, pipelinedTime = 0;
+                for (int i = 0; i < 2 * iterations; i++) {
+                    int from = rand.nextInt(uids.size() - batchSize);
+                    Map<Uid32, EntryTableValues> first = new HashMap<>();
+                    Map<Uid32, EntryTableValues> second = new HashMap<>();
+                    for (Uid32 uid : uids.subList(from, from + batchSize)) {
+                        EntryTableValue value = TestCallbacks.randomValue(rand);
+                        first.put(uid, new EntryTableValues(lines.get(uid), value));
+                        lines.put(uid, TestCallbacks.randomValue(rand));
+                        second.put(uid, new EntryTableValues(value, lines.get(uid)));
+                    }
+                    long s0 = System.nanoTime();
+                    perKey.upsert(first);
+                    long s1 = System.nanoTime();
+                    pipelined.upsert(second);
+                    long s2 = System.nanoTime();
+                    if (i >= iterations) {
+                        perKeyTime += s1 - s0;
+                        pipelinedTime += s2 - s1;
+                    }
+                }
+                System.out.println("Upsert " + batchSize + " lines: test Redis table "
+                    + perKeyTime / iterations / 1000 + "us, pipelined " + pipelinedTime / iterations / 1000 + "us");
+            }
+            pipelined.delete(uids);
+        }
+    }
+}
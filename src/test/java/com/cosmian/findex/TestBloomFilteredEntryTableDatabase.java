@@ -0,0 +1,109 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.findex.TestCallbacks.MemoryEntryTable;
+import com.cosmian.jna.findex.BloomFilteredEntryTableDatabase;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32BloomFilter;
+import com.cosmian.utils.CloudproofException;
+
+public class TestBloomFilteredEntryTableDatabase {
+
+    @Test
+    public void testBloomFilter() throws Exception {
+        Random rand = new Random();
+        MemoryEntryTable entryTable = new MemoryEntryTable();
+        for (int i = 0; i < 10_000; i++) {
+            entryTable.table.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        BloomFilteredEntryTableDatabase filtered = new BloomFilteredEntryTableDatabase(entryTable, 20_000, 0.01);
+
+        // no false negatives
+        List<Uid32> existing = new ArrayList<>(entryTable.table.keySet());
+        assertEquals(existing.size(), filtered.fetch(existing).size());
+
+        // absent uids are mostly not fetched
+        List<Uid32> absent = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            absent.add(TestCallbacks.randomUid(rand));
+        }
+        assertEquals(0, filtered.fetch(absent).size());
+        System.out.println("Bloom filter false positive rate: " + filtered.getFalsePositiveRate() + " (expected "
+            + filtered.getFilter().getExpectedFalsePositiveRate() + ")");
+        assert (filtered.getFalsePositiveRate() < 0.02);
+        assertEquals(10_000, filtered.getSkipped() + filtered.getFalsePositives());
+
+        // inserted uids are added to the filter
+        Uid32 uid = TestCallbacks.randomUid(rand);
+        filtered.insert(Collections.singletonMap(uid, TestCallbacks.randomValue(rand)));
+        assertEquals(1, filtered.fetch(Collections.singletonList(uid)).size());
+
+        // the saved filter is the same
+        Path path = Files.createTempFile("bloom", ".bin");
+        try {
+            filtered.save(path);
+            Uid32BloomFilter loaded = Uid32BloomFilter.load(path);
+            for (Uid32 u : existing) {
+                assert (loaded.mightContain(u));
+            }
+            assert (loaded.mightContain(uid));
+            for (Uid32 u : absent) {
+                assertEquals(filtered.getFilter().mightContain(u), loaded.mightContain(u));
+            }
+            assertEquals(filtered.getFilter().getInsertions(), loaded.getInsertions());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testWritesDuringRebuild() throws Exception {
+        Random rand = new Random();
+        Uid32 written = TestCallbacks.randomUid(rand);
+        BloomFilteredEntryTableDatabase[] filtered = new BloomFilteredEntryTableDatabase[1];
+        MemoryEntryTable entryTable = new MemoryEntryTable() {
+            @Override
+            public Set<Uid32> fetchAllUids() {
+                Set<Uid32> uids = new HashSet<>(table.keySet());
+                if (filtered[0] != null) {
+                    // a UID written once the scan is done
+                    Thread writer = new Thread(() -> {
+                        try {
+                            filtered[0].insert(Collections.singletonMap(written, TestCallbacks.randomValue(rand)));
+                        } catch (CloudproofException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    writer.start();
+                    try {
+                        writer.join();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return uids;
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            entryTable.table.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        filtered[0] = new BloomFilteredEntryTableDatabase(entryTable, 1000, 0.01);
+
+        filtered[0].rebuild(1000, 0.01);
+        assertTrue(filtered[0].getFilter().mightContain(written));
+        assertEquals(1, filtered[0].fetch(Collections.singletonList(written)).size());
+    }
+}
@@ -0,0 +1,155 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.CachingChainTableDatabase;
+import com.cosmian.jna.findex.ChainTableDatabase;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+
+public class TestCachingChainTableDatabase {
+
+    /**
+     * A minimal in-memory Chain Table
+     */
+    static class MemoryChainTable implements ChainTableDatabase {
+
+        final Map<Uid32, ChainTableValue> table = new HashMap<>();
+
+        int fetchCount = 0;
+
+        @Override
+        public List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) {
+            fetchCount++;
+            List<Tuple<Uid32, ChainTableValue>> results = new ArrayList<>(uids.size());
+            for (Uid32 uid : uids) {
+                ChainTableValue value = table.get(uid);
+                if (value != null) {
+                    results.add(new Tuple<>(uid, value));
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public void insert(Map<Uid32, ChainTableValue> uidsAndValues) {
+            table.putAll(uidsAndValues);
+        }
+
+        @Override
+        public void delete(List<Uid32> uids) {
+            table.keySet().removeAll(uids);
+        }
+    }
+
+    static ChainTableValue randomValue(Random rand) {
+        byte[] bytes = new byte[1 + rand.nextInt(200)];
+        rand.nextBytes(bytes);
+        return new ChainTableValue(bytes);
+    }
+
+    static Map<Uid32, ChainTableValue> toMap(List<Tuple<Uid32, ChainTableValue>> tuples) {
+        Map<Uid32, ChainTableValue> map = new HashMap<>();
+        for (Tuple<Uid32, ChainTableValue> tuple : tuples) {
+            map.put(tuple.getLeft(), tuple.getRight());
+        }
+        return map;
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Random rand = new Random();
+        MemoryChainTable chainTable = new MemoryChainTable();
+        for (int i = 0; i < 100; i++) {
+            chainTable.table.put(TestCallbacks.randomUid(rand), randomValue(rand));
+        }
+        CachingChainTableDatabase cache = new CachingChainTableDatabase(chainTable, 1 << 20);
+
+        List<Uid32> uids = new ArrayList<>(chainTable.table.keySet());
+        assertEquals(chainTable.table, toMap(cache.fetch(uids)));
+        assertEquals(chainTable.table, toMap(cache.fetch(uids)));
+        assertEquals(1, chainTable.fetchCount);
+        assertEquals(100, cache.getHits());
+        assertEquals(100, cache.size());
+
+        // deleted lines are invalidated
+        cache.delete(uids.subList(0, 10));
+        assertEquals(90, cache.fetch(uids).size());
+        assertEquals(2, chainTable.fetchCount);
+        assertEquals(90, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Random rand = new Random();
+        MemoryChainTable chainTable = new MemoryChainTable();
+        List<Uid32> uids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Uid32 uid = TestCallbacks.randomUid(rand);
+            uids.add(uid);
+            chainTable.table.put(uid, randomValue(rand));
+        }
+        // about a tenth of the lines fit in the cache
+        CachingChainTableDatabase cache = new CachingChainTableDatabase(chainTable, 100 * (36 + 100) + 17);
+
+        // fetch the lines in small batches, several times, so that the ring buffer wraps around
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < uids.size(); i += 7) {
+                List<Uid32> batch = uids.subList(i, Math.min(i + 7, uids.size()));
+                Map<Uid32, ChainTableValue> fetched = toMap(cache.fetch(batch));
+                assertEquals(batch.size(), fetched.size());
+                for (Uid32 uid : batch) {
+                    assertEquals(chainTable.table.get(uid), fetched.get(uid));
+                }
+                assert (cache.getUsedBytes() <= 100 * (36 + 100) + 17);
+            }
+        }
+        assert (cache.getEvictions() > 0);
+        // without deletes, each missed line is cached until it is evicted
+        assertEquals(3 * 1000, cache.getHits() + cache.getMisses());
+        assertEquals(cache.getMisses() - cache.getEvictions(), cache.size());
+        // the most recently fetched lines are cached
+        long hits = cache.getHits();
+        cache.fetch(uids.subList(uids.size() - 5, uids.size()));
+        assertEquals(hits + 5, cache.getHits());
+    }
+
+    @Test
+    public void testLinesLargerThanHalfTheCapacity() throws Exception {
+        Random rand = new Random();
+        for (int capacity : new int[] {100, 1 << 16}) {
+            MemoryChainTable chainTable = new MemoryChainTable();
+            List<Uid32> uids = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Uid32 uid = TestCallbacks.randomUid(rand);
+                uids.add(uid);
+                byte[] bytes = new byte[1 + rand.nextInt(capacity * 4 / 5)];
+                rand.nextBytes(bytes);
+                chainTable.table.put(uid, new ChainTableValue(bytes));
+            }
+            CachingChainTableDatabase cache = new CachingChainTableDatabase(chainTable, capacity);
+
+            // most records do not fit behind the previous one: the ring empties and restarts at the next wrap
+            for (int round = 0; round < 2; round++) {
+                for (Uid32 uid : uids) {
+                    List<Tuple<Uid32, ChainTableValue>> fetched = cache.fetch(Collections.singletonList(uid));
+                    assertEquals(1, fetched.size());
+                    assertEquals(chainTable.table.get(uid), fetched.get(0).getRight());
+                    assertTrue(cache.getUsedBytes() <= capacity);
+                    assertTrue(cache.size() <= 1 + capacity / 36);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.findex.TestCallbacks.MemoryEntryTable;
+import com.cosmian.jna.findex.CachingEntryTableDatabase;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+public class TestCachingEntryTableDatabase {
+
+    static Map<Uid32, EntryTableValue> toMap(List<Tuple<Uid32, EntryTableValue>> tuples) {
+        Map<Uid32, EntryTableValue> map = new HashMap<>();
+        for (Tuple<Uid32, EntryTableValue> tuple : tuples) {
+            map.put(tuple.getLeft(), tuple.getRight());
+        }
+        return map;
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        Random rand = new Random();
+        MemoryEntryTable entryTable = new MemoryEntryTable();
+        Map<Uid32, EntryTableValue> lines = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        entryTable.table.putAll(lines);
+        CachingEntryTableDatabase cache = new CachingEntryTableDatabase(entryTable, 1 << 20);
+
+        List<Uid32> uids = new ArrayList<>(lines.keySet());
+        // a missing line is not cached
+        uids.add(TestCallbacks.randomUid(rand));
+        assertEquals(lines, toMap(cache.fetch(uids)));
+        assertEquals(lines, toMap(cache.fetch(uids)));
+        assertEquals(2, entryTable.fetchCount);
+        assertEquals(100, cache.getHits());
+        assertEquals(102, cache.getMisses());
+        assertEquals(100, cache.size());
+
+        // the cache follows the upserts, including the failed ones
+        Uid32 updated = uids.get(0);
+        Uid32 concurrentlyUpdated = uids.get(1);
+        EntryTableValue newValue = TestCallbacks.randomValue(rand);
+        EntryTableValue concurrentValue = TestCallbacks.randomValue(rand);
+        entryTable.table.put(concurrentlyUpdated, concurrentValue);
+        Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+        upserts.put(updated, new EntryTableValues(lines.get(updated), newValue));
+        upserts.put(concurrentlyUpdated,
+            new EntryTableValues(lines.get(concurrentlyUpdated), TestCallbacks.randomValue(rand)));
+        Map<Uid32, EntryTableValue> failed = cache.upsert(upserts);
+        assertEquals(Collections.singletonMap(concurrentlyUpdated, concurrentValue), failed);
+
+        Map<Uid32, EntryTableValue> fetched = toMap(cache.fetch(uids.subList(0, 2)));
+        assertEquals(newValue, fetched.get(updated));
+        assertEquals(concurrentValue, fetched.get(concurrentlyUpdated));
+        // served from the cache
+        assertEquals(2, entryTable.fetchCount);
+
+        // deleted lines are no longer cached
+        cache.delete(uids.subList(0, 2));
+        assertEquals(0, cache.fetch(uids.subList(0, 2)).size());
+        assertEquals(98, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Random rand = new Random();
+        MemoryEntryTable entryTable = new MemoryEntryTable();
+        CachingEntryTableDatabase cache = new CachingEntryTableDatabase(entryTable, 10 * (128 + 64));
+
+        List<Uid32> uids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Uid32 uid = TestCallbacks.randomUid(rand);
+            uids.add(uid);
+            cache.insert(Collections.singletonMap(uid, TestCallbacks.randomValue(rand)));
+        }
+        assertEquals(10, cache.size());
+        assertEquals(10, cache.getEvictions());
+        assertEquals(10 * (128 + 64), cache.getWeightedSize());
+
+        // the least recently inserted lines were evicted
+        cache.fetch(uids.subList(10, 20));
+        assertEquals(1.0, cache.getHitRatio());
+        cache.fetch(uids.subList(0, 10));
+        assertEquals(0.5, cache.getHitRatio());
+        assertEquals(1, entryTable.fetchCount);
+    }
+
+    @Test
+    public void testConcurrentUpserts() throws Exception {
+        Random rand = new Random();
+        Uid32 uid = TestCallbacks.randomUid(rand);
+        EntryTableValue v1 = TestCallbacks.randomValue(rand);
+        EntryTableValue v2 = TestCallbacks.randomValue(rand);
+        EntryTableValue v3 = TestCallbacks.randomValue(rand);
+        CachingEntryTableDatabase[] cache = new CachingEntryTableDatabase[1];
+        MemoryEntryTable entryTable = new MemoryEntryTable() {
+            boolean first = true;
+
+            @Override
+            public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues) {
+                Map<Uid32, EntryTableValue> failed = super.upsert(uidsAndValues);
+                if (first) {
+                    // another writer commits V2 -> V3 and updates the cache before this upsert returns
+                    first = false;
+                    try {
+                        cache[0].upsert(Collections.singletonMap(uid, new EntryTableValues(v2, v3)));
+                    } catch (CloudproofException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return failed;
+            }
+        };
+        entryTable.table.put(uid, v1);
+        cache[0] = new CachingEntryTableDatabase(entryTable, 1 << 20);
+
+        assertEquals(0, cache[0].upsert(Collections.singletonMap(uid, new EntryTableValues(v1, v2))).size());
+        // the older V2 does not replace the cached V3
+        assertEquals(v3, toMap(cache[0].fetch(Collections.singletonList(uid))).get(uid));
+    }
+}
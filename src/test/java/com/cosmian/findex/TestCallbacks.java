@@ -0,0 +1,248 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.EntryTableDatabase;
+import com.cosmian.jna.findex.FindexCallbackException;
+import com.cosmian.jna.findex.ffi.FindexNativeWrapper.FetchCallback;
+import com.cosmian.jna.findex.ffi.RetainedOutput;
+import com.cosmian.jna.findex.serde.Leb128Reader;
+import com.cosmian.jna.findex.serde.Leb128Writer;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+import com.sun.jna.Memory;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Call the default table callbacks the way the native library does, without loading it.
+ */
+public class TestCallbacks {
+
+    /**
+     * A minimal in-memory Entry Table
+     */
+    static class MemoryEntryTable implements EntryTableDatabase {
+
+        final Map<Uid32, EntryTableValue> table = new HashMap<>();
+
+        int fetchCount = 0;
+
+        @Override
+        public Set<Uid32> fetchAllUids() {
+            return table.keySet();
+        }
+
+        @Override
+        public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) {
+            fetchCount++;
+            List<Tuple<Uid32, EntryTableValue>> results = new ArrayList<>(uids.size());
+            for (Uid32 uid : uids) {
+                EntryTableValue value = table.get(uid);
+                if (value != null) {
+                    results.add(new Tuple<>(uid, value));
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> uidsAndValues) {
+            Map<Uid32, EntryTableValue> failed = new HashMap<>();
+            for (Map.Entry<Uid32, EntryTableValues> entry : uidsAndValues.entrySet()) {
+                EntryTableValue current = table.get(entry.getKey());
+                EntryTableValue previous = entry.getValue().getPrevious();
+                boolean expected = current == null ? previous.getBytes().length == 0 : current.equals(previous);
+                if (expected) {
+                    table.put(entry.getKey(), entry.getValue().getNew());
+                } else {
+                    failed.put(entry.getKey(), current);
+                }
+            }
+            return failed;
+        }
+
+        @Override
+        public void insert(Map<Uid32, EntryTableValue> uidsAndValues) {
+            table.putAll(uidsAndValues);
+        }
+
+        @Override
+        public void delete(List<Uid32> uids) throws CloudproofException {
+            table.keySet().removeAll(uids);
+        }
+    }
+
+    static Uid32 randomUid(Random rand) {
+        byte[] bytes = new byte[32];
+        rand.nextBytes(bytes);
+        return new Uid32(bytes);
+    }
+
+    static EntryTableValue randomValue(Random rand) {
+        byte[] bytes = new byte[64];
+        rand.nextBytes(bytes);
+        return new EntryTableValue(bytes);
+    }
+
+    static Memory toMemory(byte[] bytes) {
+        Memory memory = new Memory(Math.max(1, bytes.length));
+        memory.write(0, bytes, 0, bytes.length);
+        return memory;
+    }
+
+    @Test
+    public void testFetchCallback() throws Exception {
+        Random rand = new Random();
+        MemoryEntryTable entryTable = new MemoryEntryTable();
+        Map<Uid32, EntryTableValue> lines = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            lines.put(randomUid(rand), randomValue(rand));
+        }
+        byte[] serializedLines = Leb128Writer.serializeMap(lines);
+        assertEquals(0, entryTable.insertCallback().callback(toMemory(serializedLines), serializedLines.length));
+        assertEquals(lines, entryTable.table);
+
+        byte[] serializedUids = Leb128Writer.serializeCollection(new ArrayList<>(lines.keySet()));
+        Memory uids = toMemory(serializedUids);
+
+        // the output is too small: the callback returns the required size
+        FetchCallback fetchCallback = entryTable.fetchCallback();
+        Memory output = new Memory(16);
+        IntByReference outputLength = new IntByReference(16);
+        assertEquals(1, fetchCallback.callback(output, outputLength, uids, serializedUids.length));
+        int requiredLength = outputLength.getValue();
+        assertEquals(Leb128Writer.serializedSizeOfEntryCollection(lines.entrySet()), requiredLength);
+
+        // the retry encodes the retained values without fetching them again
+        output = new Memory(requiredLength);
+        outputLength = new IntByReference(requiredLength);
+        assertEquals(0, fetchCallback.callback(output, outputLength, uids, serializedUids.length));
+        assertEquals(requiredLength, outputLength.getValue());
+        assertEquals(1, entryTable.fetchCount);
+
+        // nothing is retained after the retry
+        assertEquals(0, fetchCallback.callback(output, outputLength, uids, serializedUids.length));
+        assertEquals(2, entryTable.fetchCount);
+
+        // a result the native library did not ask again is dropped once the native call returns
+        IntByReference smallLength = new IntByReference(16);
+        assertEquals(1, fetchCallback.callback(new Memory(16), smallLength, uids, serializedUids.length));
+        RetainedOutput.clear();
+        assertEquals(0, fetchCallback.callback(output, outputLength, uids, serializedUids.length));
+        assertEquals(4, entryTable.fetchCount);
+
+        // a list of tuples is serialized as a map
+        Map<Uid32, EntryTableValue> fetched = Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class,
+            output.getByteArray(0, requiredLength));
+        assertEquals(lines, fetched);
+
+        assertEquals(0, entryTable.deleteCallback().callback(uids, serializedUids.length));
+        assert (entryTable.table.isEmpty());
+    }
+
+    @Test
+    public void testUpsertCallback() throws Exception {
+        Random rand = new Random();
+        MemoryEntryTable entryTable = new MemoryEntryTable();
+        Map<Uid32, EntryTableValue> existing = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            existing.put(randomUid(rand), randomValue(rand));
+        }
+        entryTable.table.putAll(existing);
+
+        // the old values known by Findex: right for half of the existing lines, outdated for the other half
+        Map<Uid32, EntryTableValue> oldValues = new HashMap<>();
+        Map<Uid32, EntryTableValue> newValues = new HashMap<>();
+        Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+        int i = 0;
+        for (Map.Entry<Uid32, EntryTableValue> entry : existing.entrySet()) {
+            if (i++ % 2 == 0) {
+                oldValues.put(entry.getKey(), entry.getValue());
+            } else {
+                oldValues.put(entry.getKey(), randomValue(rand));
+                expectedFailures.put(entry.getKey(), entry.getValue());
+            }
+            newValues.put(entry.getKey(), randomValue(rand));
+        }
+        // and new lines, without old value
+        for (int j = 0; j < 50; j++) {
+            newValues.put(randomUid(rand), randomValue(rand));
+        }
+
+        byte[] serializedOldValues = Leb128Writer.serializeMap(oldValues);
+        byte[] serializedNewValues = Leb128Writer.serializeMap(newValues);
+        Memory output = new Memory(1 << 16);
+        IntByReference outputLength = new IntByReference(1 << 16);
+        assertEquals(0, entryTable.upsertCallback().callback(output, outputLength,
+            toMemory(serializedOldValues), serializedOldValues.length,
+            toMemory(serializedNewValues), serializedNewValues.length));
+
+        Map<Uid32, EntryTableValue> failures = Leb128Reader.deserializeMap(Uid32.class, EntryTableValue.class,
+            output.getByteArray(0, outputLength.getValue()));
+        assertEquals(expectedFailures, failures);
+        for (Map.Entry<Uid32, EntryTableValue> entry : newValues.entrySet()) {
+            EntryTableValue expected = expectedFailures.containsKey(entry.getKey())
+                ? expectedFailures.get(entry.getKey())
+                : entry.getValue();
+            assertEquals(expected, entryTable.table.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testCallbackExceptions() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final String message = "callback error " + t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        FindexCallbackException.clear();
+                        int errorCode = FindexCallbackException.record(new CloudproofException(message));
+                        // only the first exception of a call is kept
+                        FindexCallbackException.record(new CloudproofException("consequence"));
+                        try {
+                            FindexCallbackException.rethrowOnErrorCode(errorCode);
+                            return false;
+                        } catch (CloudproofException e) {
+                            if (!message.equals(e.getMessage())) {
+                                return false;
+                            }
+                        }
+                        // the slot is emptied by the rethrow
+                        try {
+                            FindexCallbackException.rethrowOnErrorCode(errorCode);
+                            return false;
+                        } catch (CloudproofException e) {
+                            if (message.equals(e.getMessage())) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assert (future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.TestUtils;
+import com.cosmian.jna.findex.Findex;
+import com.cosmian.jna.findex.ffi.SearchResults;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.IndexedValue;
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+/**
+ * Check that several Findex instances can be used concurrently in the same JVM without interfering with each other.
+ */
+public class TestConcurrentFindex {
+
+    static final int NUMBER_OF_INDEXES = 16;
+
+    static final int LOCATIONS_PER_INDEX = 50;
+
+    static final int SEARCHES_PER_RUN = 2000;
+
+    /**
+     * A Sqlite connection must not be used from several threads at the same time: serialize the calls to a given
+     * index backend. Calls to different indexes still run in parallel.
+     */
+    static class LockedEntryTable extends SqliteEntryTable {
+
+        LockedEntryTable() throws SQLException {
+            super();
+        }
+
+        @Override
+        public synchronized List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+            return super.fetch(uids);
+        }
+
+        @Override
+        public synchronized Map<Uid32, EntryTableValue> upsert(Map<Uid32, EntryTableValues> modifications)
+            throws CloudproofException {
+            return super.upsert(modifications);
+        }
+    }
+
+    static class LockedChainTable extends SqliteChainTable {
+
+        LockedChainTable() throws SQLException {
+            super();
+        }
+
+        @Override
+        public synchronized List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+            return super.fetch(uids);
+        }
+
+        @Override
+        public synchronized void insert(Map<Uid32, ChainTableValue> uidsAndValues) throws CloudproofException {
+            super.insert(uidsAndValues);
+        }
+    }
+
+    @BeforeAll
+    public static void before_all() {
+        TestUtils.initLogging();
+    }
+
+    /**
+     * All the indexes use the same keyword, each one pointing to a distinct range of locations.
+     */
+    static Set<Long> expectedLocations(int index) {
+        Set<Long> locations = new HashSet<>();
+        for (long j = 0; j < LOCATIONS_PER_INDEX; j++) {
+            locations.add(index * 1_000L + j);
+        }
+        return locations;
+    }
+
+    static List<Findex> createIndexes() throws Exception {
+        List<Findex> indexes = new ArrayList<>(NUMBER_OF_INDEXES);
+        for (int i = 0; i < NUMBER_OF_INDEXES; i++) {
+            Findex findex = new Findex(IndexUtils.generateKey(), "label_" + i, new LockedEntryTable(),
+                new LockedChainTable());
+            Map<IndexedValue, Set<Keyword>> associations = new HashMap<>();
+            for (long location : expectedLocations(i)) {
+                associations.put(new Location(location).toIndexedValue(),
+                    new HashSet<>(Arrays.asList(new Keyword("shared"), new Keyword("index_" + i))));
+            }
+            findex.add(associations);
+            indexes.add(findex);
+        }
+        return indexes;
+    }
+
+    /**
+     * Run random searches on all indexes using the given number of threads and check each result.
+     *
+     * @return the number of searches per second
+     */
+    static double run(List<Findex> indexes,
+                      int threads)
+        throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<Void>> futures = new ArrayList<>(SEARCHES_PER_RUN);
+            for (int s = 0; s < SEARCHES_PER_RUN; s++) {
+                futures.add(executor.submit(() -> {
+                    int i = ThreadLocalRandom.current().nextInt(indexes.size());
+                    Set<Long> found = indexes.get(i).search(new String[] {"shared"}).getNumbers();
+                    assertEquals(expectedLocations(i), found, "index " + i + " returned foreign results");
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return SEARCHES_PER_RUN * 1e9 / (System.nanoTime() - start);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentIndexes() throws Exception {
+        System.out.println("");
+        System.out.println("---------------------------------------");
+        System.out.println("Findex concurrent indexes");
+        System.out.println("---------------------------------------");
+        System.out.println("");
+
+        List<Findex> indexes = createIndexes();
+        try {
+            // sequential check: every instance must still target its own index after all the others were created
+            for (int i = 0; i < indexes.size(); i++) {
+                assertEquals(expectedLocations(i), indexes.get(i).search(new String[] {"shared"}).getNumbers());
+                assertTrue(indexes.get(i).search(new String[] {"index_" + ((i + 1) % NUMBER_OF_INDEXES)}).getNumbers()
+                    .isEmpty());
+            }
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            double single = run(indexes, 1);
+            double multi = run(indexes, cores);
+            System.out.println("Searches/s with 1 thread: " + (long) single);
+            System.out.println("Searches/s with " + cores + " threads: " + (long) multi
+                + " (x" + String.format("%.2f", multi / single) + ")");
+        } finally {
+            for (Findex findex : indexes) {
+                findex.close();
+            }
+        }
+        System.out.println("<== successfully ran concurrent searches on " + NUMBER_OF_INDEXES + " indexes");
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable()) {
+            Findex findex = new Findex(IndexUtils.generateKey(), "label", entryTable, chainTable);
+            findex.add(TestSqlite.mapToIndex("John", 1));
+            assertEquals(new HashSet<>(Arrays.asList(1L)), findex.search(new String[] {"John"}).getNumbers());
+
+            findex.close();
+            assertTrue(findex.isClosed());
+            assertThrows(CloudproofException.class, () -> findex.search(new String[] {"John"}));
+            // closing twice is a no-op
+            findex.close();
+        }
+    }
+
+    /**
+     * Entry Table recording the maximum number of concurrent fetches
+     */
+    static class CountingEntryTable extends LockedEntryTable {
+        final AtomicInteger current = new AtomicInteger();
+
+        final AtomicInteger max = new AtomicInteger();
+
+        CountingEntryTable() throws SQLException {
+            super();
+        }
+
+        @Override
+        public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+            int concurrent = current.incrementAndGet();
+            max.accumulateAndGet(concurrent, Math::max);
+            try {
+                Thread.sleep(2);
+                return super.fetch(uids);
+            } catch (InterruptedException e) {
+                throw new CloudproofException("interrupted", e);
+            } finally {
+                current.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (CountingEntryTable entryTable = new CountingEntryTable();
+            LockedChainTable chainTable = new LockedChainTable();
+            Findex findex = new Findex(IndexUtils.generateKey(), "label", entryTable, chainTable)) {
+            findex.setMaxInFlightAsyncCalls(2);
+
+            Map<IndexedValue, Set<Keyword>> associations = new HashMap<>();
+            for (long location : expectedLocations(0)) {
+                associations.put(new Location(location).toIndexedValue(),
+                    new HashSet<>(Arrays.asList(new Keyword("shared"))));
+            }
+            findex.addAsync(associations, executor).get();
+
+            List<CompletableFuture<SearchResults>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(findex.searchAsync(new HashSet<>(Arrays.asList(new Keyword("shared"))), executor));
+            }
+            for (CompletableFuture<SearchResults> future : futures) {
+                assertEquals(expectedLocations(0), future.get().getNumbers());
+            }
+            assertTrue(entryTable.max.get() <= 2, "too many in-flight calls: " + entryTable.max.get());
+
+            findex.deleteAsync(associations, executor).get();
+            assertTrue(findex.searchAsync(new HashSet<>(Arrays.asList(new Keyword("shared"))), executor).get()
+                .getNumbers().isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
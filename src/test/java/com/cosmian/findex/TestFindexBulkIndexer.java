@@ -0,0 +1,100 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.FindexBulkIndexer;
+import com.cosmian.jna.findex.ffi.KeywordSet;
+import com.cosmian.jna.findex.structs.IndexedValue;
+import com.cosmian.jna.findex.structs.Keyword;
+import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.utils.CloudproofException;
+
+public class TestFindexBulkIndexer {
+
+    static Stream<Map.Entry<IndexedValue, Set<Keyword>>> records(int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            Set<Keyword> keywords = new HashSet<>();
+            keywords.add(new Keyword("keyword" + (i % 100)));
+            keywords.add(new Keyword("other" + (i % 7)));
+            return new SimpleEntry<>(new IndexedValue(new Location((long) i)), keywords);
+        });
+    }
+
+    @Test
+    public void testBulkIndexer() throws Exception {
+        Map<IndexedValue, Set<Keyword>> index = new ConcurrentHashMap<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+
+        FindexBulkIndexer indexer = new FindexBulkIndexer(batch -> {
+            int n = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(n, Math::max);
+            try {
+                // one batch out of 5 conflicts on its first attempt
+                if (calls.incrementAndGet() % 5 == 0) {
+                    throw new CloudproofException("conflict");
+                }
+                Thread.sleep(1);
+                index.putAll(batch);
+                return new KeywordSet();
+            } catch (InterruptedException e) {
+                throw new CloudproofException("interrupted", e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }).batchSize(200).parallelism(4).retryBackoffMillis(1).retryIf(e -> e.getMessage().equals("conflict"));
+
+        assertEquals(2 * 10_000, indexer.index(records(10_000)));
+        assertEquals(10_000, index.size());
+        assertEquals(100, indexer.getBatches());
+        assert (indexer.getRetries() > 0);
+        assert (maxInFlight.get() <= 4);
+        assert (indexer.getThroughput() > 0);
+        System.out.println("Bulk indexing: " + (long) indexer.getThroughput() + " associations/s, "
+            + indexer.getRetries() + " retries, " + maxInFlight.get() + " concurrent batches");
+    }
+
+    @Test
+    public void testBulkIndexerFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        FindexBulkIndexer indexer = new FindexBulkIndexer(batch -> {
+            calls.incrementAndGet();
+            throw new CloudproofException("backend down", new IOException("connection reset"));
+        }).batchSize(10).parallelism(2).maxRetries(2).retryBackoffMillis(1);
+
+        CloudproofException e = assertThrows(CloudproofException.class, () -> indexer.index(records(10_000)));
+        assertEquals("backend down", e.getMessage());
+        // indexing stops after the first failed batch
+        assert (calls.get() < 20);
+        assertEquals(0, indexer.getAssociations());
+    }
+
+    @Test
+    public void testNonRetryableFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        FindexBulkIndexer indexer = new FindexBulkIndexer(batch -> {
+            calls.incrementAndGet();
+            throw new CloudproofException("This Findex instance is closed");
+        }).batchSize(10).parallelism(1).maxRetries(5).retryBackoffMillis(1);
+
+        CloudproofException e = assertThrows(CloudproofException.class, () -> indexer.index(records(10_000)));
+        assertEquals("This Findex instance is closed", e.getMessage());
+        // surfaced at once, without retry
+        assertEquals(1, calls.get());
+        assertEquals(0, indexer.getRetries());
+    }
+}
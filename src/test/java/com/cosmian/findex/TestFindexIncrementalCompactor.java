@@ -0,0 +1,128 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.FindexIncrementalCompactor;
+import com.cosmian.jna.findex.InMemoryEntryTable;
+import com.cosmian.jna.findex.IoBudget;
+import com.cosmian.jna.findex.ThrottledEntryTableDatabase;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+public class TestFindexIncrementalCompactor {
+
+    @Test
+    public void testResumeAfterFailure() throws Exception {
+        Path directory = Files.createTempDirectory("compaction");
+        Path cursor = directory.resolve("cursor");
+        try {
+            List<String> compactedLabels = new ArrayList<>();
+            List<Double> rates = new ArrayList<>();
+            AtomicLong failAt = new AtomicLong(-1);
+            FindexIncrementalCompactor.SliceCompactor compactor = (newLabel, compactingRate) -> {
+                if (compactedLabels.size() == failAt.get()) {
+                    throw new CloudproofException("database unavailable");
+                }
+                compactedLabels.add(newLabel);
+                rates.add(compactingRate);
+            };
+            List<Long> progress = new ArrayList<>();
+            FindexIncrementalCompactor incremental =
+                new FindexIncrementalCompactor(compactor, n -> "label-" + n, cursor).slicesPerPass(4)
+                    .listener((completed, slicesPerPass, nanos) -> progress.add(completed));
+            assertEquals("label-0", incremental.getLabel());
+            assertEquals(4, incremental.runPass());
+            assertEquals(0.25, rates.get(0));
+            assertEquals(Arrays.asList(1L, 2L, 3L, 4L), progress);
+
+            // the sixth slice fails
+            failAt.set(5);
+            assertThrows(CloudproofException.class, () -> incremental.runSlices(3));
+            assertEquals(5, incremental.getCompletedSlices());
+            assertTrue(incremental.isSliceInterrupted());
+            assertThrows(CloudproofException.class, () -> incremental.runSlices(1));
+
+            // a new process finds the interrupted slice in the cursor
+            FindexIncrementalCompactor resumed =
+                new FindexIncrementalCompactor(compactor, n -> "label-" + n, cursor).slicesPerPass(4);
+            assertEquals(5, resumed.getCompletedSlices());
+            assertEquals("label-5", resumed.getLabel());
+            assertEquals("label-6", resumed.getInterruptedSliceLabel());
+            resumed.resolveInterruptedSlice(false);
+            assertNull(resumed.getInterruptedSliceLabel());
+
+            // the rest of the pass
+            failAt.set(-1);
+            assertEquals(8, resumed.runPass());
+            assertEquals("label-8", compactedLabels.get(compactedLabels.size() - 1));
+            assertEquals(8, new FindexIncrementalCompactor(compactor, n -> "label-" + n, cursor)
+                .getCompletedSlices());
+        } finally {
+            TestMappedTables.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testBackgroundCompaction() throws Exception {
+        Path directory = Files.createTempDirectory("compaction");
+        try {
+            CountDownLatch slices = new CountDownLatch(3);
+            try (FindexIncrementalCompactor incremental = new FindexIncrementalCompactor(
+                (newLabel, compactingRate) -> slices.countDown(), n -> "label-" + n, directory.resolve("cursor"))) {
+                incremental.start(1);
+                assertTrue(slices.await(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            TestMappedTables.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testThrottledTable() throws Exception {
+        Random rand = new Random();
+        InMemoryEntryTable table = new InMemoryEntryTable();
+        // one second of budget is available at once
+        IoBudget budget = IoBudget.linesPerSecond(20_000);
+        ThrottledEntryTableDatabase throttled = new ThrottledEntryTableDatabase(table, budget);
+        long start = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int j = 0; j < 1000; j++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            throttled.insert(lines);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(30_000, table.size());
+        assertTrue(elapsedMillis >= 400, "30k lines at 20k lines/s took " + elapsedMillis + "ms");
+        assertTrue(budget.getWaitNanos() > 0);
+
+        // the bytes read are paid by the next calls
+        IoBudget bytes = IoBudget.bytesPerSecond(1_000_000);
+        ThrottledEntryTableDatabase throttledBytes = new ThrottledEntryTableDatabase(table, bytes);
+        List<Uid32> uids = new ArrayList<>(table.fetchAllUids());
+        throttledBytes.fetch(uids.subList(0, 20_000));
+        assertEquals(0, bytes.getWaitNanos());
+        throttledBytes.delete(Collections.singletonList(uids.get(0)));
+        assertTrue(bytes.getWaitNanos() >= 500_000_000L);
+    }
+}
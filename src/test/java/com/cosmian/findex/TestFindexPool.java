@@ -0,0 +1,109 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.TestUtils;
+import com.cosmian.jna.findex.Findex;
+import com.cosmian.jna.findex.FindexPool;
+
+public class TestFindexPool {
+
+    @BeforeAll
+    public static void before_all() {
+        TestUtils.initLogging();
+    }
+
+    @Test
+    public void testPool() throws Exception {
+        byte[] key = IndexUtils.generateKey();
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable();
+            FindexPool pool = new FindexPool(2, 0)) {
+
+            Findex tenant1;
+            try (FindexPool.Lease lease = pool.get(key, "tenant_1", entryTable, chainTable)) {
+                tenant1 = lease.getFindex();
+                tenant1.add(TestSqlite.mapToIndex("John", 1));
+            }
+            try (FindexPool.Lease lease = pool.get(key, "tenant_1", entryTable, chainTable)) {
+                assertSame(tenant1, lease.getFindex());
+            }
+            // the copy of the key has the same fingerprint
+            try (FindexPool.Lease lease =
+                pool.get(Arrays.copyOf(key, key.length), "tenant_1", entryTable, chainTable)) {
+                assertSame(tenant1, lease.getFindex());
+            }
+            assertEquals(2, pool.getHits());
+            assertEquals(1, pool.getMisses());
+
+            // the backend of a pooled instance cannot change
+            assertThrows(IllegalArgumentException.class,
+                () -> pool.get(key, "tenant_1", 2, entryTable, chainTable));
+
+            Findex tenant2;
+            try (FindexPool.Lease lease = pool.get(key, "tenant_2", entryTable, chainTable)) {
+                tenant2 = lease.getFindex();
+            }
+            assertNotSame(tenant1, tenant2);
+            // keep tenant 1 leased, so that tenant 2 is the least recently used
+            FindexPool.Lease tenant1Lease = pool.get(key, "tenant_1", entryTable, chainTable);
+            FindexPool.Lease tenant3Lease = pool.get(key, "tenant_3", entryTable, chainTable);
+            Findex tenant3 = tenant3Lease.getFindex();
+            assertEquals(2, pool.size());
+            assertEquals(1, pool.getEvictions());
+            assertTrue(tenant2.isClosed());
+            assertFalse(tenant1.isClosed());
+            assertFalse(tenant3.isClosed());
+
+            // tenant 1 is evicted while leased: it stays usable until the lease is released
+            try (FindexPool.Lease lease = pool.get(key, "tenant_4", entryTable, chainTable)) {
+                assertNotSame(tenant1, lease.getFindex());
+                assertEquals(2, pool.getEvictions());
+            }
+            assertFalse(tenant1.isClosed());
+            assertEquals(new HashSet<>(Arrays.asList(1L)), tenant1.search(new String[] {"John"}).getNumbers());
+            tenant1Lease.close();
+            assertTrue(tenant1.isClosed());
+
+            assertTrue(pool.invalidate(key, "tenant_3"));
+            assertFalse(tenant3.isClosed());
+            tenant3Lease.close();
+            assertTrue(tenant3.isClosed());
+            assertEquals(1, pool.size());
+        }
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        byte[] key = IndexUtils.generateKey();
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable();
+            FindexPool pool = new FindexPool(10, 50)) {
+
+            Findex findex;
+            try (FindexPool.Lease lease = pool.get(key, "label", entryTable, chainTable)) {
+                findex = lease.getFindex();
+            }
+            Thread.sleep(100);
+            assertEquals(1, pool.evictIdle());
+            assertTrue(findex.isClosed());
+            assertEquals(0, pool.size());
+
+            try (FindexPool.Lease lease = pool.get(key, "label", entryTable, chainTable)) {
+                assertNotSame(findex, lease.getFindex());
+            }
+            assertEquals(2, pool.getMisses());
+        }
+    }
+}
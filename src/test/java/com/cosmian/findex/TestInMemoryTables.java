@@ -0,0 +1,129 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.InMemoryChainTable;
+import com.cosmian.jna.findex.InMemoryEntryTable;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+
+public class TestInMemoryTables {
+
+    @Test
+    public void testInMemoryEntryTable() throws Exception {
+        Random rand = new Random();
+        InMemoryEntryTable entryTable = new InMemoryEntryTable(8, 4096);
+        Map<Uid32, EntryTableValue> lines = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+        }
+        entryTable.insert(lines);
+        assertEquals(lines.keySet(), entryTable.fetchAllUids());
+
+        List<Uid32> uids = new ArrayList<>(lines.keySet());
+        uids.add(TestCallbacks.randomUid(rand));
+        assertEquals(lines, TestCachingEntryTableDatabase.toMap(entryTable.fetch(uids)));
+
+        // half of the upserts use an outdated previous value, and a new line is added
+        Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+        Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+        Map<Uid32, EntryTableValue> expected = new HashMap<>(lines);
+        int i = 0;
+        for (Map.Entry<Uid32, EntryTableValue> line : lines.entrySet()) {
+            EntryTableValue newValue = TestCallbacks.randomValue(rand);
+            if (i++ % 2 == 0) {
+                upserts.put(line.getKey(), new EntryTableValues(line.getValue(), newValue));
+                expected.put(line.getKey(), newValue);
+            } else {
+                upserts.put(line.getKey(), new EntryTableValues(TestCallbacks.randomValue(rand), newValue));
+                expectedFailures.put(line.getKey(), line.getValue());
+            }
+        }
+        Uid32 newUid = TestCallbacks.randomUid(rand);
+        EntryTableValue newLine = TestCallbacks.randomValue(rand);
+        upserts.put(newUid, new EntryTableValues(new EntryTableValue(), newLine));
+        expected.put(newUid, newLine);
+        // the slabs are reused by the overwritten lines
+        long allocated = entryTable.getAllocatedBytes();
+        assertEquals(expectedFailures, entryTable.upsert(upserts));
+        assertEquals(expected, TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected
+            .keySet()))));
+        assertEquals(allocated, entryTable.getAllocatedBytes(), 4096.0);
+
+        // a value larger than a slab
+        EntryTableValue large = new EntryTableValue(new byte[10_000]);
+        entryTable.insert(Collections.singletonMap(newUid, large));
+        assertEquals(large, entryTable.fetch(Collections.singletonList(newUid)).get(0).getRight());
+
+        entryTable.delete(uids.subList(0, 500));
+        assertEquals(501, entryTable.size());
+
+        entryTable.clear();
+        assertEquals(0, entryTable.size());
+        assertEquals(0, entryTable.getAllocatedBytes());
+    }
+
+    @Test
+    public void testInMemoryEntryTableConcurrentUpserts() throws Exception {
+        Random rand = new Random();
+        InMemoryEntryTable entryTable = new InMemoryEntryTable(4, 1 << 16);
+        List<Uid32> uids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            uids.add(TestCallbacks.randomUid(rand));
+        }
+        // every thread tries to create all the lines: a single upsert may succeed per line
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Map<Uid32, EntryTableValue>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+                for (Uid32 uid : uids) {
+                    upserts.put(uid, new EntryTableValues(new EntryTableValue(), TestCallbacks.randomValue(rand)));
+                }
+                futures.add(executor.submit(() -> entryTable.upsert(upserts)));
+            }
+            int failures = 0;
+            for (Future<Map<Uid32, EntryTableValue>> future : futures) {
+                failures += future.get().size();
+            }
+            assertEquals(7 * uids.size(), failures);
+            assertEquals(uids.size(), entryTable.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInMemoryChainTable() throws Exception {
+        Random rand = new Random();
+        InMemoryChainTable chainTable = new InMemoryChainTable();
+        Map<Uid32, ChainTableValue> lines = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.put(TestCallbacks.randomUid(rand), TestCachingChainTableDatabase.randomValue(rand));
+        }
+        chainTable.insert(lines);
+        List<Uid32> uids = new ArrayList<>(lines.keySet());
+        assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+
+        chainTable.delete(uids.subList(0, 400));
+        for (Uid32 uid : uids.subList(0, 400)) {
+            lines.remove(uid);
+        }
+        assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+        assertEquals(600, chainTable.size());
+    }
+}
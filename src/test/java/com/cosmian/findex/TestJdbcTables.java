@@ -0,0 +1,197 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+
+import com.cosmian.jna.findex.JdbcChainTableDatabase;
+import com.cosmian.jna.findex.JdbcEntryTableDatabase;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+
+public class TestJdbcTables {
+
+    static SQLiteDataSource dataSource(File file) {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + file.getAbsolutePath());
+        return dataSource;
+    }
+
+    @Test
+    public void testJdbcEntryTable() throws Exception {
+        File file = Files.createTempFile("entry_table", ".db").toFile();
+        try {
+            Random rand = new Random();
+            // small IN lists and batches to exercise the chunking
+            JdbcEntryTableDatabase entryTable =
+                new JdbcEntryTableDatabase(dataSource(file), "entry_table").maxInListSize(16).batchSize(7);
+            entryTable.createTable();
+
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            entryTable.insert(lines);
+            assertEquals(lines.keySet(), entryTable.fetchAllUids());
+
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            uids.add(TestCallbacks.randomUid(rand));
+            assertEquals(lines, TestCachingEntryTableDatabase.toMap(entryTable.fetch(uids)));
+            for (int n : new int[] {1, 2, 3, 17, 33}) {
+                assertEquals(n, entryTable.fetch(uids.subList(0, n)).size());
+            }
+
+            // half of the upserts use an outdated previous value, and a new line is added
+            Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+            Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+            Map<Uid32, EntryTableValue> expected = new HashMap<>(lines);
+            int i = 0;
+            for (Map.Entry<Uid32, EntryTableValue> line : lines.entrySet()) {
+                EntryTableValue newValue = TestCallbacks.randomValue(rand);
+                if (i++ % 2 == 0) {
+                    upserts.put(line.getKey(), new EntryTableValues(line.getValue(), newValue));
+                    expected.put(line.getKey(), newValue);
+                } else {
+                    upserts.put(line.getKey(), new EntryTableValues(TestCallbacks.randomValue(rand), newValue));
+                    expectedFailures.put(line.getKey(), line.getValue());
+                }
+            }
+            Uid32 newUid = TestCallbacks.randomUid(rand);
+            EntryTableValue newLine = TestCallbacks.randomValue(rand);
+            upserts.put(newUid, new EntryTableValues(new EntryTableValue(), newLine));
+            expected.put(newUid, newLine);
+            assertEquals(expectedFailures, entryTable.upsert(upserts));
+            assertEquals(expected, TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected
+                .keySet()))));
+
+            entryTable.delete(uids.subList(0, 50));
+            assertEquals(51, entryTable.fetchAllUids().size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A data source whose batches report {@link Statement#SUCCESS_NO_INFO}, as some drivers do
+     */
+    static DataSource noInfoDataSource(DataSource dataSource) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+            new Class<?>[] {DataSource.class}, (proxy, method, args) -> {
+                Object result = invoke(dataSource, method, args);
+                if (!method.getName().equals("getConnection")) {
+                    return result;
+                }
+                Connection connection = (Connection) result;
+                return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (c, m, a) -> {
+                        Object r = invoke(connection, m, a);
+                        if (!m.getName().equals("prepareStatement")) {
+                            return r;
+                        }
+                        PreparedStatement statement = (PreparedStatement) r;
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                            new Class<?>[] {PreparedStatement.class}, (st, sm, sa) -> {
+                                Object counts = invoke(statement, sm, sa);
+                                if (sm.getName().equals("executeBatch")) {
+                                    Arrays.fill((int[]) counts, Statement.SUCCESS_NO_INFO);
+                                }
+                                return counts;
+                            });
+                    });
+            });
+    }
+
+    private static Object invoke(Object target,
+                                 Method method,
+                                 Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void testJdbcEntryTableFailedUpserts() throws Exception {
+        for (boolean noInfo : new boolean[] {false, true}) {
+            File file = Files.createTempFile("entry_table", ".db").toFile();
+            try {
+                Random rand = new Random();
+                DataSource dataSource = noInfo ? noInfoDataSource(dataSource(file)) : dataSource(file);
+                // an update only conditional upsert, which does not write the lines deleted concurrently
+                JdbcEntryTableDatabase entryTable = new JdbcEntryTableDatabase(dataSource, "entry_table")
+                    .upsertSql("UPDATE entry_table SET value = ?2 WHERE uid = ?1 AND value = ?4 AND ?3 IS NOT NULL");
+                entryTable.createTable();
+
+                Uid32 updated = TestCallbacks.randomUid(rand);
+                Uid32 outdated = TestCallbacks.randomUid(rand);
+                Uid32 deleted = TestCallbacks.randomUid(rand);
+                Map<Uid32, EntryTableValue> lines = new HashMap<>();
+                lines.put(updated, TestCallbacks.randomValue(rand));
+                lines.put(outdated, TestCallbacks.randomValue(rand));
+                entryTable.insert(lines);
+
+                Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+                upserts.put(updated, new EntryTableValues(lines.get(updated), TestCallbacks.randomValue(rand)));
+                upserts.put(outdated,
+                    new EntryTableValues(TestCallbacks.randomValue(rand), TestCallbacks.randomValue(rand)));
+                upserts.put(deleted,
+                    new EntryTableValues(TestCallbacks.randomValue(rand), TestCallbacks.randomValue(rand)));
+                Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+                expectedFailures.put(outdated, lines.get(outdated));
+                expectedFailures.put(deleted, new EntryTableValue(new byte[0]));
+                assertEquals(expectedFailures, entryTable.upsert(upserts));
+                assertEquals(upserts.get(updated).getNew(),
+                    entryTable.fetch(Collections.singletonList(updated)).get(0).getRight());
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testJdbcChainTable() throws Exception {
+        File file = Files.createTempFile("chain_table", ".db").toFile();
+        try {
+            Random rand = new Random();
+            JdbcChainTableDatabase chainTable =
+                new JdbcChainTableDatabase(dataSource(file), "chain_table").maxInListSize(16).batchSize(7);
+            chainTable.createTable();
+
+            Map<Uid32, ChainTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCachingChainTableDatabase.randomValue(rand));
+            }
+            chainTable.insert(lines);
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+
+            chainTable.delete(uids.subList(0, 30));
+            assertEquals(70, chainTable.fetch(uids).size());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.MappedChainTable;
+import com.cosmian.jna.findex.MappedEntryTable;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+
+public class TestMappedTables {
+
+    // 39 Entry Table lines of 64 bytes per segment
+    static final int SEGMENT_SIZE = 4096;
+
+    static final int RECORD_SIZE = 4 + 4 + 32 + 64;
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testMappedEntryTable() throws Exception {
+        Path directory = Files.createTempDirectory("entry_table");
+        try {
+            Random rand = new Random();
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            Map<Uid32, EntryTableValue> expected = new HashMap<>(lines);
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, false, 0)) {
+                entryTable.insert(lines);
+                assertEquals(3, entryTable.getSegmentCount());
+                assertEquals(lines.keySet(), entryTable.fetchAllUids());
+
+                List<Uid32> uids = new ArrayList<>(lines.keySet());
+                uids.add(TestCallbacks.randomUid(rand));
+                assertEquals(lines, TestCachingEntryTableDatabase.toMap(entryTable.fetch(uids)));
+
+                // half of the upserts use an outdated previous value, and a new line is added
+                Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+                Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+                int i = 0;
+                for (Map.Entry<Uid32, EntryTableValue> line : lines.entrySet()) {
+                    EntryTableValue newValue = TestCallbacks.randomValue(rand);
+                    if (i++ % 2 == 0) {
+                        upserts.put(line.getKey(), new EntryTableValues(line.getValue(), newValue));
+                        expected.put(line.getKey(), newValue);
+                    } else {
+                        upserts.put(line.getKey(), new EntryTableValues(TestCallbacks.randomValue(rand), newValue));
+                        expectedFailures.put(line.getKey(), line.getValue());
+                    }
+                }
+                Uid32 newUid = TestCallbacks.randomUid(rand);
+                EntryTableValue newLine = TestCallbacks.randomValue(rand);
+                upserts.put(newUid, new EntryTableValues(new EntryTableValue(), newLine));
+                expected.put(newUid, newLine);
+                assertEquals(expectedFailures, entryTable.upsert(upserts));
+
+                entryTable.delete(uids.subList(0, 50));
+                for (Uid32 uid : uids.subList(0, 50)) {
+                    expected.remove(uid);
+                }
+                assertEquals(expected,
+                    TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected.keySet()))));
+            }
+
+            // the index is rebuilt from the log
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, false, 0)) {
+                assertEquals(expected.keySet(), entryTable.fetchAllUids());
+                assertEquals(expected,
+                    TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected.keySet()))));
+
+                // the first segments only hold overwritten and deleted lines
+                int segments = entryTable.getSegmentCount();
+                assertTrue(entryTable.merge() >= 2);
+                assertTrue(entryTable.getSegmentCount() < segments);
+                assertEquals(expected,
+                    TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected.keySet()))));
+            }
+
+            // the merged log is recovered, with the deleted lines still deleted
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, false, 0)) {
+                assertEquals(expected.keySet(), entryTable.fetchAllUids());
+                assertEquals(expected,
+                    TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected.keySet()))));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testMappedEntryTableTornWrite() throws Exception {
+        Path directory = Files.createTempDirectory("entry_table");
+        try {
+            Random rand = new Random();
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 50; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, true, 0)) {
+                entryTable.insert(lines);
+            }
+
+            // corrupt the value of the last record: 50 = 39 + 11 records
+            Uid32 lost;
+            try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-2.log").toFile(), "rw")) {
+                long offset = 10L * RECORD_SIZE;
+                byte[] uid = new byte[32];
+                file.seek(offset + 8);
+                file.readFully(uid);
+                lost = new Uid32(uid);
+                file.seek(offset + RECORD_SIZE - 1);
+                int b = file.read();
+                file.seek(offset + RECORD_SIZE - 1);
+                file.write(b ^ 0xFF);
+            }
+            lines.remove(lost);
+
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, true, 0)) {
+                assertEquals(lines.keySet(), entryTable.fetchAllUids());
+                // the torn record is overwritten by the next write
+                EntryTableValue value = TestCallbacks.randomValue(rand);
+                entryTable.insert(Collections.singletonMap(lost, value));
+                lines.put(lost, value);
+            }
+            try (MappedEntryTable entryTable = new MappedEntryTable(directory, SEGMENT_SIZE, true, 0)) {
+                assertEquals(lines,
+                    TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(lines.keySet()))));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testMappedEntryTableConcurrentUpserts() throws Exception {
+        Path directory = Files.createTempDirectory("entry_table");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (MappedEntryTable entryTable = new MappedEntryTable(directory, 1 << 20, false, 0)) {
+            Random rand = new Random();
+            List<Uid32> uids = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                uids.add(TestCallbacks.randomUid(rand));
+            }
+            // every thread tries to create all the lines: a single upsert may succeed per line
+            List<Future<Map<Uid32, EntryTableValue>>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+                for (Uid32 uid : uids) {
+                    upserts.put(uid, new EntryTableValues(new EntryTableValue(), TestCallbacks.randomValue(rand)));
+                }
+                futures.add(executor.submit(() -> entryTable.upsert(upserts)));
+            }
+            int failures = 0;
+            for (Future<Map<Uid32, EntryTableValue>> future : futures) {
+                Map<Uid32, EntryTableValue> failed = future.get();
+                failures += failed.size();
+                for (Map.Entry<Uid32, EntryTableValue> line : failed.entrySet()) {
+                    assertTrue(Arrays.equals(line.getValue().getBytes(),
+                        entryTable.fetch(Collections.singletonList(line.getKey())).get(0).getRight()
+                            .getBytes()));
+                }
+            }
+            assertEquals(7 * uids.size(), failures);
+            assertEquals(uids.size(), entryTable.fetchAllUids().size());
+        } finally {
+            executor.shutdown();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testMappedChainTable() throws Exception {
+        Path directory = Files.createTempDirectory("chain_table");
+        try {
+            Random rand = new Random();
+            Map<Uid32, ChainTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 500; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCachingChainTableDatabase.randomValue(rand));
+            }
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            try (MappedChainTable chainTable = new MappedChainTable(directory, SEGMENT_SIZE, false, 0)) {
+                chainTable.insert(lines);
+                assertTrue(chainTable.getSegmentCount() > 1);
+                assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+
+                chainTable.delete(uids.subList(0, 400));
+                for (Uid32 uid : uids.subList(0, 400)) {
+                    lines.remove(uid);
+                }
+                assertTrue(chainTable.merge() > 0);
+                assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+            }
+            try (MappedChainTable chainTable = new MappedChainTable(directory, SEGMENT_SIZE, false, 0)) {
+                assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+            }
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.RedisChainTableDatabase;
+import com.cosmian.jna.findex.RedisEntryTableDatabase;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+
+import redis.clients.jedis.JedisPool;
+
+public class TestRedisTables {
+
+    @Test
+    public void testRedisEntryTable() throws Exception {
+        try (RedisStandIn redis = new RedisStandIn();
+            JedisPool pool = new JedisPool(redis.getHost(), redis.getPort())) {
+            Random rand = new Random();
+            // small batches and scans to exercise the pipelines and the cursor
+            RedisEntryTableDatabase entryTable = new RedisEntryTableDatabase(pool).batchSize(7).scanCount(16);
+            // a line of the Chain Table, which must not be listed
+            new RedisChainTableDatabase(pool).insert(Collections.singletonMap(TestCallbacks.randomUid(rand),
+                TestCachingChainTableDatabase.randomValue(rand)));
+
+            Map<Uid32, EntryTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+            }
+            entryTable.insert(lines);
+            assertEquals(lines.keySet(), entryTable.fetchAllUids());
+
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            uids.add(TestCallbacks.randomUid(rand));
+            assertEquals(lines, TestCachingEntryTableDatabase.toMap(entryTable.fetch(uids)));
+
+            // half of the upserts use an outdated previous value, and a new line is added
+            Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+            Map<Uid32, EntryTableValue> expectedFailures = new HashMap<>();
+            Map<Uid32, EntryTableValue> expected = new HashMap<>(lines);
+            int i = 0;
+            for (Map.Entry<Uid32, EntryTableValue> line : lines.entrySet()) {
+                EntryTableValue newValue = TestCallbacks.randomValue(rand);
+                if (i++ % 2 == 0) {
+                    upserts.put(line.getKey(), new EntryTableValues(line.getValue(), newValue));
+                    expected.put(line.getKey(), newValue);
+                } else {
+                    upserts.put(line.getKey(), new EntryTableValues(TestCallbacks.randomValue(rand), newValue));
+                    expectedFailures.put(line.getKey(), line.getValue());
+                }
+            }
+            Uid32 newUid = TestCallbacks.randomUid(rand);
+            EntryTableValue newLine = TestCallbacks.randomValue(rand);
+            upserts.put(newUid, new EntryTableValues(new EntryTableValue(), newLine));
+            expected.put(newUid, newLine);
+            assertEquals(expectedFailures, entryTable.upsert(upserts));
+            assertEquals(expected,
+                TestCachingEntryTableDatabase.toMap(entryTable.fetch(new ArrayList<>(expected.keySet()))));
+
+            // the script is loaded again when the server forgot it
+            redis.flushScripts();
+            Map<Uid32, EntryTableValues> retried = new HashMap<>();
+            EntryTableValue retriedValue = TestCallbacks.randomValue(rand);
+            retried.put(newUid, new EntryTableValues(newLine, retriedValue));
+            assertEquals(0, entryTable.upsert(retried).size());
+            assertEquals(retriedValue, entryTable.fetch(Collections.singletonList(newUid)).get(0).getRight());
+
+            entryTable.delete(uids.subList(0, 50));
+            assertEquals(51, entryTable.fetchAllUids().size());
+        }
+    }
+
+    @Test
+    public void testRedisChainTable() throws Exception {
+        try (RedisStandIn redis = new RedisStandIn();
+            JedisPool pool = new JedisPool(redis.getHost(), redis.getPort())) {
+            Random rand = new Random();
+            RedisChainTableDatabase chainTable = new RedisChainTableDatabase(pool).batchSize(16);
+            Map<Uid32, ChainTableValue> lines = new HashMap<>();
+            for (int i = 0; i < 100; i++) {
+                lines.put(TestCallbacks.randomUid(rand), TestCachingChainTableDatabase.randomValue(rand));
+            }
+            chainTable.insert(lines);
+            List<Uid32> uids = new ArrayList<>(lines.keySet());
+            assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+
+            chainTable.delete(uids.subList(0, 40));
+            for (Uid32 uid : uids.subList(0, 40)) {
+                lines.remove(uid);
+            }
+            assertEquals(lines, TestCachingChainTableDatabase.toMap(chainTable.fetch(uids)));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.findex.TestCachingChainTableDatabase.MemoryChainTable;
+import com.cosmian.findex.TestCallbacks.MemoryEntryTable;
+import com.cosmian.jna.findex.ShardRouter;
+import com.cosmian.jna.findex.ShardedChainTableDatabase;
+import com.cosmian.jna.findex.ShardedEntryTableDatabase;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+public class TestShardedTables {
+
+    @Test
+    public void testRouters() throws Exception {
+        Random rand = new Random();
+        List<Uid32> uids = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            uids.add(TestCallbacks.randomUid(rand));
+        }
+        for (ShardRouter router : new ShardRouter[] {ShardRouter.byPrefix(4), ShardRouter.consistentHashing(4, 128)}) {
+            int[] counts = new int[4];
+            for (Uid32 uid : uids) {
+                counts[router.shard(uid)]++;
+            }
+            for (int count : counts) {
+                // evenly spread, within 30%
+                assert (count > 7_000 && count < 13_000);
+            }
+        }
+
+        // adding a shard moves about a fifth of the lines with consistent hashing
+        ShardRouter four = ShardRouter.consistentHashing(4, 128);
+        ShardRouter five = ShardRouter.consistentHashing(5, 128);
+        int moved = 0;
+        for (Uid32 uid : uids) {
+            if (four.shard(uid) != five.shard(uid)) {
+                moved++;
+                assertEquals(4, five.shard(uid));
+            }
+        }
+        assert (moved < 40_000 * 0.3);
+    }
+
+    @Test
+    public void testShardedTables() throws Exception {
+        Random rand = new Random();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<MemoryEntryTable> entryShards = new ArrayList<>();
+            List<MemoryChainTable> chainShards = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                entryShards.add(new MemoryEntryTable());
+                chainShards.add(new MemoryChainTable());
+            }
+            ShardRouter router = ShardRouter.consistentHashing(4, 64);
+            ShardedEntryTableDatabase entryTable = new ShardedEntryTableDatabase(entryShards, router, executor);
+            ShardedChainTableDatabase chainTable = new ShardedChainTableDatabase(chainShards, executor);
+
+            Map<Uid32, EntryTableValue> entries = new HashMap<>();
+            Map<Uid32, ChainTableValue> chains = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                entries.put(TestCallbacks.randomUid(rand), TestCallbacks.randomValue(rand));
+                chains.put(TestCallbacks.randomUid(rand), TestCachingChainTableDatabase.randomValue(rand));
+            }
+            entryTable.insert(entries);
+            chainTable.insert(chains);
+
+            // each line is held by its shard only
+            int total = 0;
+            for (int i = 0; i < 4; i++) {
+                for (Uid32 uid : entryShards.get(i).table.keySet()) {
+                    assertEquals(i, router.shard(uid));
+                }
+                total += entryShards.get(i).table.size();
+            }
+            assertEquals(1000, total);
+
+            List<Uid32> entryUids = new ArrayList<>(entries.keySet());
+            assertEquals(entries, TestCachingEntryTableDatabase.toMap(entryTable.fetch(entryUids)));
+            assertEquals(chains, TestCachingChainTableDatabase.toMap(chainTable.fetch(new ArrayList<>(chains
+                .keySet()))));
+            assertEquals(entries.keySet(), entryTable.fetchAllUids());
+
+            // the failed upserts of all shards are merged
+            Map<Uid32, EntryTableValues> upserts = new HashMap<>();
+            for (Uid32 uid : entryUids) {
+                upserts.put(uid, new EntryTableValues(TestCallbacks.randomValue(rand), TestCallbacks.randomValue(rand)));
+            }
+            assertEquals(entries, entryTable.upsert(upserts));
+
+            entryTable.delete(entryUids.subList(0, 500));
+            assertEquals(500, entryTable.fetch(entryUids).size());
+
+            // a failing shard fails the call, once the other shards completed
+            MemoryEntryTable failing = new MemoryEntryTable() {
+                @Override
+                public void delete(List<Uid32> uids) throws CloudproofException {
+                    throw new CloudproofException("shard down");
+                }
+            };
+            List<MemoryEntryTable> withFailing = new ArrayList<>(entryShards);
+            withFailing.set(3, failing);
+            ShardedEntryTableDatabase failingTable = new ShardedEntryTableDatabase(withFailing, router, executor);
+            CloudproofException e = assertThrows(CloudproofException.class, () -> failingTable.delete(entryUids));
+            assertEquals("shard down", e.getMessage());
+            assertEquals(0, entryTable.fetch(entryUids.subList(500, 1000)).stream()
+                .filter(line -> router.shard(line.getLeft()) != 3).count());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.cosmian.findex;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
@@ -9,6 +10,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeAll;
@@ -17,11 +19,15 @@ import org.junit.jupiter.api.Test;
 import com.cosmian.TestUtils;
 import com.cosmian.jna.findex.DataFilter;
 import com.cosmian.jna.findex.Findex;
+import com.cosmian.jna.findex.Interrupt;
 import com.cosmian.jna.findex.ffi.SearchResults;
 import com.cosmian.jna.findex.ffi.KeywordSet;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.EntryTableValue;
 import com.cosmian.jna.findex.structs.IndexedValue;
 import com.cosmian.jna.findex.structs.Keyword;
 import com.cosmian.jna.findex.structs.Location;
+import com.cosmian.jna.findex.structs.Uid32;
 import com.cosmian.utils.CloudproofException;
 import com.cosmian.utils.Resources;
 
@@ -245,6 +251,126 @@ public class TestSqlite {
         }
     }
 
+    @Test
+    public void testAdaptiveSearchBuffer() throws Exception {
+        byte[] key = IndexUtils.generateKey();
+        String label = IndexUtils.loadLabel();
+        // 20 000 numeric locations serialize to about 180kB: more than the default buffer size
+        Map<IndexedValue, Set<Keyword>> indexedValuesAndWords = new HashMap<>();
+        Set<Long> expectedLocations = new HashSet<>();
+        for (long i = 0; i < 20_000; i++) {
+            indexedValuesAndWords.put(new Location(i).toIndexedValue(),
+                new HashSet<>(Arrays.asList(new Keyword("popular"))));
+            expectedLocations.add(i);
+        }
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable();
+            Findex findex = new Findex(key, label, entryTable, chainTable)) {
+            findex.add(indexedValuesAndWords);
+            assertEquals(Findex.DEFAULT_SEARCH_RESULTS_BUFFER_SIZE, findex.getSearchResultsBufferSize());
+
+            // the first search does not fit in the default buffer and is executed twice
+            assertEquals(expectedLocations, findex.search(new String[] {"popular"}).getNumbers());
+            assertEquals(1, findex.getSearchReExecutions());
+            assert (findex.getSearchResultsBufferSize() > Findex.DEFAULT_SEARCH_RESULTS_BUFFER_SIZE);
+
+            // the following ones use the learned size
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expectedLocations, findex.search(new String[] {"popular"}).getNumbers());
+            }
+            assertEquals(1, findex.getSearchReExecutions());
+        }
+
+        // a size hint avoids the first re-execution
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable();
+            Findex findex = new Findex(key, label, entryTable, chainTable)) {
+            findex.add(indexedValuesAndWords);
+            Set<Keyword> keywords = new HashSet<>(Arrays.asList(new Keyword("popular")));
+            assertEquals(expectedLocations, findex.search(keywords, new Interrupt() {}, 1 << 20).getNumbers());
+            assertEquals(0, findex.getSearchReExecutions());
+        }
+    }
+
+    @Test
+    public void testSearchBatch() throws Exception {
+        byte[] key = IndexUtils.generateKey();
+        String label = IndexUtils.loadLabel();
+        AtomicInteger entryTableFetches = new AtomicInteger();
+        try (SqliteEntryTable entryTable = new SqliteEntryTable() {
+            @Override
+            public List<Tuple<Uid32, EntryTableValue>> fetch(List<Uid32> uids) throws CloudproofException {
+                entryTableFetches.incrementAndGet();
+                return super.fetch(uids);
+            }
+        };
+            SqliteChainTable chainTable = new SqliteChainTable();
+            Findex findex = new Findex(key, label, entryTable, chainTable)) {
+            // location i is indexed under the keywords "mod_<i % 10>" and "shared"
+            Map<IndexedValue, Set<Keyword>> indexedValuesAndWords = new HashMap<>();
+            for (long i = 0; i < 100; i++) {
+                indexedValuesAndWords.put(new Location(i).toIndexedValue(),
+                    new HashSet<>(Arrays.asList(new Keyword("mod_" + (i % 10)), new Keyword("shared"))));
+            }
+            findex.add(indexedValuesAndWords);
+
+            List<Set<Keyword>> queries = new ArrayList<>();
+            for (int q = 0; q < 10; q++) {
+                queries.add(new HashSet<>(Arrays.asList(new Keyword("mod_" + q), new Keyword("unknown_" + q))));
+            }
+            queries.add(new HashSet<>(Arrays.asList(new Keyword("shared"), new Keyword("mod_0"))));
+            queries.add(new HashSet<>());
+
+            entryTableFetches.set(0);
+            List<SearchResults> batch = findex.searchBatch(queries);
+            int batchFetches = entryTableFetches.get();
+
+            entryTableFetches.set(0);
+            assertEquals(queries.size(), batch.size());
+            for (int q = 0; q < queries.size(); q++) {
+                SearchResults expected = findex.search(queries.get(q), new Interrupt() {});
+                assertEquals(expected.getNumbers(), batch.get(q).getNumbers(), "query " + q);
+            }
+            int separateFetches = entryTableFetches.get();
+
+            assertEquals(10, batch.get(0).getNumbers().size());
+            assertEquals(100, batch.get(10).getNumbers().size());
+            assert (batch.get(11).isEmpty());
+            System.out.println("Entry Table fetches: " + batchFetches + " for the batch, " + separateFetches
+                + " for the separate searches");
+            assert (batchFetches < separateFetches);
+        }
+    }
+
+    @Test
+    public void testSearchStream() throws Exception {
+        byte[] key = IndexUtils.generateKey();
+        String label = IndexUtils.loadLabel();
+        Map<IndexedValue, Set<Keyword>> indexedValuesAndWords = new HashMap<>();
+        Set<Long> expectedLocations = new HashSet<>();
+        for (long i = 0; i < 1_000; i++) {
+            indexedValuesAndWords.put(new Location(i).toIndexedValue(),
+                new HashSet<>(Arrays.asList(new Keyword("popular"))));
+            expectedLocations.add(i);
+        }
+        try (SqliteEntryTable entryTable = new SqliteEntryTable();
+            SqliteChainTable chainTable = new SqliteChainTable();
+            Findex findex = new Findex(key, label, entryTable, chainTable)) {
+            findex.add(indexedValuesAndWords);
+            Set<Keyword> keywords = new HashSet<>(Arrays.asList(new Keyword("popular")));
+
+            Set<Long> streamed = findex.searchStream(keywords, 0).map(location -> location.toNumber())
+                .collect(Collectors.toSet());
+            assertEquals(expectedLocations, streamed);
+
+            List<Location> limited = findex.searchStream(keywords, 10).collect(Collectors.toList());
+            assertEquals(10, limited.size());
+            for (Location location : limited) {
+                assert (expectedLocations.contains(location.toNumber()));
+            }
+        }
+    }
+
     /**
      * Check allocation problem during insertions. Allocation problem could occur when fetching entry table /* values
      * whose sizes depend on words being indexed: the Entry Table Encrypted value is: `EncSym(𝐾value, (ict_uid𝑥𝑤𝑖,
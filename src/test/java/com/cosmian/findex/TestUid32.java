@@ -0,0 +1,98 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.jna.findex.serde.Leb128Reader;
+import com.cosmian.jna.findex.serde.Leb128Writer;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.jna.findex.structs.Uid32HashMap;
+
+/**
+ * Check the {@link Uid32} representation and the {@link Uid32HashMap} against a {@link HashMap}.
+ */
+public class TestUid32 {
+
+    @Test
+    public void testUid32() throws Exception {
+        Random rand = new Random();
+        byte[] bytes = new byte[32];
+        rand.nextBytes(bytes);
+        Uid32 uid = new Uid32(bytes.clone());
+
+        // the same UID read from a byte array and from a (little-endian, as native memory) buffer
+        byte[] serialized = Leb128Writer.serializeCollection(Collections.singletonList(uid));
+        Uid32 fromBytes = Leb128Reader.<Uid32>deserializeCollection(Uid32.class, serialized).get(0);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(serialized.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(serialized).flip();
+        Uid32 fromBuffer = Leb128Reader.<Uid32>deserializeCollection(Uid32.class, buffer).get(0);
+
+        assertEquals(uid, fromBytes);
+        assertEquals(uid, fromBuffer);
+        assertEquals(uid.hashCode(), fromBuffer.hashCode());
+        assertArrayEquals(bytes, fromBuffer.getBytes());
+        assertEquals(uid.toString(), fromBuffer.toString());
+        assertArrayEquals(serialized, Leb128Writer.serializeCollection(Collections.singletonList(fromBuffer)));
+
+        bytes[31] ^= 1;
+        assertNotEquals(uid, new Uid32(bytes));
+    }
+
+    @Test
+    public void testUid32HashMap() throws Exception {
+        Random rand = new Random();
+        List<Uid32> uids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            uids.add(TestCallbacks.randomUid(rand));
+        }
+
+        Map<Uid32, EntryTableValue> expected = new HashMap<>();
+        Map<Uid32, EntryTableValue> map = new Uid32HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            Uid32 uid = uids.get(rand.nextInt(uids.size()));
+            switch (rand.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(uid), map.remove(uid));
+                    break;
+                case 1:
+                    assertEquals(expected.get(uid), map.get(uid));
+                    break;
+                default:
+                    EntryTableValue value = TestCallbacks.randomValue(rand);
+                    assertEquals(expected.put(uid, value), map.put(uid, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+
+        // removal while iterating
+        Iterator<Map.Entry<Uid32, EntryTableValue>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Uid32, EntryTableValue> entry = it.next();
+            if (entry.getKey().hashCode() % 2 == 0) {
+                it.remove();
+                expected.remove(entry.getKey());
+            }
+        }
+        assertEquals(expected, map);
+
+        map.keySet().removeAll(new ArrayList<>(expected.keySet()));
+        assert (map.isEmpty());
+    }
+}
@@ -0,0 +1,125 @@
+package com.cosmian.findex;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.cosmian.findex.TestCachingChainTableDatabase.MemoryChainTable;
+import com.cosmian.findex.TestCallbacks.MemoryEntryTable;
+import com.cosmian.jna.findex.EntryTableDatabase;
+import com.cosmian.jna.findex.WriteBehindChainTableDatabase;
+import com.cosmian.jna.findex.serde.Tuple;
+import com.cosmian.jna.findex.structs.ChainTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValue;
+import com.cosmian.jna.findex.structs.EntryTableValues;
+import com.cosmian.jna.findex.structs.Uid32;
+import com.cosmian.utils.CloudproofException;
+
+public class TestWriteBehindChainTableDatabase {
+
+    /**
+     * A Chain Table counting its inserts, which can be made to fail
+     */
+    static class CountingChainTable extends MemoryChainTable {
+        int inserts = 0;
+
+        volatile boolean failing = false;
+
+        @Override
+        public synchronized void insert(Map<Uid32, ChainTableValue> uidsAndValues) {
+            if (failing) {
+                throw new IllegalStateException("insert failure");
+            }
+            inserts++;
+            super.insert(uidsAndValues);
+        }
+
+        @Override
+        public synchronized List<Tuple<Uid32, ChainTableValue>> fetch(List<Uid32> uids) {
+            return super.fetch(uids);
+        }
+    }
+
+    static Map<Uid32, ChainTableValue> randomLines(Random rand,
+                                                   int count) {
+        Map<Uid32, ChainTableValue> lines = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[64];
+            rand.nextBytes(bytes);
+            lines.put(TestCallbacks.randomUid(rand), new ChainTableValue(bytes));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        Random rand = new Random();
+        CountingChainTable chainTable = new CountingChainTable();
+        try (WriteBehindChainTableDatabase writeBehind =
+            new WriteBehindChainTableDatabase(chainTable, 100 * (36 + 64), 60_000)) {
+            // 10 inserts of 10 lines are written in a single batch
+            Map<Uid32, ChainTableValue> all = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                Map<Uid32, ChainTableValue> lines = randomLines(rand, 10);
+                all.putAll(lines);
+                writeBehind.insert(lines);
+                // buffered lines are visible
+                assertEquals(all.size(), writeBehind.fetch(new ArrayList<>(all.keySet())).size());
+            }
+            assertEquals(1, chainTable.inserts);
+            assertEquals(all, chainTable.table);
+
+            // the barrier flushes the lines before the Entry Table upsert
+            MemoryEntryTable entryTable = new MemoryEntryTable();
+            EntryTableDatabase barrier = writeBehind.entryTableBarrier(entryTable);
+            writeBehind.insert(randomLines(rand, 5));
+            assertEquals(5, writeBehind.getPendingLines());
+            barrier.upsert(Collections.singletonMap(TestCallbacks.randomUid(rand),
+                new EntryTableValues(new EntryTableValue(), TestCallbacks.randomValue(rand))));
+            assertEquals(0, writeBehind.getPendingLines());
+            assertEquals(2, writeBehind.getBatches());
+            assertEquals(105, writeBehind.getLines());
+        }
+    }
+
+    @Test
+    public void testDelayedFlush() throws Exception {
+        Random rand = new Random();
+        CountingChainTable chainTable = new CountingChainTable();
+        try (WriteBehindChainTableDatabase writeBehind =
+            new WriteBehindChainTableDatabase(chainTable, 1 << 20, 50)) {
+            writeBehind.insert(randomLines(rand, 10));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (writeBehind.getPendingLines() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, writeBehind.getPendingLines());
+            assertEquals(10, chainTable.table.size());
+
+            // a failed delayed write is reported by the next insert, and its lines are kept
+            chainTable.failing = true;
+            writeBehind.insert(randomLines(rand, 10));
+            Thread.sleep(200);
+            assertEquals(10, writeBehind.getPendingLines());
+            assertThrows(CloudproofException.class, () -> writeBehind.insert(randomLines(rand, 1)));
+            assertEquals(10, writeBehind.getPendingLines());
+
+            // the failed lines are retried without any other call
+            chainTable.failing = false;
+            deadline = System.currentTimeMillis() + 5000;
+            while (writeBehind.getPendingLines() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, writeBehind.getPendingLines());
+            assertEquals(20, chainTable.table.size());
+        }
+    }
+}